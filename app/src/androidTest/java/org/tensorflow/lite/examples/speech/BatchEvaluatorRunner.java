@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs {@link BatchEvaluator} with the app's model over a dataset on the device and saves the
+ * {@link EvaluationReport} as {@code evaluation-report.txt}. The dataset is given by the {@code
+ * dataset} argument, laid out as {@link BatchEvaluator} describes; without one, this is skipped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchEvaluatorRunner {
+  @Test
+  public void evaluateDataset() throws IOException {
+    final File dataset = ToolSupport.getFileArgument("dataset");
+    assumeTrue("No dataset at " + dataset, dataset.isDirectory());
+
+    final PipelineSettings settings = new PipelineSettings();
+    settings.parallelism = ToolSupport.getIntArgument("parallelism", settings.parallelism);
+    final BatchEvaluator evaluator =
+        new BatchEvaluator(
+            ToolSupport.copyModel(SpeechActivity.MODEL_FILENAME),
+            ToolSupport.readLabels(),
+            settings);
+    final EvaluationReport report = evaluator.evaluate(dataset);
+    ToolSupport.writeReport("evaluation-report.txt", report.toString());
+
+    assertTrue("No clips under " + dataset, report.getClipCount() > 0);
+    assertEquals(0, report.getFailedClipCount());
+  }
+}
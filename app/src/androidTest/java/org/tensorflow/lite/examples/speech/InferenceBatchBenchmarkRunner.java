@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs {@link InferenceBatchBenchmark} on the device and saves the results as {@code
+ * inference-batch-benchmark.txt}. The app's model has no batch dimension, so this times a batch
+ * export of it instead when one is given by the {@code batch_model} argument. The {@code batches}
+ * argument sets how many batches are timed at each size.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InferenceBatchBenchmarkRunner {
+  private static final int DEFAULT_BATCHES = 50;
+
+  @Test
+  public void timeBatchSizes() throws IOException {
+    File model = ToolSupport.getFileArgument("batch_model");
+    if (!model.isFile()) {
+      model = ToolSupport.copyModel(SpeechActivity.MODEL_FILENAME);
+    }
+    final int batches = ToolSupport.getIntArgument("batches", DEFAULT_BATCHES);
+
+    final InferenceBatchBenchmark.Result[] results =
+        InferenceBatchBenchmark.run(
+            model, ToolSupport.readLabels().size(), new PipelineSettings(), batches);
+    final StringBuilder report = new StringBuilder(model.getName()).append('\n');
+    for (InferenceBatchBenchmark.Result result : results) {
+      report.append(result).append('\n');
+    }
+    ToolSupport.writeReport("inference-batch-benchmark.txt", report.toString());
+
+    assertEquals(AudioClassifier.MAX_BATCH_SIZE, results.length);
+    for (InferenceBatchBenchmark.Result result : results) {
+      assertTrue(result.toString(), result.msPerWindow > 0);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Replays audio through {@link ReplayRunner} with the app's model. A generated recording checks
+ * replays come out the same however they're split across threads; a real one, given by the {@code
+ * recording} argument, is replayed and summarized in {@code replay-summary.txt}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplayRunnerTest {
+  /** Bursts of noise over quiet, long enough to span a few of the replay's parallel blocks. */
+  private static File writeTestRecording(int sampleRate) throws IOException {
+    final Random random = new Random(1);
+    final short[] samples = new short[sampleRate * 150];
+    for (int i = 0; i < samples.length; ++i) {
+      final float level = (i / sampleRate) % 10 < 4 ? 8000 : 50;
+      samples[i] = (short) (random.nextGaussian() * level);
+    }
+    return ToolSupport.writeWav("replay-test.wav", samples, sampleRate);
+  }
+
+  private static ReplayRunner.Summary replay(File recording, int parallelism) throws IOException {
+    final PipelineSettings settings = new PipelineSettings();
+    settings.parallelism = parallelism;
+    final List<String> labels = ToolSupport.readLabels();
+    try (ReplayRunner runner =
+        new ReplayRunner(ToolSupport.copyModel(SpeechActivity.MODEL_FILENAME), labels, settings)) {
+      return runner.replay(recording, null);
+    }
+  }
+
+  @Test
+  public void replaysAreIdenticalHoweverTheyAreSplit() throws IOException {
+    final PipelineSettings settings = new PipelineSettings();
+    final File recording = writeTestRecording(settings.sampleRate);
+
+    final ReplayRunner.Summary serial = replay(recording, 1);
+    final ReplayRunner.Summary parallel = replay(recording, 4);
+
+    assertEquals(150 * settings.sampleRate / settings.windowStrideSamples, serial.windows);
+    assertEquals(serial.windows, parallel.windows);
+    assertEquals(serial.newCommands, parallel.newCommands);
+    assertEquals(serial.washDetections, parallel.washDetections);
+    assertEquals(serial.digest, parallel.digest);
+  }
+
+  @Test
+  public void replayRecording() throws IOException {
+    final File recording = ToolSupport.getFileArgument("recording");
+    assumeTrue("No recording at " + recording, recording.isFile());
+
+    final ReplayRunner.Summary summary = replay(recording, new PipelineSettings().parallelism);
+    ToolSupport.writeReport("replay-summary.txt", recording + "\n" + summary + "\n");
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Runs {@link StreamingComparison} between the app's model and a streaming export of it, given by
+ * the {@code streaming_model} argument, over the WAV clips in the {@code clips} directory, and
+ * saves the stats as {@code streaming-comparison.txt}. Skipped unless both are there.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StreamingComparisonRunner {
+  @Test
+  public void compareClips() throws IOException {
+    final File streamingModel = ToolSupport.getFileArgument("streaming_model");
+    final File clipsDir = ToolSupport.getFileArgument("clips");
+    assumeTrue("No streaming model at " + streamingModel, streamingModel.isFile());
+    final File[] clips = clipsDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".wav"));
+    assumeTrue("No clips in " + clipsDir, clips != null && clips.length > 0);
+    Arrays.sort(clips);
+
+    final PipelineSettings settings = new PipelineSettings();
+    final List<String> labels = ToolSupport.readLabels();
+    final Interpreter.Options options = new Interpreter.Options();
+    try (AudioClassifier windowClassifier =
+            new AudioClassifier(
+                ToolSupport.mapModel(ToolSupport.copyModel(SpeechActivity.MODEL_FILENAME)),
+                options,
+                settings.windowLength,
+                settings.sampleRate,
+                labels.size());
+        StreamingAudioClassifier streamingClassifier =
+            new StreamingAudioClassifier(
+                ToolSupport.mapModel(streamingModel),
+                options,
+                settings.sampleRate,
+                settings.windowLength,
+                labels.size())) {
+      final StreamingComparison comparison =
+          new StreamingComparison(windowClassifier, streamingClassifier, labels, settings);
+      for (File clip : clips) {
+        comparison.compare(clip);
+      }
+      ToolSupport.writeReport(
+          "streaming-comparison.txt", clips.length + " clips\n" + comparison.getStats() + "\n");
+      assertTrue(comparison.getStats().hops > 0);
+    }
+  }
+}
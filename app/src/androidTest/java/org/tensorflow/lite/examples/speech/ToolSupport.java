@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Files and arguments for running the offline tools on a device. Paths are passed as
+ * instrumentation arguments, for example:
+ *
+ * <pre>
+ * adb shell am instrument -w -e dataset /sdcard/dataset \
+ *     -e class org.tensorflow.lite.examples.speech.BatchEvaluatorRunner \
+ *     org.tensorflow.lite.examples.speech.test/androidx.test.runner.AndroidJUnitRunner
+ * </pre>
+ *
+ * Each argument defaults to a file of the same name in the app's external files directory, which
+ * is where {@link #writeReport} leaves the reports too.
+ */
+final class ToolSupport {
+  private static final String LOG_TAG = ToolSupport.class.getSimpleName();
+  private static final String ASSET_PREFIX = "file:///android_asset/";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private ToolSupport() {}
+
+  static Context getContext() {
+    return InstrumentationRegistry.getInstrumentation().getTargetContext();
+  }
+
+  /** Returns the file named by an instrumentation argument, or its default location. */
+  static File getFileArgument(String name) {
+    final Bundle arguments = InstrumentationRegistry.getArguments();
+    final String path = arguments == null ? null : arguments.getString(name);
+    return path != null ? new File(path) : new File(getContext().getExternalFilesDir(null), name);
+  }
+
+  /** Returns an integer instrumentation argument, or the default if it wasn't given. */
+  static int getIntArgument(String name, int defaultValue) {
+    final Bundle arguments = InstrumentationRegistry.getArguments();
+    final String value = arguments == null ? null : arguments.getString(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  /** Returns the labels the app runs with. */
+  static List<String> readLabels() throws IOException {
+    List<String> labels = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                getContext().getAssets().open(getAssetName(SpeechActivity.LABEL_FILENAME)),
+                UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        labels.add(line);
+      }
+    }
+    return labels;
+  }
+
+  /**
+   * Copies a model out of the APK's assets, given as a {@code file:///android_asset/} URL, since
+   * the tools map models from files. Returns the copy.
+   */
+  static File copyModel(String url) throws IOException {
+    final String name = getAssetName(url);
+    final File file = new File(getContext().getCacheDir(), name);
+    try (InputStream in = getContext().getAssets().open(name);
+        OutputStream out = new FileOutputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      int length;
+      while ((length = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, length);
+      }
+    }
+    return file;
+  }
+
+  /** Maps a model file read-only, for the classifiers that take a buffer. */
+  static MappedByteBuffer mapModel(File file) throws IOException {
+    try (FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel()) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /** Writes 16-bit mono samples to a WAV file in the cache directory and returns it. */
+  static File writeWav(String name, short[] samples, int sampleRate) throws IOException {
+    final File file = new File(getContext().getCacheDir(), name);
+    ByteBuffer wav = ByteBuffer.allocate(44 + samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+    wav.put("RIFF".getBytes(UTF_8)).putInt(36 + samples.length * 2).put("WAVE".getBytes(UTF_8));
+    wav.put("fmt ".getBytes(UTF_8))
+        .putInt(16)
+        .putShort((short) 1)
+        .putShort((short) 1)
+        .putInt(sampleRate)
+        .putInt(sampleRate * 2)
+        .putShort((short) 2)
+        .putShort((short) 16);
+    wav.put("data".getBytes(UTF_8)).putInt(samples.length * 2);
+    for (short sample : samples) {
+      wav.putShort(sample);
+    }
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(wav.array());
+    }
+    return file;
+  }
+
+  /** Logs a report and saves it in the app's external files directory under the given name. */
+  static void writeReport(String name, String report) throws IOException {
+    Log.i(LOG_TAG, name + ":\n" + report);
+    final File file = new File(getContext().getExternalFilesDir(null), name);
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+      writer.write(report);
+    }
+    Log.i(LOG_TAG, "Wrote " + file);
+  }
+
+  private static String getAssetName(String url) {
+    return url.startsWith(ASSET_PREFIX) ? url.substring(ASSET_PREFIX.length()) : url;
+  }
+}
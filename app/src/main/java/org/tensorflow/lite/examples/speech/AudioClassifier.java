@@ -0,0 +1,315 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Runs the audio recognition model over one window of 16-bit samples at a time.
+ *
+ * <p>An interpreter is not thread safe, so each thread that scores audio needs its own instance.
+ * All input and output buffers are allocated once up front and reused for every window.
+ *
+ * <p>Models exported with a leading batch dimension, taking {@code [batch, samples, 1]} or {@code
+ * [batch, samples]}, can score up to {@link #MAX_BATCH_SIZE} windows in one invocation with {@link
+ * #recognizeBatch}, paying the per-invocation overhead once. The stock export takes {@code
+ * [samples, 1]} and has no batch dimension, so for it {@link #recognizeBatch} falls back to one
+ * invocation per window.
+ *
+ * <p>Resizing an input makes the interpreter allocate its tensors again, which takes about as long
+ * as an invocation. So batches get a second interpreter of their own, and the one for single
+ * windows is never resized. Going from single windows to a batch and back, as recognition does to
+ * catch up after a stall, costs nothing extra, and only a change of batch size resizes the batch
+ * interpreter.
+ *
+ * <p>Input goes through direct buffers, which the interpreter copies straight out of. Samples in
+ * a Java array are converted into one first, since a nested {@code float[samples][1]} array would
+ * cost an object per sample. The batch interpreter and buffers are only created once a batch is
+ * scored, or up front with {@link #prepareBatching}, and {@link #releaseBatching} hands them back.
+ */
+public class AudioClassifier implements Closeable {
+  /** Largest number of windows {@link #recognizeBatch} takes at once. */
+  public static final int MAX_BATCH_SIZE = 16;
+
+  private final ByteBuffer model;
+  private final Interpreter.Options options;
+  private final Interpreter interpreter;
+  private final int windowLength;
+  private final int labelsCount;
+  private final float[][] outputScores;
+  private final Object[] directInputArray;
+  // Created on first use, for windows of 16-bit samples.
+  private ByteBuffer windowInput;
+  private final Map<Integer, Object> outputMap = new HashMap<>();
+  // The input shape with the batch size at index 0, or null if the model has no batch dimension.
+  private final int[] batchShape;
+  // Created on first use, and resized to each batch as it comes.
+  private Interpreter batchInterpreter;
+  private int batchInterpreterSize;
+  // Created on first use. Windows laid out one after another, with a view of the start of it for
+  // each batch size, since the interpreter wants a buffer of exactly the size of its input.
+  private ByteBuffer batchInput;
+  private final ByteBuffer[] batchInputViews = new ByteBuffer[MAX_BATCH_SIZE + 1];
+  private final float[][][] batchScores = new float[MAX_BATCH_SIZE + 1][][];
+  private final Map<Integer, Object> batchOutputMap = new HashMap<>();
+
+  public AudioClassifier(
+      ByteBuffer inModel,
+      Interpreter.Options inOptions,
+      int inWindowLength,
+      int inSampleRate,
+      int inLabelsCount) {
+    windowLength = inWindowLength;
+    labelsCount = inLabelsCount;
+    outputScores = new float[1][inLabelsCount];
+    directInputArray = new Object[] {null, new int[] {inSampleRate}};
+    outputMap.put(0, outputScores);
+
+    model = inModel;
+    options = inOptions;
+    interpreter = new Interpreter(inModel, inOptions);
+    final int[] shape = interpreter.getInputTensor(0).shape();
+    if (shape.length == 3 || (shape.length == 2 && shape[1] != 1)) {
+      batchShape =
+          shape.length == 3 ? new int[] {1, inWindowLength, 1} : new int[] {1, inWindowLength};
+      interpreter.resizeInput(0, batchShape);
+    } else {
+      batchShape = null;
+      interpreter.resizeInput(0, new int[] {inWindowLength, 1});
+    }
+    interpreter.resizeInput(1, new int[] {1});
+  }
+
+  public int getWindowLength() {
+    return windowLength;
+  }
+
+  /** Whether {@link #recognizeBatch} scores a whole batch in one invocation. */
+  public boolean supportsBatching() {
+    return batchShape != null;
+  }
+
+  /**
+   * Scores a window of silence, so the interpreter allocates its tensors now instead of on the
+   * first real window. Callers can measure what the classifier costs around this.
+   */
+  public void warmUp() {
+    recognize(ByteBuffer.allocateDirect(windowLength * 4).order(ByteOrder.nativeOrder()));
+  }
+
+  /**
+   * For a model with a batch dimension, creates the batch interpreter and buffers and scores a
+   * full batch, so the first catch-up doesn't have to. Does nothing for other models.
+   */
+  public void prepareBatching() {
+    if (batchShape != null) {
+      getBatchInput(MAX_BATCH_SIZE);
+      runBatch(MAX_BATCH_SIZE);
+    }
+  }
+
+  /**
+   * Scores a window of audio. The returned array is owned by this classifier and is overwritten by
+   * the next call, so callers that keep it around must clone it.
+   */
+  public float[] recognize(short[] window) {
+    if (window.length != windowLength) {
+      throw new IllegalArgumentException(
+          "Expected a window of " + windowLength + " samples, but got " + window.length);
+    }
+    return recognize(window, 0);
+  }
+
+  /** Scores the window that starts at the given offset into a longer run of samples. */
+  public float[] recognize(short[] samples, int offset) {
+    if (windowInput == null) {
+      windowInput = ByteBuffer.allocateDirect(windowLength * 4).order(ByteOrder.nativeOrder());
+    }
+    // We need to feed in float values between -1.0f and 1.0f, so divide the
+    // signed 16-bit inputs.
+    for (int i = 0; i < windowLength; ++i) {
+      windowInput.putFloat(i * 4, samples[offset + i] / 32767.0f);
+    }
+    windowInput.rewind();
+    return recognize(windowInput);
+  }
+
+  /**
+   * Scores a window of native-order float samples held in direct memory, such as one returned by
+   * {@link AudioRingBuffer#getWindow}. The interpreter copies straight out of it, so this skips the
+   * conversion into a Java array. The returned array is reused as for {@link #recognize(short[])}.
+   */
+  public float[] recognize(ByteBuffer window) {
+    if (window.capacity() != windowLength * 4) {
+      throw new IllegalArgumentException(
+          "Expected a window of " + windowLength * 4 + " bytes, but got " + window.capacity());
+    }
+    directInputArray[0] = window;
+    try {
+      interpreter.runForMultipleInputsOutputs(directInputArray, outputMap);
+    } finally {
+      directInputArray[0] = null;
+    }
+    return outputScores[0];
+  }
+
+  /**
+   * Scores several windows of 16-bit samples, the first starting at the given offset into a longer
+   * run of samples and each of the rest the given stride after the one before.
+   *
+   * @return a row of scores for each window, in order. The rows are owned by this classifier and
+   *     overwritten by the next call.
+   */
+  public float[][] recognizeBatch(short[] samples, int offset, int stride, int count) {
+    final ByteBuffer input = getBatchInput(count);
+    for (int w = 0; w < count; ++w) {
+      final int start = offset + w * stride;
+      final int base = w * windowLength * 4;
+      for (int i = 0; i < windowLength; ++i) {
+        input.putFloat(base + i * 4, samples[start + i] / 32767.0f);
+      }
+    }
+    return runBatch(count);
+  }
+
+  /**
+   * Scores several windows straight out of the recording buffer, the first ending at the given
+   * sample count and each of the rest the given stride after the one before. Callers should check
+   * the first window is still {@link AudioRingBuffer#isIntact} afterwards.
+   *
+   * @return a row of scores for each window, in order, reused as for the other overload.
+   */
+  public float[][] recognizeBatch(
+      AudioRingBuffer buffer, long firstWindowEnd, int stride, int count) {
+    final ByteBuffer input = getBatchInput(count);
+    input.clear();
+    for (int w = 0; w < count; ++w) {
+      input.put(buffer.getWindow(firstWindowEnd + (long) w * stride));
+    }
+    return runBatch(count);
+  }
+
+  private ByteBuffer getBatchInput(int count) {
+    if (count < 1 || count > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "Batches must hold 1 to " + MAX_BATCH_SIZE + " windows, not " + count);
+    }
+    if (batchInput == null) {
+      batchInput =
+          ByteBuffer.allocateDirect(MAX_BATCH_SIZE * windowLength * 4)
+              .order(ByteOrder.nativeOrder());
+    }
+    return batchInput;
+  }
+
+  private float[][] runBatch(int count) {
+    if (batchInputViews[count] == null) {
+      ByteBuffer view = batchInput.duplicate();
+      view.clear();
+      view.limit(count * windowLength * 4);
+      batchInputViews[count] = view.slice().order(ByteOrder.nativeOrder());
+      batchScores[count] = new float[count][labelsCount];
+    }
+    final float[][] scores = batchScores[count];
+    final ByteBuffer input = batchInputViews[count];
+
+    if (batchShape == null || count == 1) {
+      // One invocation per window, each reading its own stretch of the batch.
+      for (int w = 0; w < count; ++w) {
+        ByteBuffer window = input.duplicate();
+        window.position(w * windowLength * 4);
+        window.limit((w + 1) * windowLength * 4);
+        System.arraycopy(
+            recognize(window.slice().order(ByteOrder.nativeOrder())), 0, scores[w], 0, labelsCount);
+      }
+      return scores;
+    }
+
+    final Interpreter batchRunner = getBatchInterpreter(count);
+    input.rewind();
+    directInputArray[0] = input;
+    batchOutputMap.put(0, scores);
+    try {
+      batchRunner.runForMultipleInputsOutputs(directInputArray, batchOutputMap);
+    } finally {
+      directInputArray[0] = null;
+    }
+    return scores;
+  }
+
+  private Interpreter getBatchInterpreter(int count) {
+    if (batchInterpreter == null) {
+      batchInterpreter = new Interpreter(model, options);
+      batchInterpreter.resizeInput(1, new int[] {1});
+      batchInterpreterSize = 0;
+    }
+    if (count != batchInterpreterSize) {
+      final int[] shape = batchShape.clone();
+      shape[0] = count;
+      batchInterpreter.resizeInput(0, shape);
+      batchInterpreterSize = count;
+    }
+    return batchInterpreter;
+  }
+
+  /**
+   * Closes the batch interpreter and drops the buffers for scoring batches, all of which are
+   * created again if another batch comes along.
+   */
+  public void releaseBatching() {
+    if (batchInterpreter != null) {
+      batchInterpreter.close();
+      batchInterpreter = null;
+    }
+    batchInput = null;
+    for (int i = 0; i <= MAX_BATCH_SIZE; ++i) {
+      batchInputViews[i] = null;
+      batchScores[i] = null;
+    }
+    batchOutputMap.clear();
+  }
+
+  /** Estimated Java heap held by the output arrays. */
+  public long getHeapBytes() {
+    long bytes = MemoryReport.floatArrayBytes(1, labelsCount);
+    for (int i = 1; i <= MAX_BATCH_SIZE; ++i) {
+      if (batchScores[i] != null) {
+        bytes += MemoryReport.floatArrayBytes(i, labelsCount);
+      }
+    }
+    return bytes;
+  }
+
+  /** Direct memory held by the input buffers. */
+  public long getDirectBytes() {
+    return (windowInput == null ? 0 : windowInput.capacity())
+        + (batchInput == null ? 0 : batchInput.capacity());
+  }
+
+  @Override
+  public void close() {
+    interpreter.close();
+    if (batchInterpreter != null) {
+      batchInterpreter.close();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * A clock that counts audio samples rather than wall time.
+ *
+ * <p>{@link RecognizeCommands} makes all its averaging and suppression decisions from the
+ * timestamps it is given. Deriving them from the position in the audio stream, instead of from
+ * when the recognition thread happened to get scheduled, means the same audio always produces the
+ * same decisions, whether it is heard live or replayed many times faster than real time.
+ */
+public final class AudioClock {
+  private final int sampleRate;
+
+  public AudioClock(int inSampleRate) {
+    sampleRate = inSampleRate;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /** Returns the time in milliseconds since the start of the stream at the given sample count. */
+  public long toMs(long samples) {
+    return samples * 1000 / sampleRate;
+  }
+
+  /** Returns the number of samples in the given duration, rounded down. */
+  public long toSamples(long ms) {
+    return ms * sampleRate / 1000;
+  }
+
+  /**
+   * Returns the last multiple of the hop length at or before the given sample count. Only scoring
+   * windows that end on hop boundaries keeps live recognition on the same grid as replay.
+   */
+  public static long alignToHop(long samples, int hopLength) {
+    return samples - samples % hopLength;
+  }
+}
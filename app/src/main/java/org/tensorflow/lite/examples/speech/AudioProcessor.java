@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * A stage that cleans up audio between capture and the model. Stages work in place on blocks of
+ * float samples at the model's sample rate, keep whatever state they need between blocks, and
+ * don't allocate while processing.
+ */
+public interface AudioProcessor {
+  /** Processes the next block of the stream in place. Blocks may be any length. */
+  void process(float[] samples, int offset, int length);
+
+  /** How many samples the output lags the input by. */
+  int getDelaySamples();
+
+  /** Forgets all state, as if the stream were starting again from silence. */
+  void reset();
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A round-robin buffer of float samples in direct memory that the model can read straight from.
+ *
+ * <p>The buffer is stored twice, back to back, so the most recent window is always one contiguous
+ * run of memory no matter where the write position has wrapped to. That lets the recognition
+ * thread hand a slice of it to the interpreter without first unrolling it into its own array.
+ *
+ * <p>There is a single writer (the recording thread) and any number of readers. Instead of taking
+ * a lock, readers note how many samples had been written when they took their window, and
+ * afterwards call {@link #isIntact} to check that the writer didn't lap them in the meantime. The
+ * capacity holds a full window plus some slack, and writes are limited to half of that slack so
+ * one may be in flight while a reader checks. A reader has the other half to finish with a window.
+ *
+ * <p>The writer also notes stretches of the stream where the recorder may have lost audio with
+ * {@link #markGap}, and readers check a window against them with {@link #hasGap}. Only the last
+ * {@link #MAX_GAPS} are kept, which is plenty for the recent windows readers look at.
+ */
+public class AudioRingBuffer {
+  private static final int BYTES_PER_FLOAT = 4;
+  private static final int MAX_GAPS = 16;
+
+  private final int windowLength;
+  private final int capacity;
+  private final ByteBuffer ring;
+  private volatile long samplesWritten;
+  // The most recent gaps, as ranges of sample counts, in a ring indexed by gapCount.
+  private final long[] gapStarts = new long[MAX_GAPS];
+  private final long[] gapEnds = new long[MAX_GAPS];
+  private volatile long gapCount;
+
+  public AudioRingBuffer(int inWindowLength, int inSlackLength) {
+    windowLength = inWindowLength;
+    capacity = inWindowLength + inSlackLength;
+    ring = ByteBuffer.allocateDirect(2 * capacity * BYTES_PER_FLOAT);
+    ring.order(ByteOrder.nativeOrder());
+  }
+
+  public int getWindowLength() {
+    return windowLength;
+  }
+
+  /** Direct memory held by the buffer and its mirror. */
+  public long getDirectBytes() {
+    return ring.capacity();
+  }
+
+  /** Total number of samples written since the buffer was created. */
+  public long getSamplesWritten() {
+    return samplesWritten;
+  }
+
+  /** The largest number of samples that may be written in one go. */
+  public int getMaxWriteLength() {
+    return (capacity - windowLength) / 2;
+  }
+
+  /**
+   * Returns a direct buffer for the recording thread to fill with native-order float samples,
+   * starting at its position zero. Its capacity may be less than requested when the write position
+   * is close to the end of the ring. Call {@link #commitWrite} once it has been filled.
+   */
+  public ByteBuffer beginWrite(int maxSamples) {
+    final int offset = (int) (samplesWritten % capacity);
+    final int length = Math.min(Math.min(maxSamples, getMaxWriteLength()), capacity - offset);
+    ByteBuffer region = ring.duplicate();
+    region.position(offset * BYTES_PER_FLOAT);
+    region.limit((offset + length) * BYTES_PER_FLOAT);
+    return region.slice().order(ByteOrder.nativeOrder());
+  }
+
+  /** Publishes samples written into the buffer returned by {@link #beginWrite}. */
+  public void commitWrite(int samples) {
+    final int offset = (int) (samplesWritten % capacity);
+    ByteBuffer source = ring.duplicate();
+    source.position(offset * BYTES_PER_FLOAT);
+    source.limit((offset + samples) * BYTES_PER_FLOAT);
+    ByteBuffer mirror = ring.duplicate();
+    mirror.position((offset + capacity) * BYTES_PER_FLOAT);
+    mirror.put(source);
+    samplesWritten += samples;
+  }
+
+  /**
+   * Converts signed 16-bit samples into the buffer, for devices that can't record floats. The
+   * native-order source is read from its position zero and may hold any number of samples.
+   */
+  public void writePcm16(ByteBuffer source, int samples) {
+    int read = 0;
+    while (read < samples) {
+      final int offset = (int) (samplesWritten % capacity);
+      final int length = Math.min(Math.min(samples - read, getMaxWriteLength()), capacity - offset);
+      for (int i = 0; i < length; ++i) {
+        final float value = source.getShort((read + i) * 2) / 32767.0f;
+        ring.putFloat((offset + i) * BYTES_PER_FLOAT, value);
+        ring.putFloat((offset + capacity + i) * BYTES_PER_FLOAT, value);
+      }
+      read += length;
+      samplesWritten += length;
+    }
+  }
+
+  /** Copies float samples into the buffer. The input may hold any number of samples. */
+  public void write(float[] samples, int offset, int length) {
+    int read = 0;
+    while (read < length) {
+      final int position = (int) (samplesWritten % capacity);
+      final int chunk = Math.min(Math.min(length - read, getMaxWriteLength()), capacity - position);
+      for (int i = 0; i < chunk; ++i) {
+        final float value = samples[offset + read + i];
+        ring.putFloat((position + i) * BYTES_PER_FLOAT, value);
+        ring.putFloat((position + capacity + i) * BYTES_PER_FLOAT, value);
+      }
+      read += chunk;
+      samplesWritten += chunk;
+    }
+  }
+
+  /**
+   * Returns a view of the window that ends at the given sample count, sized exactly to the model
+   * input. Before a full window has been recorded the start of it is silence.
+   */
+  public ByteBuffer getWindow(long windowEnd) {
+    return getRange(windowEnd, windowLength);
+  }
+
+  /**
+   * Returns a view of the given number of samples up to the given sample count, which may be any
+   * length up to a full window. Streaming models use this to read just the newest hop.
+   */
+  public ByteBuffer getRange(long end, int length) {
+    if (length > windowLength) {
+      throw new IllegalArgumentException(
+          "Can't read " + length + " samples from a buffer with a window of " + windowLength);
+    }
+    final int start = (int) (((end - length) % capacity + capacity) % capacity);
+    ByteBuffer range = ring.duplicate();
+    range.position(start * BYTES_PER_FLOAT);
+    range.limit((start + length) * BYTES_PER_FLOAT);
+    return range.slice().order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Notes that audio may be missing somewhere between the two sample counts, such as around a
+   * recorder overrun. A gap where start and end are equal is a single splice point. Only the
+   * writer may call this.
+   */
+  public void markGap(long start, long end) {
+    final int index = (int) (gapCount % MAX_GAPS);
+    gapStarts[index] = start;
+    gapEnds[index] = end;
+    ++gapCount;
+  }
+
+  /** Total number of gaps marked since the buffer was created. */
+  public long getGapCount() {
+    return gapCount;
+  }
+
+  /** Returns whether the window ending at the given sample count overlaps a gap. */
+  public boolean hasGap(long windowEnd) {
+    return hasGap(windowEnd, windowLength);
+  }
+
+  /** Returns whether the given number of samples up to the given sample count overlap a gap. */
+  public boolean hasGap(long end, int length) {
+    final long count = gapCount;
+    final long start = end - length;
+    for (long i = Math.max(0, count - MAX_GAPS); i < count; ++i) {
+      final int index = (int) (i % MAX_GAPS);
+      if (gapStarts[index] < end && gapEnds[index] > start) {
+        return true;
+      }
+    }
+    // If the writer marked more gaps meanwhile, the oldest we looked at may have been replaced
+    // part way through, so err on the side of the window being damaged.
+    return gapCount != count;
+  }
+
+  /**
+   * Returns whether the window, or any shorter range, ending at the given sample count is still
+   * unmodified.
+   */
+  public boolean isIntact(long windowEnd) {
+    return samplesWritten - windowEnd <= getMaxWriteLength();
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A scripted stretch of audio, made of segments of silence, hand washing and other noise, for
+ * driving the capture path without a microphone.
+ *
+ * <p>Segments are either synthetic or recorded clips. The synthetic ones are rough stand-ins: quiet
+ * hiss for silence, loud broadband noise with a slow swell for running water, and bursts of tones
+ * over low rumble for the rest of the room. They're meant for exercising timing, not for judging a
+ * model, which needs clips of the real thing. Everything is rendered on demand, one block at a
+ * time, from a seeded generator, so a timeline of any length replays identically.
+ */
+public class AudioTimeline {
+  /** What a segment holds, which decides what a detection during it counts as. */
+  public enum Kind {
+    SILENCE,
+    WASH,
+    NOISE
+  }
+
+  /** One stretch of the script. */
+  public static class Segment {
+    public final Kind kind;
+    public final long startMs;
+    public final long durationMs;
+    // Recorded audio to loop over the segment, or null to synthesize it.
+    final WavReader.Clip clip;
+
+    Segment(Kind inKind, long inStartMs, long inDurationMs, WavReader.Clip inClip) {
+      kind = inKind;
+      startMs = inStartMs;
+      durationMs = inDurationMs;
+      clip = inClip;
+    }
+
+    public long getEndMs() {
+      return startMs + durationMs;
+    }
+  }
+
+  private final List<Segment> segments = new ArrayList<>();
+  private long durationMs;
+
+  public AudioTimeline add(Kind kind, long durationMs) {
+    return add(kind, durationMs, null);
+  }
+
+  /** Adds a segment that loops a recorded clip, which must be at the rate the timeline is read. */
+  public AudioTimeline add(Kind kind, long inDurationMs, WavReader.Clip clip) {
+    if (inDurationMs <= 0) {
+      throw new IllegalArgumentException("Segments must last a while, not " + inDurationMs + " ms");
+    }
+    segments.add(new Segment(kind, durationMs, inDurationMs, clip));
+    durationMs += inDurationMs;
+    return this;
+  }
+
+  public List<Segment> getSegments() {
+    return segments;
+  }
+
+  public long getDurationMs() {
+    return durationMs;
+  }
+
+  /** Returns how many milliseconds of the given kind fall between the two times. */
+  public long getOverlapMs(Kind kind, long startMs, long endMs) {
+    long overlapMs = 0;
+    for (int i = 0; i < segments.size(); ++i) {
+      final Segment segment = segments.get(i);
+      if (segment.kind == kind) {
+        overlapMs +=
+            Math.max(0, Math.min(endMs, segment.getEndMs()) - Math.max(startMs, segment.startMs));
+      }
+    }
+    return overlapMs;
+  }
+
+  /**
+   * Builds a timeline of the given length from randomly chosen segments: stretches of silence and
+   * noise, with a wash of between 10 and 40 seconds every minute or two.
+   */
+  public static AudioTimeline createRandom(long durationMs, long seed) {
+    Random random = new Random(seed);
+    AudioTimeline timeline = new AudioTimeline();
+    while (timeline.getDurationMs() < durationMs) {
+      timeline.add(Kind.SILENCE, 5000 + random.nextInt(30000));
+      if (random.nextBoolean()) {
+        timeline.add(Kind.NOISE, 5000 + random.nextInt(30000));
+      }
+      timeline.add(Kind.WASH, 10000 + random.nextInt(30000));
+      if (random.nextBoolean()) {
+        timeline.add(Kind.NOISE, 2000 + random.nextInt(10000));
+      }
+    }
+    timeline.add(Kind.SILENCE, 5000);
+    return timeline;
+  }
+
+  /** Returns a reader that renders the timeline at the given rate, from its start. */
+  public Reader open(int sampleRate, long seed) {
+    return new Reader(sampleRate, seed);
+  }
+
+  /** Renders the timeline a block at a time. */
+  public class Reader {
+    private static final float SILENCE_LEVEL = 0.001f;
+    private static final float WASH_LEVEL = 0.25f;
+    private static final float NOISE_LEVEL = 0.1f;
+
+    private final int sampleRate;
+    private final Random random;
+    private final long totalSamples;
+    private long position;
+    private int segmentIndex;
+    private long segmentEnd;
+    // Synthesis state carried from block to block.
+    private float lowPass;
+    private double phase;
+    private float toneFrequency;
+
+    Reader(int inSampleRate, long seed) {
+      sampleRate = inSampleRate;
+      random = new Random(seed);
+      totalSamples = durationMs * inSampleRate / 1000;
+      segmentEnd = segments.isEmpty() ? 0 : segments.get(0).getEndMs() * inSampleRate / 1000;
+      toneFrequency = 200 + random.nextInt(800);
+    }
+
+    /** Samples rendered so far. */
+    public long getPosition() {
+      return position;
+    }
+
+    public boolean isFinished() {
+      return position >= totalSamples;
+    }
+
+    /**
+     * Renders the next block, padding it with silence past the end of the timeline.
+     *
+     * @return the number of samples that came from the timeline itself.
+     */
+    public int read(float[] samples, int offset, int length) {
+      int rendered = 0;
+      while (rendered < length) {
+        if (position >= totalSamples) {
+          for (int i = rendered; i < length; ++i) {
+            samples[offset + i] = 0.0f;
+          }
+          return rendered;
+        }
+        while (position >= segmentEnd) {
+          ++segmentIndex;
+          segmentEnd = segments.get(segmentIndex).getEndMs() * sampleRate / 1000;
+        }
+        final Segment segment = segments.get(segmentIndex);
+        final int count = (int) Math.min(length - rendered, segmentEnd - position);
+        render(segment, samples, offset + rendered, count);
+        rendered += count;
+        position += count;
+      }
+      return rendered;
+    }
+
+    private void render(Segment segment, float[] samples, int offset, int count) {
+      if (segment.clip != null) {
+        if (segment.clip.sampleRate != sampleRate) {
+          throw new IllegalArgumentException(
+              "Clip recorded at " + segment.clip.sampleRate + " Hz, but reading at " + sampleRate);
+        }
+        final short[] clip = segment.clip.samples;
+        final long segmentStart = segment.startMs * sampleRate / 1000;
+        for (int i = 0; i < count; ++i) {
+          final int index = (int) ((position - segmentStart + i) % clip.length);
+          samples[offset + i] = clip[index] / 32767.0f;
+        }
+        return;
+      }
+      final double twoPi = 2 * Math.PI;
+      for (int i = 0; i < count; ++i) {
+        final float white = random.nextFloat() * 2 - 1;
+        final double seconds = (double) (position + i) / sampleRate;
+        float value;
+        switch (segment.kind) {
+          case WASH:
+            // Broadband, tilted a little towards the low end, swelling every couple of seconds.
+            lowPass += 0.5f * (white - lowPass);
+            value = WASH_LEVEL * (0.6f * white + lowPass) * (float) (0.8 + 0.2 * Math.sin(seconds));
+            break;
+          case NOISE:
+            // Syllable-rate bursts of a tone that wanders, over low rumble.
+            lowPass += 0.05f * (white - lowPass);
+            phase += twoPi * toneFrequency / sampleRate;
+            if (phase > twoPi) {
+              phase -= twoPi;
+              if (random.nextInt(sampleRate / 4) < toneFrequency) {
+                toneFrequency = 200 + random.nextInt(800);
+              }
+            }
+            final double envelope = Math.max(0, Math.sin(twoPi * 4 * seconds));
+            value = NOISE_LEVEL * (float) (envelope * Math.sin(phase)) + NOISE_LEVEL * lowPass;
+            break;
+          default:
+            value = SILENCE_LEVEL * white;
+            break;
+        }
+        samples[offset + i] = value;
+      }
+    }
+  }
+}
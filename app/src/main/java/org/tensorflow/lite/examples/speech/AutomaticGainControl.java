@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Evens out the input level, so a hand washed next to a hand dryer reaches the model about as loud
+ * as one washed in a quiet room.
+ *
+ * <p>An envelope follower tracks the signal's power, rising quickly when it gets louder and falling
+ * slowly when it gets quieter. The gain that would bring the envelope to {@link #TARGET_RMS} is
+ * limited to {@link #MAX_GAIN_DB} of boost, so near-silence isn't blown up into noise, and the
+ * applied gain glides towards it to avoid audible steps. Output is clipped to [-1, 1].
+ */
+public class AutomaticGainControl implements AudioProcessor {
+  private static final float TARGET_RMS = 0.1f;
+  private static final float MAX_GAIN_DB = 30.0f;
+  private static final float MIN_GAIN_DB = -20.0f;
+  private static final float ATTACK_MS = 10.0f;
+  private static final float RELEASE_MS = 500.0f;
+  private static final float GAIN_SMOOTHING_MS = 50.0f;
+
+  private final float attack;
+  private final float release;
+  private final float gainSmoothing;
+  private final float maxGain;
+  private final float minGain;
+  private float envelope;
+  private float gain;
+
+  public AutomaticGainControl(int inSampleRate) {
+    attack = smoothingCoefficient(ATTACK_MS, inSampleRate);
+    release = smoothingCoefficient(RELEASE_MS, inSampleRate);
+    gainSmoothing = smoothingCoefficient(GAIN_SMOOTHING_MS, inSampleRate);
+    maxGain = (float) Math.pow(10, MAX_GAIN_DB / 20);
+    minGain = (float) Math.pow(10, MIN_GAIN_DB / 20);
+    reset();
+  }
+
+  @Override
+  public void process(float[] samples, int offset, int length) {
+    final float targetPower = TARGET_RMS * TARGET_RMS;
+    float currentEnvelope = envelope;
+    float currentGain = gain;
+    for (int i = offset; i < offset + length; ++i) {
+      final float x = samples[i];
+      final float power = x * x;
+      currentEnvelope += (power > currentEnvelope ? attack : release) * (power - currentEnvelope);
+      float wantedGain =
+          currentEnvelope * maxGain * maxGain <= targetPower
+              ? maxGain
+              : (float) Math.sqrt(targetPower / currentEnvelope);
+      wantedGain = Math.max(minGain, wantedGain);
+      currentGain += gainSmoothing * (wantedGain - currentGain);
+      samples[i] = Math.max(-1.0f, Math.min(1.0f, x * currentGain));
+    }
+    envelope = currentEnvelope;
+    gain = currentGain;
+  }
+
+  /** The gain applied to the last sample, for showing the input level. */
+  public float getGain() {
+    return gain;
+  }
+
+  @Override
+  public int getDelaySamples() {
+    return 0;
+  }
+
+  @Override
+  public void reset() {
+    envelope = TARGET_RMS * TARGET_RMS;
+    gain = 1.0f;
+  }
+
+  /** Per-sample coefficient of a one-pole smoother with the given time constant. */
+  private static float smoothingCoefficient(float timeConstantMs, int sampleRate) {
+    return (float) (1 - Math.exp(-1000.0 / (timeConstantMs * sampleRate)));
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs the full detection pipeline (sliding window, model, then {@link DetectionPipeline} smoothing
+ * and voting) over a directory of labeled WAV clips, spread across a fork-join pool.
+ *
+ * <p>Clips are expected to be laid out the same way as the training data, one subdirectory per
+ * label in the labels file, for example {@code dataset/wash/clip_0001.wav}. Subdirectories that
+ * don't match a label are skipped.
+ *
+ * <p>Each worker thread lazily creates its own interpreter on top of the single shared, read-only
+ * model mapping. Clips are independent, so throughput scales with the number of workers until the
+ * cores are saturated. The interpreters only last for one call to {@link #evaluate}, so an
+ * evaluator can be run over several datasets.
+ */
+public class BatchEvaluator {
+  private static final String LOG_TAG = BatchEvaluator.class.getSimpleName();
+
+  private final File modelFile;
+  private final List<String> labels;
+  private final PipelineSettings settings;
+
+  public BatchEvaluator(File inModelFile, List<String> inLabels, PipelineSettings inSettings) {
+    modelFile = inModelFile;
+    labels = inLabels;
+    settings = inSettings;
+  }
+
+  /** Evaluates every clip under the dataset directory and returns the merged report. */
+  public EvaluationReport evaluate(File datasetDir) throws IOException {
+    final List<File> clips = new ArrayList<>();
+    final List<Integer> clipLabels = new ArrayList<>();
+    for (int labelIndex = 0; labelIndex < labels.size(); ++labelIndex) {
+      File[] files = new File(datasetDir, labels.get(labelIndex)).listFiles();
+      if (files == null) {
+        continue;
+      }
+      // Sort so the work is split the same way on every run.
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.getName().toLowerCase().endsWith(".wav")) {
+          clips.add(file);
+          clipLabels.add(labelIndex);
+        }
+      }
+    }
+    Log.i(LOG_TAG, "Evaluating " + clips.size() + " clips from " + datasetDir);
+
+    final ClassifierPool classifiers = new ClassifierPool(modelFile, labels.size(), settings);
+    ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
+    try {
+      return pool.invoke(new EvaluateTask(classifiers, clips, clipLabels, 0, clips.size()));
+    } finally {
+      pool.shutdown();
+      classifiers.close();
+    }
+  }
+
+  /** Recursively halves a range of clips until each task holds a single clip. */
+  private class EvaluateTask extends RecursiveTask<EvaluationReport> {
+    private final ClassifierPool classifiers;
+    private final List<File> clips;
+    private final List<Integer> clipLabels;
+    private final int start;
+    private final int end;
+
+    EvaluateTask(
+        ClassifierPool inClassifiers,
+        List<File> inClips,
+        List<Integer> inClipLabels,
+        int inStart,
+        int inEnd) {
+      classifiers = inClassifiers;
+      clips = inClips;
+      clipLabels = inClipLabels;
+      start = inStart;
+      end = inEnd;
+    }
+
+    @Override
+    protected EvaluationReport compute() {
+      if (end - start <= 1) {
+        EvaluationReport report = new EvaluationReport(labels);
+        if (start < end) {
+          evaluateClip(classifiers.get(), clips.get(start), clipLabels.get(start), report);
+        }
+        return report;
+      }
+      final int middle = (start + end) >>> 1;
+      EvaluateTask left = new EvaluateTask(classifiers, clips, clipLabels, start, middle);
+      left.fork();
+      EvaluationReport right =
+          new EvaluateTask(classifiers, clips, clipLabels, middle, end).compute();
+      return left.join().merge(right);
+    }
+  }
+
+  private void evaluateClip(
+      AudioClassifier classifier, File file, int expectedIndex, EvaluationReport report) {
+    WavReader.Clip clip;
+    try {
+      clip = WavReader.read(file);
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Skipping unreadable clip " + file, e);
+      report.addFailedClip();
+      return;
+    }
+    if (clip.sampleRate != settings.sampleRate) {
+      Log.e(
+          LOG_TAG,
+          "Skipping " + file + ", recorded at " + clip.sampleRate + " Hz instead of "
+              + settings.sampleRate + " Hz");
+      report.addFailedClip();
+      return;
+    }
+
+    final DetectionPipeline pipeline = new DetectionPipeline(labels, settings);
+    final AudioClock clock = pipeline.getClock();
+    final String expectedLabel = labels.get(expectedIndex);
+    final short[] window = new short[settings.windowLength];
+    final short[] samples = clip.samples;
+
+    String detectedLabel = null;
+    long detectionLatencyMs = -1;
+    long washVoteLatencyMs = -1;
+    long windows = 0;
+
+    // Slide the window along the clip the same way the recording thread fills its round-robin
+    // buffer, so the first windows are padded with the silence the buffer starts out holding.
+    for (int windowEnd = settings.windowStrideSamples;
+        windowEnd <= samples.length;
+        windowEnd += settings.windowStrideSamples) {
+      final int windowStart = windowEnd - window.length;
+      final int padding = Math.max(0, -windowStart);
+      Arrays.fill(window, 0, padding, (short) 0);
+      System.arraycopy(samples, windowStart + padding, window, padding, window.length - padding);
+
+      final RecognizeCommands.RecognitionResult result =
+          pipeline.process(classifier.recognize(window), windowEnd);
+      final long timeMs = clock.toMs(windowEnd);
+      ++windows;
+
+      if (!result.isNewCommand) {
+        continue;
+      }
+      if (detectedLabel == null && !result.foundCommand.equals(RecognizeCommands.SILENCE_LABEL)) {
+        detectedLabel = result.foundCommand;
+      }
+      if (detectionLatencyMs < 0 && result.foundCommand.equals(expectedLabel)) {
+        detectionLatencyMs = timeMs;
+      }
+      if (pipeline.isWashDetected() && washVoteLatencyMs < 0) {
+        washVoteLatencyMs = timeMs;
+      }
+    }
+
+    final int detectedIndex =
+        labels.indexOf(detectedLabel == null ? RecognizeCommands.SILENCE_LABEL : detectedLabel);
+    report.addClip(
+        expectedIndex,
+        Math.max(0, detectedIndex),
+        detectionLatencyMs,
+        washVoteLatencyMs,
+        windows,
+        clock.toMs(samples.length));
+  }
+}
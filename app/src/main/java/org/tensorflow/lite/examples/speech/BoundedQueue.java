@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue between two pipeline stages that holds at most a fixed number of items, with a policy
+ * for what happens when the producer gets ahead of the consumer.
+ */
+public class BoundedQueue<T> {
+  /** What {@link #offer} does when the queue is full. */
+  public enum Policy {
+    /** Wait for the consumer to make room. Only for producers that are allowed to stall. */
+    BLOCK,
+    /** Throw away the oldest item to make room, keeping the consumer as current as possible. */
+    DROP_OLDEST,
+    /** Throw away the new item, keeping what was already queued. */
+    DROP_NEWEST
+  }
+
+  private final String name;
+  private final int capacity;
+  private final Policy policy;
+  private final ArrayDeque<T> items;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private long droppedCount;
+  private boolean closed;
+
+  public BoundedQueue(String inName, int inCapacity, Policy inPolicy) {
+    if (inCapacity <= 0) {
+      throw new IllegalArgumentException("Queue " + inName + " needs room for at least one item");
+    }
+    name = inName;
+    capacity = inCapacity;
+    policy = inPolicy;
+    items = new ArrayDeque<>(inCapacity);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Adds an item, applying the policy if the queue is full.
+   *
+   * @return false if the item was dropped, or the queue has been closed.
+   */
+  public boolean offer(T item) {
+    lock.lock();
+    try {
+      while (!closed && items.size() == capacity) {
+        if (policy == Policy.DROP_NEWEST) {
+          ++droppedCount;
+          return false;
+        }
+        if (policy == Policy.DROP_OLDEST) {
+          items.removeFirst();
+          ++droppedCount;
+          break;
+        }
+        notFull.awaitUninterruptibly();
+      }
+      if (closed) {
+        return false;
+      }
+      items.addLast(item);
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the oldest item, waiting up to the given time for one to arrive.
+   *
+   * @return null if none arrived in time, or the queue is closed and empty.
+   */
+  public T poll(long timeoutMs) throws InterruptedException {
+    lock.lock();
+    try {
+      long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      while (items.isEmpty()) {
+        if (closed || remainingNs <= 0) {
+          return null;
+        }
+        remainingNs = notEmpty.awaitNanos(remainingNs);
+      }
+      final T item = items.removeFirst();
+      notFull.signal();
+      return item;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isEmpty() {
+    lock.lock();
+    try {
+      return items.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Number of items thrown away because the queue was full. */
+  public long getDroppedCount() {
+    lock.lock();
+    try {
+      return droppedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops taking new items and wakes everyone waiting. Items already queued can still be taken, so
+   * the consumer can drain them before it stops.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
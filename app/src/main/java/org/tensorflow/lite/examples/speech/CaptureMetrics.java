@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.media.AudioRecord;
+import java.util.Locale;
+
+/**
+ * Running totals of how well capture and recognition are keeping up, for diagnosing load problems
+ * on slow devices.
+ *
+ * <p>The recording thread counts reads, read errors and overruns, where the recorder's buffer
+ * filled up and the system dropped audio. The recognition thread counts the windows it scored,
+ * skipped because it was busy, or threw away because they were torn or crossed a gap, and how far
+ * behind the newest audio it has been. Everything is cumulative for the life of the app; {@link
+ * #copy} takes a consistent snapshot.
+ */
+public class CaptureMetrics {
+  /** Frames read from the recorder, at the capture rate. */
+  public long framesRead;
+  public long reads;
+  public long emptyReads;
+  public long invalidOperationErrors;
+  public long badValueErrors;
+  public long deadObjectErrors;
+  public long otherErrors;
+  /** Times the recorder's buffer overflowed, and the frames the system dropped as a result. */
+  public long overruns;
+  public long droppedFrames;
+
+  public long scoredWindows;
+  /** Windows on the hop grid that were never scored because recognition was still busy. */
+  public long skippedWindows;
+  public long tornWindows;
+  /** Windows thrown away because they overlapped a gap in the stream. */
+  public long gappedWindows;
+  /** Furthest the newest scored window has trailed the newest recorded sample, in samples. */
+  public long maxLagSamples;
+
+  /** Counts the result of one {@link AudioRecord} read. */
+  public synchronized void recordRead(int result, int bytesPerFrame) {
+    ++reads;
+    if (result > 0) {
+      framesRead += result / bytesPerFrame;
+    } else if (result == 0) {
+      ++emptyReads;
+    } else if (result == AudioRecord.ERROR_INVALID_OPERATION) {
+      ++invalidOperationErrors;
+    } else if (result == AudioRecord.ERROR_BAD_VALUE) {
+      ++badValueErrors;
+    } else if (result == AudioRecord.ERROR_DEAD_OBJECT) {
+      ++deadObjectErrors;
+    } else {
+      ++otherErrors;
+    }
+  }
+
+  public synchronized void recordOverrun(long frames) {
+    ++overruns;
+    droppedFrames += frames;
+  }
+
+  /**
+   * Counts a scoring pass over some windows.
+   *
+   * @param skipped windows between the last pass and this one that were passed over.
+   * @param lagSamples how far the newest window trailed the newest recorded sample.
+   */
+  public synchronized void recordWindows(int scored, long skipped, long lagSamples) {
+    scoredWindows += scored;
+    skippedWindows += skipped;
+    maxLagSamples = Math.max(maxLagSamples, lagSamples);
+  }
+
+  public synchronized void recordTornWindows(int windows) {
+    tornWindows += windows;
+  }
+
+  public synchronized void recordGappedWindow() {
+    ++gappedWindows;
+  }
+
+  public synchronized long getReadErrors() {
+    return invalidOperationErrors + badValueErrors + deadObjectErrors + otherErrors;
+  }
+
+  /** Returns a copy of the totals so far. */
+  public synchronized CaptureMetrics copy() {
+    CaptureMetrics copy = new CaptureMetrics();
+    copy.framesRead = framesRead;
+    copy.reads = reads;
+    copy.emptyReads = emptyReads;
+    copy.invalidOperationErrors = invalidOperationErrors;
+    copy.badValueErrors = badValueErrors;
+    copy.deadObjectErrors = deadObjectErrors;
+    copy.otherErrors = otherErrors;
+    copy.overruns = overruns;
+    copy.droppedFrames = droppedFrames;
+    copy.scoredWindows = scoredWindows;
+    copy.skippedWindows = skippedWindows;
+    copy.tornWindows = tornWindows;
+    copy.gappedWindows = gappedWindows;
+    copy.maxLagSamples = maxLagSamples;
+    return copy;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "capture: %d frames in %d reads (%d empty), errors: %d invalid operation, %d bad value,"
+            + " %d dead object, %d other; overruns: %d, %d frames dropped;"
+            + " windows: %d scored, %d skipped, %d torn, %d gapped; max lag: %d samples",
+        framesRead,
+        reads,
+        emptyReads,
+        invalidOperationErrors,
+        badValueErrors,
+        deadObjectErrors,
+        otherErrors,
+        overruns,
+        droppedFrames,
+        scoredWindows,
+        skippedWindows,
+        tornWindows,
+        gappedWindows,
+        maxLagSamples);
+  }
+}
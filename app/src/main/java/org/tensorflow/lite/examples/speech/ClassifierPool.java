@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Hands each worker thread its own {@link AudioClassifier}, all sharing a single read-only mapping
+ * of the model file. Interpreters aren't thread safe, but they can share the model itself.
+ */
+public class ClassifierPool implements Closeable {
+  private final MappedByteBuffer model;
+  private final int labelsCount;
+  private final PipelineSettings settings;
+  private final ConcurrentLinkedQueue<AudioClassifier> classifiers =
+      new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<AudioClassifier> threadClassifier =
+      new ThreadLocal<AudioClassifier>() {
+        @Override
+        protected AudioClassifier initialValue() {
+          Interpreter.Options options = new Interpreter.Options();
+          options.setNumThreads(settings.interpreterThreads);
+          AudioClassifier classifier =
+              new AudioClassifier(
+                  model, options, settings.windowLength, settings.sampleRate, labelsCount);
+          classifiers.add(classifier);
+          return classifier;
+        }
+      };
+
+  public ClassifierPool(File inModelFile, int inLabelsCount, PipelineSettings inSettings)
+      throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(inModelFile);
+        FileChannel fileChannel = inputStream.getChannel()) {
+      model = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+    }
+    labelsCount = inLabelsCount;
+    settings = inSettings;
+  }
+
+  /** Returns the calling thread's classifier, creating it on first use. */
+  public AudioClassifier get() {
+    return threadClassifier.get();
+  }
+
+  /** Closes every classifier handed out so far. Only call this once the workers are finished. */
+  @Override
+  public void close() {
+    AudioClassifier classifier;
+    while ((classifier = classifiers.poll()) != null) {
+      classifier.close();
+    }
+  }
+}
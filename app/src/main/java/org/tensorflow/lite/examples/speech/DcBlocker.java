@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Removes the DC offset many microphones add, with a one-pole high-pass filter. It cuts off
+ * around {@link #CUTOFF_HZ}, well below anything the model listens for.
+ */
+public class DcBlocker implements AudioProcessor {
+  private static final float CUTOFF_HZ = 20.0f;
+
+  private final float pole;
+  private float previousInput;
+  private float previousOutput;
+
+  public DcBlocker(int inSampleRate) {
+    pole = (float) Math.exp(-2 * Math.PI * CUTOFF_HZ / inSampleRate);
+  }
+
+  @Override
+  public void process(float[] samples, int offset, int length) {
+    float x1 = previousInput;
+    float y1 = previousOutput;
+    for (int i = offset; i < offset + length; ++i) {
+      final float x = samples[i];
+      final float y = x - x1 + pole * y1;
+      samples[i] = y;
+      x1 = x;
+      y1 = y;
+    }
+    previousInput = x1;
+    previousOutput = y1;
+  }
+
+  @Override
+  public int getDelaySamples() {
+    return 0;
+  }
+
+  @Override
+  public void reset() {
+    previousInput = 0.0f;
+    previousOutput = 0.0f;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.List;
+
+/**
+ * The stages that follow the model: {@link RecognizeCommands} smoothing, then the {@link
+ * WashVoter} vote over new wash and nonwash commands. Everything here runs on the audio clock, so
+ * a given sequence of scores always leads to the same decisions.
+ */
+public class DetectionPipeline {
+  private final PipelineSettings settings;
+  private final List<String> labels;
+  private final AudioClock clock;
+  private final WashVoter washVoter;
+  private RecognizeCommands recognizeCommands;
+  private boolean washDetected;
+
+  public DetectionPipeline(List<String> inLabels, PipelineSettings inSettings) {
+    labels = inLabels;
+    settings = inSettings;
+    clock = new AudioClock(inSettings.sampleRate);
+    washVoter = new WashVoter(inSettings.samplesRecorded, inSettings.positiveSamplesRequired);
+    reset();
+  }
+
+  public AudioClock getClock() {
+    return clock;
+  }
+
+  /** Forgets all history, as if the stream were starting again. */
+  public void reset() {
+    recognizeCommands =
+        new RecognizeCommands(
+            labels,
+            settings.averageWindowDurationMs,
+            settings.detectionThreshold,
+            settings.suppressionMs,
+            settings.minimumCount,
+            settings.minimumTimeBetweenSamplesMs);
+    washVoter.reset();
+    washDetected = false;
+  }
+
+  /**
+   * Feeds in the scores for the window ending at the given sample count.
+   *
+   * @return the smoothed result. {@link #isWashDetected} then says whether it passed the vote.
+   */
+  public RecognizeCommands.RecognitionResult process(float[] scores, long windowEnd) {
+    final RecognizeCommands.RecognitionResult result =
+        recognizeCommands.processLatestResults(scores, clock.toMs(windowEnd));
+    washDetected = false;
+    if (result.isNewCommand) {
+      final boolean isWash = result.foundCommand.equals(WashVoter.WASH_LABEL);
+      if (isWash || result.foundCommand.equals(WashVoter.NONWASH_LABEL)) {
+        washDetected = washVoter.addSample(isWash);
+      }
+    }
+    return result;
+  }
+
+  /** Returns whether the latest result was a new command that passed the wash vote. */
+  public boolean isWashDetected() {
+    return washDetected;
+  }
+
+  /** Estimated Java heap held by the smoothing history. */
+  public long getHeapBytes() {
+    return recognizeCommands.getHeapBytes();
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Accumulates the results of running the detection pipeline over labeled clips: a confusion
+ * matrix of expected against detected labels, and how long each detection took to fire.
+ *
+ * <p>Reports are built up independently by each worker and merged together at the end, so none of
+ * the methods here are synchronized.
+ */
+public class EvaluationReport {
+  private final List<String> labels;
+  // confusion[expected][detected]
+  private final long[][] confusion;
+  private final LongList[] detectionLatenciesMs;
+  private final LongList washVoteLatenciesMs = new LongList();
+  private final long[] washVotesByLabel;
+  private long clipCount;
+  private long failedClipCount;
+  private long windowCount;
+  private long audioDurationMs;
+
+  public EvaluationReport(List<String> inLabels) {
+    labels = inLabels;
+    confusion = new long[inLabels.size()][inLabels.size()];
+    detectionLatenciesMs = new LongList[inLabels.size()];
+    for (int i = 0; i < detectionLatenciesMs.length; ++i) {
+      detectionLatenciesMs[i] = new LongList();
+    }
+    washVotesByLabel = new long[inLabels.size()];
+  }
+
+  /**
+   * Records the outcome of one clip.
+   *
+   * @param expectedIndex the label the clip was filed under.
+   * @param detectedIndex the first non-silence command found in the clip, or silence if none was.
+   * @param detectionLatencyMs time from the start of the clip until the expected label was first
+   *     reported as a new command, or a negative value if it never was.
+   * @param washVoteLatencyMs time from the start of the clip until the wash vote first passed, or a
+   *     negative value if it never did.
+   */
+  public void addClip(
+      int expectedIndex,
+      int detectedIndex,
+      long detectionLatencyMs,
+      long washVoteLatencyMs,
+      long windows,
+      long durationMs) {
+    ++clipCount;
+    ++confusion[expectedIndex][detectedIndex];
+    if (detectionLatencyMs >= 0) {
+      detectionLatenciesMs[expectedIndex].add(detectionLatencyMs);
+    }
+    if (washVoteLatencyMs >= 0) {
+      ++washVotesByLabel[expectedIndex];
+      if (labels.get(expectedIndex).equals(WashVoter.WASH_LABEL)) {
+        washVoteLatenciesMs.add(washVoteLatencyMs);
+      }
+    }
+    windowCount += windows;
+    audioDurationMs += durationMs;
+  }
+
+  public void addFailedClip() {
+    ++failedClipCount;
+  }
+
+  /** Folds another report into this one and returns this report. */
+  public EvaluationReport merge(EvaluationReport other) {
+    for (int i = 0; i < confusion.length; ++i) {
+      for (int j = 0; j < confusion[i].length; ++j) {
+        confusion[i][j] += other.confusion[i][j];
+      }
+      detectionLatenciesMs[i].addAll(other.detectionLatenciesMs[i]);
+      washVotesByLabel[i] += other.washVotesByLabel[i];
+    }
+    washVoteLatenciesMs.addAll(other.washVoteLatenciesMs);
+    clipCount += other.clipCount;
+    failedClipCount += other.failedClipCount;
+    windowCount += other.windowCount;
+    audioDurationMs += other.audioDurationMs;
+    return this;
+  }
+
+  public long getClipCount() {
+    return clipCount;
+  }
+
+  public long getFailedClipCount() {
+    return failedClipCount;
+  }
+
+  public long getWindowCount() {
+    return windowCount;
+  }
+
+  public long getAudioDurationMs() {
+    return audioDurationMs;
+  }
+
+  public long getConfusion(int expectedIndex, int detectedIndex) {
+    return confusion[expectedIndex][detectedIndex];
+  }
+
+  /** Fraction of clips detected as this label that were actually filed under it. */
+  public float getPrecision(int labelIndex) {
+    long detected = 0;
+    for (int i = 0; i < confusion.length; ++i) {
+      detected += confusion[i][labelIndex];
+    }
+    return detected == 0 ? 0.0f : (float) confusion[labelIndex][labelIndex] / detected;
+  }
+
+  /** Fraction of clips filed under this label that were detected as it. */
+  public float getRecall(int labelIndex) {
+    long expected = 0;
+    for (int j = 0; j < confusion[labelIndex].length; ++j) {
+      expected += confusion[labelIndex][j];
+    }
+    return expected == 0 ? 0.0f : (float) confusion[labelIndex][labelIndex] / expected;
+  }
+
+  /** Returns the given percentile (0-100) of detection latencies for a label, or -1 if none. */
+  public long getDetectionLatencyPercentileMs(int labelIndex, float percentile) {
+    return detectionLatenciesMs[labelIndex].percentile(percentile);
+  }
+
+  /** Returns the given percentile (0-100) of wash vote latencies on wash clips, or -1 if none. */
+  public long getWashVoteLatencyPercentileMs(float percentile) {
+    return washVoteLatenciesMs.percentile(percentile);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder
+        .append("Clips: ")
+        .append(clipCount)
+        .append(" (")
+        .append(failedClipCount)
+        .append(" failed), windows: ")
+        .append(windowCount)
+        .append(", audio: ")
+        .append(audioDurationMs / 1000)
+        .append(" s\n");
+
+    builder.append("Confusion matrix (rows are expected, columns are detected):\n");
+    builder.append(String.format(Locale.US, "%-12s", ""));
+    for (String label : labels) {
+      builder.append(String.format(Locale.US, "%12s", label));
+    }
+    builder.append('\n');
+    for (int i = 0; i < labels.size(); ++i) {
+      builder.append(String.format(Locale.US, "%-12s", labels.get(i)));
+      for (int j = 0; j < labels.size(); ++j) {
+        builder.append(String.format(Locale.US, "%12d", confusion[i][j]));
+      }
+      builder.append('\n');
+    }
+
+    builder.append(
+        String.format(
+            Locale.US,
+            "%-12s%10s%10s%10s%10s%10s%10s%12s\n",
+            "label", "precision", "recall", "p50 ms", "p90 ms", "p99 ms", "max ms", "wash votes"));
+    for (int i = 0; i < labels.size(); ++i) {
+      builder.append(
+          String.format(
+              Locale.US,
+              "%-12s%10.3f%10.3f%10d%10d%10d%10d%12d\n",
+              labels.get(i),
+              getPrecision(i),
+              getRecall(i),
+              getDetectionLatencyPercentileMs(i, 50),
+              getDetectionLatencyPercentileMs(i, 90),
+              getDetectionLatencyPercentileMs(i, 99),
+              getDetectionLatencyPercentileMs(i, 100),
+              washVotesByLabel[i]));
+    }
+    builder.append(
+        String.format(
+            Locale.US,
+            "Wash vote latency on wash clips: p50 %d ms, p90 %d ms, p99 %d ms\n",
+            getWashVoteLatencyPercentileMs(50),
+            getWashVoteLatencyPercentileMs(90),
+            getWashVoteLatencyPercentileMs(99)));
+    return builder.toString();
+  }
+
+  /** Growable array of primitive longs, to avoid boxing every latency sample. */
+  private static class LongList {
+    private long[] values = new long[16];
+    private int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    void addAll(LongList other) {
+      if (size + other.size > values.length) {
+        values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+      }
+      System.arraycopy(other.values, 0, values, size, other.size);
+      size += other.size;
+    }
+
+    long percentile(float percentile) {
+      if (size == 0) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100.0f * size) - 1;
+      return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * In-place radix-2 complex FFT of a fixed size, with its twiddle factors and bit reversal order
+ * worked out up front so transforms don't allocate.
+ */
+final class Fft {
+  private final int size;
+  private final float[] cosines;
+  private final float[] sines;
+  private final int[] reversed;
+
+  Fft(int inSize) {
+    if (inSize < 2 || Integer.bitCount(inSize) != 1) {
+      throw new IllegalArgumentException("FFT size must be a power of two, not " + inSize);
+    }
+    size = inSize;
+    cosines = new float[inSize / 2];
+    sines = new float[inSize / 2];
+    for (int i = 0; i < inSize / 2; ++i) {
+      cosines[i] = (float) Math.cos(2 * Math.PI * i / inSize);
+      sines[i] = (float) Math.sin(2 * Math.PI * i / inSize);
+    }
+    reversed = new int[inSize];
+    final int bits = Integer.numberOfTrailingZeros(inSize);
+    for (int i = 0; i < inSize; ++i) {
+      reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * Transforms the complex signal held in the two arrays in place. The inverse transform isn't
+   * scaled, so a round trip multiplies the signal by the size.
+   */
+  void transform(float[] real, float[] imaginary, boolean inverse) {
+    for (int i = 0; i < size; ++i) {
+      final int j = reversed[i];
+      if (j > i) {
+        float swap = real[i];
+        real[i] = real[j];
+        real[j] = swap;
+        swap = imaginary[i];
+        imaginary[i] = imaginary[j];
+        imaginary[j] = swap;
+      }
+    }
+    final float sign = inverse ? 1.0f : -1.0f;
+    for (int length = 2; length <= size; length <<= 1) {
+      final int half = length >> 1;
+      final int step = size / length;
+      for (int start = 0; start < size; start += length) {
+        for (int k = 0; k < half; ++k) {
+          final float wr = cosines[k * step];
+          final float wi = sign * sines[k * step];
+          final int a = start + k;
+          final int b = a + half;
+          final float tr = real[b] * wr - imaginary[b] * wi;
+          final float ti = real[b] * wi + imaginary[b] * wr;
+          real[b] = real[a] - tr;
+          imaginary[b] = imaginary[a] - ti;
+          real[a] += tr;
+          imaginary[a] += ti;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Converts between floats and IEEE 754 half precision, for storing scores in two bytes. {@code
+ * android.util.Half} needs API 26 and isn't available to the desktop tools, so this does it by
+ * hand. Scores are in [0, 1], where half precision keeps about three significant digits.
+ */
+public final class HalfFloat {
+  private HalfFloat() {}
+
+  /** Rounds a float to the nearest half, saturating to infinity and flushing tiny values to 0. */
+  public static short fromFloat(float value) {
+    final int bits = Float.floatToIntBits(value);
+    final int sign = (bits >>> 16) & 0x8000;
+    final int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+    int mantissa = bits & 0x7fffff;
+
+    if (exponent >= 0x1f) {
+      // Too large, infinity or NaN.
+      final boolean isNaN = ((bits >>> 23) & 0xff) == 0xff && mantissa != 0;
+      return (short) (sign | 0x7c00 | (isNaN ? 0x200 : 0));
+    }
+    if (exponent <= 0) {
+      if (exponent < -10) {
+        return (short) sign;
+      }
+      // Subnormal half: shift the implicit leading one into the mantissa.
+      mantissa |= 0x800000;
+      final int shift = 14 - exponent;
+      int half = mantissa >> shift;
+      if (((mantissa >> (shift - 1)) & 1) != 0) {
+        ++half;
+      }
+      return (short) (sign | half);
+    }
+    int half = sign | (exponent << 10) | (mantissa >> 13);
+    // Round to nearest; a carry into the exponent is still correct.
+    if ((mantissa & 0x1000) != 0) {
+      ++half;
+    }
+    return (short) half;
+  }
+
+  public static float toFloat(short half) {
+    final int sign = (half & 0x8000) << 16;
+    final int exponent = (half >>> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      if (mantissa == 0) {
+        return Float.intBitsToFloat(sign);
+      }
+      // Subnormal half, which is a normal float.
+      int e = -1;
+      do {
+        ++e;
+        mantissa <<= 1;
+      } while ((mantissa & 0x400) == 0);
+      return Float.intBitsToFloat(sign | ((127 - 15 - e) << 23) | ((mantissa & 0x3ff) << 13));
+    }
+    return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures what a window costs to score at each batch size, to see how much of an invocation is
+ * fixed overhead that {@link AudioClassifier#recognizeBatch} spreads across a batch.
+ *
+ * <p>Every batch size scores the same random audio on one interpreter thread, after a warm-up that
+ * also takes care of the resize to that size. For a model without a batch dimension every size
+ * falls back to one invocation per window, which makes a useful baseline.
+ *
+ * <p>That steady rate leaves out what recognition actually pays to catch up after a stall: the
+ * batch comes between single windows, and its size is rarely the same as last time. So each size
+ * is also timed as a catch-up, scoring a batch of a different size and a single window first and
+ * then timing the batch and the single window after it, resizes included.
+ */
+public class InferenceBatchBenchmark {
+  private static final int WARMUP_BATCHES = 5;
+
+  /** What scoring costs at one batch size. */
+  public static class Result {
+    public int batchSize;
+    public boolean batched;
+    public double msPerBatch;
+    public double msPerWindow;
+    /** A batch of this size and the window after it, when the last batch was another size. */
+    public double msPerCatchUp;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "batch of %2d%s: %.3f ms per batch, %.3f ms per window, %.3f ms per catch-up",
+          batchSize,
+          batched ? "" : " (one invocation per window)",
+          msPerBatch,
+          msPerWindow,
+          msPerCatchUp);
+    }
+  }
+
+  private InferenceBatchBenchmark() {}
+
+  /**
+   * Scores the given number of batches at every size from 1 to {@link
+   * AudioClassifier#MAX_BATCH_SIZE}, returning the results in order of size.
+   */
+  public static Result[] run(
+      File modelFile, int labelsCount, PipelineSettings settings, int batches) throws IOException {
+    PipelineSettings single = settings.copy();
+    single.interpreterThreads = 1;
+    final int hop = settings.windowStrideSamples;
+    final int maxBatch = AudioClassifier.MAX_BATCH_SIZE;
+    final short[] samples = new short[settings.windowLength + (maxBatch - 1) * hop];
+    Random random = new Random(0);
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = (short) (random.nextGaussian() * 3000);
+    }
+
+    Result[] results = new Result[maxBatch];
+    try (ClassifierPool pool = new ClassifierPool(modelFile, labelsCount, single)) {
+      final AudioClassifier classifier = pool.get();
+      for (int size = 1; size <= maxBatch; ++size) {
+        for (int i = 0; i < WARMUP_BATCHES; ++i) {
+          classifier.recognizeBatch(samples, 0, hop, size);
+        }
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < batches; ++i) {
+          classifier.recognizeBatch(samples, 0, hop, size);
+        }
+        final double elapsedMs = (System.nanoTime() - startTime) / 1e6;
+
+        // Alternate with another size, so every timed batch starts from a different shape.
+        final int otherSize = size == 2 ? 3 : 2;
+        long catchUpNs = 0;
+        for (int i = 0; i < batches; ++i) {
+          classifier.recognizeBatch(samples, 0, hop, otherSize);
+          classifier.recognize(samples, 0);
+          final long catchUpStart = System.nanoTime();
+          classifier.recognizeBatch(samples, 0, hop, size);
+          classifier.recognize(samples, 0);
+          catchUpNs += System.nanoTime() - catchUpStart;
+        }
+
+        Result result = new Result();
+        result.batchSize = size;
+        result.batched = classifier.supportsBatching();
+        result.msPerBatch = elapsedMs / batches;
+        result.msPerWindow = result.msPerBatch / size;
+        result.msPerCatchUp = catchUpNs / 1e6 / batches;
+        results[size - 1] = result;
+      }
+    }
+    return results;
+  }
+}
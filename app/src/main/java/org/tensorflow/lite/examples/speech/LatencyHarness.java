@@ -0,0 +1,407 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the delay from the sound of washing starting to the app counting a wash, by playing
+ * scripted {@link AudioTimeline}s through the capture path on a simulated clock.
+ *
+ * <p>The simulation follows the app's threads. The recorder delivers a block every block length,
+ * through the resampler and preprocessing when the capture settings call for them, into an {@link
+ * AudioRingBuffer} sized like the app's, including while the recognizer is busy. The recognizer
+ * steps the same {@link RecognitionLoop} as {@code SpeechActivity.recognize}, so it follows the
+ * app's hop grid, catch-up and torn-window handling, and is busy for the simulated inference time
+ * on each step that scores; each result then goes through the {@link DetectionPipeline}, and a
+ * passed vote is where {@code updateLastWash} would fire. Nothing waits on the wall clock, so an
+ * hour of audio takes as long as the scoring does.
+ *
+ * <p>A wash counts as detected by the first vote between its start and {@link #matchToleranceMs}
+ * after its end; the latency is measured from its start. Votes anywhere else are false triggers
+ * when they came on a wash command, and stale votes when they came on a nonwash command: the vote
+ * stays passed until enough nonwash commands have pushed the washes out of it, and the app counts
+ * a wash again on each of them.
+ *
+ * <p>Scoring is pluggable: {@link #forClassifier} runs the real model, while {@link ScriptedScorer}
+ * stands in for it with scores worked out from the script, which isolates the latency added by
+ * buffering, smoothing and voting from the model's own.
+ */
+public class LatencyHarness {
+  /** Produces the model's scores for a window. */
+  public interface Scorer {
+    /**
+     * @param window the window as the model would see it.
+     * @param timelineEndMs where the window ends in the script, allowing for the delay added by
+     *     resampling and preprocessing.
+     */
+    float[] score(ByteBuffer window, AudioTimeline timeline, long timelineEndMs);
+  }
+
+  /** Scores windows with the real model. */
+  public static Scorer forClassifier(final AudioClassifier classifier) {
+    return (window, timeline, timelineEndMs) -> classifier.recognize(window);
+  }
+
+  /**
+   * Stands in for the model with scores taken from the share of each window covered by each kind
+   * of segment, plus some seeded jitter so the smoothing has something to smooth.
+   */
+  public static class ScriptedScorer implements Scorer {
+    /** Share of a window that has to be washing for the wash score to reach one. */
+    public float fullScoreCoverage = 0.5f;
+    /** Largest random change to each score, before they're normalized. */
+    public float jitter = 0.2f;
+
+    private final int silenceIndex;
+    private final int washIndex;
+    private final int nonwashIndex;
+    private final long windowMs;
+    private final float[] scores;
+    private final Random random;
+
+    public ScriptedScorer(List<String> labels, PipelineSettings settings, long seed) {
+      silenceIndex = labels.indexOf(RecognizeCommands.SILENCE_LABEL);
+      washIndex = labels.indexOf(WashVoter.WASH_LABEL);
+      nonwashIndex = labels.indexOf(WashVoter.NONWASH_LABEL);
+      if (silenceIndex < 0 || washIndex < 0 || nonwashIndex < 0) {
+        throw new IllegalArgumentException("Labels are missing silence, wash or nonwash");
+      }
+      windowMs = (long) settings.windowLength * 1000 / settings.sampleRate;
+      scores = new float[labels.size()];
+      random = new Random(seed);
+    }
+
+    @Override
+    public float[] score(ByteBuffer window, AudioTimeline timeline, long timelineEndMs) {
+      final long startMs = timelineEndMs - windowMs;
+      final float wash =
+          Math.min(
+              1.0f,
+              timeline.getOverlapMs(AudioTimeline.Kind.WASH, startMs, timelineEndMs)
+                  / (fullScoreCoverage * windowMs));
+      final float noise =
+          Math.min(
+              1.0f - wash,
+              timeline.getOverlapMs(AudioTimeline.Kind.NOISE, startMs, timelineEndMs)
+                  / (fullScoreCoverage * windowMs));
+      Arrays.fill(scores, 0.0f);
+      scores[washIndex] = wash;
+      scores[nonwashIndex] = noise;
+      scores[silenceIndex] = 1.0f - wash - noise;
+      float total = 0.0f;
+      for (int i = 0; i < scores.length; ++i) {
+        scores[i] = Math.max(0.0f, scores[i] + (random.nextFloat() * 2 - 1) * jitter);
+        total += scores[i];
+      }
+      for (int i = 0; i < scores.length; ++i) {
+        scores[i] = total == 0.0f ? 1.0f / scores.length : scores[i] / total;
+      }
+      return scores;
+    }
+  }
+
+  /** Latencies and false triggers over one or more timelines. */
+  public static class Result {
+    public long washes;
+    public long detectedWashes;
+    public long falseTriggers;
+    /** Votes outside washes that passed on a nonwash command, left over from an earlier wash. */
+    public long staleVotes;
+    public long windows;
+    /** Windows on the hop grid that were never scored, because scoring fell behind. */
+    public long skippedWindows;
+    /** Windows scored but thrown away, because recording lapped them as they were read. */
+    public long tornWindows;
+    public long audioMs;
+    /** Audio that wasn't part of a wash or its tolerance, where any vote is a false trigger. */
+    public long otherAudioMs;
+    private long[] latenciesMs = new long[16];
+
+    void addLatency(long latencyMs) {
+      if (detectedWashes == latenciesMs.length) {
+        latenciesMs = Arrays.copyOf(latenciesMs, latenciesMs.length * 2);
+      }
+      latenciesMs[(int) detectedWashes++] = latencyMs;
+    }
+
+    /** Folds another result into this one and returns this result. */
+    public Result merge(Result other) {
+      for (int i = 0; i < other.detectedWashes; ++i) {
+        addLatency(other.latenciesMs[i]);
+      }
+      washes += other.washes;
+      falseTriggers += other.falseTriggers;
+      staleVotes += other.staleVotes;
+      windows += other.windows;
+      skippedWindows += other.skippedWindows;
+      tornWindows += other.tornWindows;
+      audioMs += other.audioMs;
+      otherAudioMs += other.otherAudioMs;
+      return this;
+    }
+
+    /** Returns the given percentile (0-100) of onset to detection latency, or -1 if none. */
+    public long getLatencyPercentileMs(float percentile) {
+      if (detectedWashes == 0) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(latenciesMs, (int) detectedWashes);
+      Arrays.sort(sorted);
+      final int index = (int) Math.ceil(percentile / 100.0f * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** False triggers per hour of audio outside washes. */
+    public double getFalseTriggersPerHour() {
+      return otherAudioMs == 0 ? 0.0 : falseTriggers * 3600000.0 / otherAudioMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "washes: %d/%d detected; latency p50 %d ms, p90 %d ms, p99 %d ms, max %d ms;"
+              + " false triggers: %d (%.2f/h); stale votes: %d; windows: %d (%d skipped,"
+              + " %d torn), audio: %d s",
+          detectedWashes,
+          washes,
+          getLatencyPercentileMs(50),
+          getLatencyPercentileMs(90),
+          getLatencyPercentileMs(99),
+          getLatencyPercentileMs(100),
+          falseTriggers,
+          getFalseTriggersPerHour(),
+          staleVotes,
+          windows,
+          skippedWindows,
+          tornWindows,
+          audioMs / 1000);
+    }
+  }
+
+  /** Rate the recorder captures at, which the resampler converts from when it isn't the model's. */
+  public int captureRate;
+  /** Samples the recorder delivers at a time, at the capture rate. */
+  public int captureBlockSamples;
+  /** Simulated time each inference takes. */
+  public long inferenceMs = 20;
+  /** Whether to play the app running in the background, on the coarser hop grid. */
+  public boolean monitoring;
+  /**
+   * Whether windows missed after a stall are scored as one batch, as with a model that has a batch
+   * dimension. A batch takes the same simulated time as a single window.
+   */
+  public boolean batching;
+  /** Applied to the audio after resampling, as with {@code PREPROCESSING_ENABLED}. */
+  public AudioProcessor preprocessor;
+  /** How long after a wash ends a vote still counts as detecting it. */
+  public long matchToleranceMs = 2000;
+
+  private final List<String> labels;
+  private final PipelineSettings settings;
+  private final Scorer scorer;
+
+  public LatencyHarness(List<String> inLabels, PipelineSettings inSettings, Scorer inScorer) {
+    labels = inLabels;
+    settings = inSettings;
+    scorer = inScorer;
+    captureRate = inSettings.sampleRate;
+    // What AudioRecord.getMinBufferSize usually comes to at 16 kHz, in 16-bit samples.
+    captureBlockSamples = inSettings.sampleRate / 12;
+  }
+
+  /** Plays the timeline from silence, as if the app had just started listening. */
+  public Result run(AudioTimeline timeline, long seed) {
+    final Simulation simulation = new Simulation(timeline, seed);
+    final RecognitionLoop loop =
+        new RecognitionLoop(
+            simulation.ring, simulation.clock, simulation.metrics, simulation, simulation);
+    loop.hopSamples = settings.windowStrideSamples;
+    loop.monitoring = monitoring;
+    loop.start();
+
+    // Run on until the tail of the last wash has had time to be counted.
+    final long endUs = (timeline.getDurationMs() + matchToleranceMs) * 1000;
+    while (simulation.nowUs < endUs) {
+      if (!loop.step()) {
+        simulation.poll();
+      }
+    }
+
+    final Result result = new Result();
+    result.windows = simulation.metrics.scoredWindows;
+    result.skippedWindows = simulation.metrics.skippedWindows;
+    result.tornWindows = simulation.metrics.tornWindows;
+    tally(timeline, simulation.votesMs, simulation.washVotes, simulation.votes, result);
+    return result;
+  }
+
+  /**
+   * The recorder and the recognizer's view of one timeline. Blocks are handed over once their last
+   * sample is recorded, including while the recognizer is busy scoring, and the recognizer wakes
+   * from its poll within a poll interval of a block coming in.
+   */
+  private class Simulation implements RecognitionLoop.Scorer, RecognitionLoop.Listener {
+    final AudioRingBuffer ring = new AudioRingBuffer(settings.windowLength, settings.sampleRate);
+    final DetectionPipeline pipeline = new DetectionPipeline(labels, settings);
+    final AudioClock clock = pipeline.getClock();
+    final CaptureMetrics metrics = new CaptureMetrics();
+    // Simulated time in microseconds.
+    long nowUs;
+    long[] votesMs = new long[16];
+    boolean[] washVotes = new boolean[16];
+    int votes;
+
+    private final AudioTimeline timeline;
+    private final AudioTimeline.Reader reader;
+    private final float[] captured = new float[captureBlockSamples];
+    private final PolyphaseResampler resampler;
+    private final float[] resampled;
+    private final long delayMs;
+    private final long blockUs;
+    private final long pollUs;
+    private long nextBlockUs;
+
+    Simulation(AudioTimeline inTimeline, long seed) {
+      timeline = inTimeline;
+      reader = inTimeline.open(captureRate, seed);
+      float delay = 0.0f;
+      if (captureRate != settings.sampleRate) {
+        resampler = new PolyphaseResampler(captureRate, settings.sampleRate, captureBlockSamples);
+        resampled = new float[resampler.getMaxOutputLength(captureBlockSamples)];
+        delay += resampler.getDelayMs();
+      } else {
+        resampler = null;
+        resampled = null;
+      }
+      if (preprocessor != null) {
+        preprocessor.reset();
+        delay += 1000.0f * preprocessor.getDelaySamples() / settings.sampleRate;
+      }
+      delayMs = (long) delay;
+      blockUs = (long) captureBlockSamples * 1000000 / captureRate;
+      pollUs = Math.max(1, settings.minimumTimeBetweenSamplesMs) * 1000;
+      nextBlockUs = blockUs;
+    }
+
+    /** Sleeps in poll intervals until the next block is in, and records it. */
+    void poll() {
+      nowUs += (nextBlockUs - nowUs + pollUs - 1) / pollUs * pollUs;
+      record();
+    }
+
+    /** Hands over every block recorded by now. */
+    private void record() {
+      while (nextBlockUs <= nowUs) {
+        reader.read(captured, 0, captureBlockSamples);
+        float[] block = captured;
+        int blockLength = captureBlockSamples;
+        if (resampler != null) {
+          blockLength = resampler.process(captured, 0, captureBlockSamples, resampled, 0);
+          block = resampled;
+        }
+        if (preprocessor != null) {
+          preprocessor.process(block, 0, blockLength);
+        }
+        ring.write(block, 0, blockLength);
+        nextBlockUs += blockUs;
+      }
+    }
+
+    @Override
+    public float[][] score(AudioRingBuffer buffer, long windowEnd, int hop, int pendingWindows) {
+      final int count = batching ? pendingWindows : 1;
+      final float[][] rows = new float[count][];
+      for (int w = 0; w < count; ++w) {
+        final long end = windowEnd - (long) (count - 1 - w) * hop;
+        rows[w] = scorer.score(buffer.getWindow(end), timeline, clock.toMs(end) - delayMs).clone();
+      }
+      nowUs += inferenceMs * 1000;
+      record();
+      return rows;
+    }
+
+    @Override
+    public void onScores(long windowEnd, float[] scores) {
+      final RecognizeCommands.RecognitionResult recognition = pipeline.process(scores, windowEnd);
+      if (!pipeline.isWashDetected()) {
+        return;
+      }
+      if (votes == votesMs.length) {
+        votesMs = Arrays.copyOf(votesMs, votes * 2);
+        washVotes = Arrays.copyOf(washVotes, votes * 2);
+      }
+      washVotes[votes] = recognition.foundCommand.equals(WashVoter.WASH_LABEL);
+      votesMs[votes++] = nowUs / 1000;
+    }
+  }
+
+  /** Plays several random timelines of the given length and merges the results. */
+  public Result runRandom(int timelines, long durationMs, long seed) {
+    Result result = new Result();
+    for (int i = 0; i < timelines; ++i) {
+      result.merge(run(AudioTimeline.createRandom(durationMs, seed + i), seed + i));
+    }
+    return result;
+  }
+
+  private void tally(
+      AudioTimeline timeline, long[] votesMs, boolean[] washVotes, int votes, Result result) {
+    final List<AudioTimeline.Segment> segments = timeline.getSegments();
+    final boolean[] matched = new boolean[votes];
+    long washMs = 0;
+    long previousEndMs = Long.MIN_VALUE;
+    for (int i = 0; i < segments.size(); ++i) {
+      final AudioTimeline.Segment segment = segments.get(i);
+      if (segment.kind != AudioTimeline.Kind.WASH) {
+        continue;
+      }
+      ++result.washes;
+      final long endMs = segment.getEndMs() + matchToleranceMs;
+      // Don't count the tolerance twice where washes come close together.
+      washMs += endMs - Math.max(segment.startMs, previousEndMs);
+      previousEndMs = endMs;
+      boolean detected = false;
+      for (int j = 0; j < votes; ++j) {
+        if (votesMs[j] >= segment.startMs && votesMs[j] <= endMs) {
+          if (!detected) {
+            result.addLatency(votesMs[j] - segment.startMs);
+            detected = true;
+          }
+          matched[j] = true;
+        }
+      }
+    }
+    for (int j = 0; j < votes; ++j) {
+      if (matched[j]) {
+        continue;
+      }
+      if (washVotes[j]) {
+        ++result.falseTriggers;
+      } else {
+        ++result.staleVotes;
+      }
+    }
+    result.audioMs += timeline.getDurationMs();
+    result.otherAudioMs += Math.max(0, timeline.getDurationMs() + matchToleranceMs - washMs);
+  }
+}
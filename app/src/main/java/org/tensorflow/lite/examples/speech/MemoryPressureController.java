@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+/**
+ * Puts the pipeline into a compact mode while the system is short of memory, and brings it back
+ * once the pressure has passed.
+ *
+ * <p>Trim levels that mean memory is running low, whether the app is in the foreground or in the
+ * background, switch to compact mode straight away. Hiding the UI and the first, moderate warning
+ * don't. Nothing tells us when the pressure is over, so {@link #checkRecovery} has to be called
+ * now and again while compact: it switches back once there have been no trims for the recovery
+ * delay and the system no longer reports low memory. Changes are handed to a {@link Listener},
+ * which releases or rebuilds what compact mode does without.
+ *
+ * <p>The listener is called outside the lock, on whichever thread caused the change, so two quick
+ * changes on different threads may reach it out of order. It should hand the work to a single
+ * thread of its own, which applies whatever {@link #isCompact} says by the time it runs.
+ */
+public class MemoryPressureController {
+  private static final String LOG_TAG = MemoryPressureController.class.getSimpleName();
+
+  /** Hears about a change of mode. Called on the thread that caused it, and must not block. */
+  public interface Listener {
+    void onCompactModeChanged(boolean compact);
+  }
+
+  private final Listener listener;
+  private final long recoveryDelayMs;
+  private volatile boolean compact;
+  private long lastPressureMs;
+  private int lastTrimLevel;
+  private long compactStartMs;
+  private long timeCompactMs;
+  private int compactCount;
+
+  /**
+   * @param inRecoveryDelayMs how long memory has to stay clear of pressure before leaving compact
+   *     mode, so the pipeline doesn't flap between the two while the system is reclaiming.
+   */
+  public MemoryPressureController(long inRecoveryDelayMs, Listener inListener) {
+    recoveryDelayMs = inRecoveryDelayMs;
+    listener = inListener;
+  }
+
+  /** Whether the pipeline should be compact. Safe to check from any thread. */
+  public boolean isCompact() {
+    return compact;
+  }
+
+  /** Returns whether a trim level means memory is short enough to go compact. */
+  public static boolean isPressure(int level) {
+    return level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+  }
+
+  /** Passes on a level from {@link ComponentCallbacks2#onTrimMemory}. */
+  public void onTrimMemory(int level) {
+    if (!isPressure(level)) {
+      return;
+    }
+    synchronized (this) {
+      lastPressureMs = System.currentTimeMillis();
+      lastTrimLevel = level;
+      if (compact) {
+        return;
+      }
+      setCompact(true);
+    }
+    listener.onCompactModeChanged(true);
+  }
+
+  /** Passes on {@link android.content.ComponentCallbacks#onLowMemory}, the most severe level. */
+  public void onLowMemory() {
+    onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+  }
+
+  /**
+   * Leaves compact mode if it has been long enough since the last trim and the system isn't low
+   * on memory.
+   *
+   * @return whether the pipeline is still compact, so whether to check again later.
+   */
+  public boolean checkRecovery(boolean systemLowMemory) {
+    synchronized (this) {
+      if (!compact) {
+        return false;
+      }
+      if (systemLowMemory) {
+        lastPressureMs = System.currentTimeMillis();
+        return true;
+      }
+      if (System.currentTimeMillis() - lastPressureMs < recoveryDelayMs) {
+        return true;
+      }
+      setCompact(false);
+    }
+    listener.onCompactModeChanged(false);
+    return false;
+  }
+
+  /** Records a change of mode. Must be called holding the lock. */
+  private void setCompact(boolean newCompact) {
+    final long now = System.currentTimeMillis();
+    compact = newCompact;
+    if (newCompact) {
+      compactStartMs = now;
+      ++compactCount;
+      Log.i(LOG_TAG, "Going compact at trim level " + lastTrimLevel);
+    } else {
+      timeCompactMs += now - compactStartMs;
+      Log.i(LOG_TAG, "Leaving compact mode after " + (now - compactStartMs) / 1000 + " s");
+    }
+  }
+
+  /** How often and for how long the pipeline has been compact, as a printable summary. */
+  public synchronized String getSummary() {
+    final long total = timeCompactMs + (compact ? System.currentTimeMillis() - compactStartMs : 0);
+    return "Compact " + compactCount + " times, for " + total / 1000 + " s";
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A snapshot of the memory the audio pipeline holds, broken down by component and by kind, next to
+ * the totals for the whole process.
+ *
+ * <p>Each component reports Java heap, direct buffers (which ART keeps on the Java heap too, so
+ * they count towards its total), native memory such as interpreter arenas, and memory-mapped
+ * model files. Mapped pages are clean and backed by the file, so the system can reclaim them
+ * under pressure at the cost of reading them back, unlike the rest. Heap sizes are estimated from
+ * the arrays each component holds. Native sizes are whatever the caller measured, usually how far
+ * the native heap grew while it created the component, so the components won't add up to the
+ * process totals exactly.
+ *
+ * <p>This class only uses plain Java, so the tools that run off the device can report memory too.
+ * The caller fills in the process native heap and the system totals where it can read them.
+ */
+public class MemoryReport {
+  // Object layout on ART: arrays have a 12-byte header padded to 16 with the length, references
+  // are 4 bytes, and everything is aligned to 8.
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int REFERENCE_BYTES = 4;
+
+  /** What one part of the pipeline holds, in bytes. */
+  public static class Component {
+    public final String name;
+    public final long heapBytes;
+    public final long directBytes;
+    public final long nativeBytes;
+    public final long mappedBytes;
+
+    public Component(
+        String inName,
+        long inHeapBytes,
+        long inDirectBytes,
+        long inNativeBytes,
+        long inMappedBytes) {
+      name = inName;
+      heapBytes = inHeapBytes;
+      directBytes = inDirectBytes;
+      nativeBytes = inNativeBytes;
+      mappedBytes = inMappedBytes;
+    }
+  }
+
+  private final List<Component> components = new ArrayList<>();
+  /** Java heap in use by the whole process. */
+  public long processHeapBytes;
+  /** The most the Java heap may grow to. */
+  public long processHeapLimitBytes;
+  /** Native heap in use by the whole process, interpreters included, if the caller set it. */
+  public long processNativeBytes;
+  /** Memory the system has available, and the level below which it starts killing processes. */
+  public long systemAvailableBytes;
+  public long systemThresholdBytes;
+  public boolean systemLowMemory;
+
+  /** Starts a report with the Java heap totals as they are now. */
+  public MemoryReport() {
+    Runtime runtime = Runtime.getRuntime();
+    processHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+    processHeapLimitBytes = runtime.maxMemory();
+  }
+
+  public void add(
+      String name, long heapBytes, long directBytes, long nativeBytes, long mappedBytes) {
+    components.add(new Component(name, heapBytes, directBytes, nativeBytes, mappedBytes));
+  }
+
+  /**
+   * Adds a classifier, along with the native memory measured for its interpreter and the model
+   * file it runs, if that's mapped.
+   */
+  public void add(String name, AudioClassifier classifier, long nativeBytes, long mappedBytes) {
+    add(name, classifier.getHeapBytes(), classifier.getDirectBytes(), nativeBytes, mappedBytes);
+  }
+
+  public List<Component> getComponents() {
+    return Collections.unmodifiableList(components);
+  }
+
+  /** Total held by the components, in bytes, not counting mapped files. */
+  public long getComponentBytes() {
+    long total = 0;
+    for (Component component : components) {
+      total += component.heapBytes + component.directBytes + component.nativeBytes;
+    }
+    return total;
+  }
+
+  /** Estimated heap size of a {@code float[rows][columns]} array. */
+  static long floatArrayBytes(int rows, int columns) {
+    return align(ARRAY_HEADER_BYTES + (long) rows * REFERENCE_BYTES)
+        + rows * align(ARRAY_HEADER_BYTES + 4L * columns);
+  }
+
+  /** Estimated heap size of a {@code float[length]} array. */
+  static long floatArrayBytes(int length) {
+    return align(ARRAY_HEADER_BYTES + 4L * length);
+  }
+
+  /** Estimated heap size of a {@code long[length]} array. */
+  static long longArrayBytes(int length) {
+    return align(ARRAY_HEADER_BYTES + 8L * length);
+  }
+
+  /** Estimated heap size of an array of {@code length} references, not counting what they hold. */
+  static long referenceArrayBytes(int length) {
+    return align(ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * length);
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            Locale.US,
+            "process: heap %d / %d KiB, native %d KiB; system: %d KiB available%s",
+            processHeapBytes / 1024,
+            processHeapLimitBytes / 1024,
+            processNativeBytes / 1024,
+            systemAvailableBytes / 1024,
+            systemLowMemory ? ", low" : ""));
+    for (Component component : components) {
+      report.append(
+          String.format(
+              Locale.US,
+              "%n  %s: heap %d KiB, direct %d KiB, native %d KiB, mapped %d KiB",
+              component.name,
+              component.heapBytes / 1024,
+              component.directBytes / 1024,
+              component.nativeBytes / 1024,
+              component.mappedBytes / 1024));
+    }
+    report.append(String.format(Locale.US, "%n  total: %d KiB", getComponentBytes() / 1024));
+    return report.toString();
+  }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Versioned models kept in app storage, so a new model can be rolled out without a new APK.
+ *
+ * <p>Each version lives in its own directory holding the model, its labels and a metadata file
+ * with the SHA-256 of both. A version is written into a staging directory first and renamed into
+ * place once everything is on disk, so it either exists whole or not at all. Which version is live
+ * is recorded in {@link #CURRENT_FILENAME}, which is replaced through a rename too. Checksums are
+ * checked when a version is installed, when it's promoted, and every time it's loaded, straight
+ * from the memory mapping the interpreter will use, so a file damaged on disk is never run.
+ *
+ * <p>{@link #promote} first has the {@link Validator} check the version fits the app, and only then
+ * makes it live and tells the {@link Listener}, which may switch the running pipeline over.
+ * Retired versions can be removed with {@link #prune}; deleting a file that's still mapped is safe,
+ * since the mapping keeps it alive until it's dropped.
+ *
+ * <p>New versions reach a device through {@link #importFrom}, which installs and promotes whatever
+ * has been copied into an import directory, such as with {@code adb push} or a device management
+ * tool.
+ */
+public class ModelRegistry {
+  private static final String LOG_TAG = ModelRegistry.class.getSimpleName();
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final String MODEL_FILENAME = "model.tflite";
+  static final String LABELS_FILENAME = "labels.txt";
+  static final String METADATA_FILENAME = "metadata.properties";
+  static final String CURRENT_FILENAME = "current";
+  private static final String STAGING_PREFIX = ".staging-";
+  private static final Pattern VERSION_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+  /** Metadata keys. Installers may add their own alongside these. */
+  public static final String KEY_MODEL_SHA256 = "model.sha256";
+  public static final String KEY_LABELS_SHA256 = "labels.sha256";
+  public static final String KEY_SAMPLE_RATE = "sample_rate";
+  public static final String KEY_WINDOW_LENGTH = "window_length";
+  public static final String KEY_INSTALLED_MS = "installed_ms";
+
+  /** Hears about promotions, on the thread that made them. */
+  public interface Listener {
+    void onPromoted(String version);
+  }
+
+  /** Checks a version can run in this app before it's promoted. */
+  public interface Validator {
+    /** @throws IOException saying why the version doesn't fit. */
+    void validate(Model model) throws IOException;
+  }
+
+  /** A loaded version, with its model mapped read-only and verified. */
+  public static class Model {
+    public final String version;
+    public final MappedByteBuffer buffer;
+    public final List<String> labels;
+    public final Properties metadata;
+
+    Model(
+        String inVersion, MappedByteBuffer inBuffer, List<String> inLabels, Properties inMetadata) {
+      version = inVersion;
+      buffer = inBuffer;
+      labels = inLabels;
+      metadata = inMetadata;
+    }
+
+    /** Returns an integer from the metadata, or the default if it isn't there. */
+    public int getInt(String key, int defaultValue) {
+      final String value = metadata.getProperty(key);
+      try {
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        return defaultValue;
+      }
+    }
+  }
+
+  private final File directory;
+  private volatile Listener listener;
+  private volatile Validator validator;
+
+  public ModelRegistry(File inDirectory) throws IOException {
+    directory = inDirectory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create model directory " + directory);
+    }
+    // Anything left in staging was interrupted part way through installing.
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(STAGING_PREFIX)) {
+          deleteRecursively(file);
+        }
+      }
+    }
+  }
+
+  public void setListener(Listener inListener) {
+    listener = inListener;
+  }
+
+  public void setValidator(Validator inValidator) {
+    validator = inValidator;
+  }
+
+  /**
+   * Copies a new version in from the given streams, which are read to the end but not closed.
+   *
+   * @param metadata anything to store alongside the model. If it holds {@link #KEY_MODEL_SHA256}
+   *     or {@link #KEY_LABELS_SHA256}, the copies must match them.
+   */
+  public synchronized void install(
+      String version, InputStream model, InputStream labels, Properties metadata)
+      throws IOException {
+    checkVersion(version);
+    final File target = new File(directory, version);
+    if (target.exists()) {
+      throw new IOException("Model version " + version + " is already installed");
+    }
+    final File staging = new File(directory, STAGING_PREFIX + version);
+    deleteRecursively(staging);
+    if (!staging.mkdirs()) {
+      throw new IOException("Can't create " + staging);
+    }
+    try {
+      final String modelHash = copy(model, new File(staging, MODEL_FILENAME));
+      final String labelsHash = copy(labels, new File(staging, LABELS_FILENAME));
+      checkHash(version, MODEL_FILENAME, metadata.getProperty(KEY_MODEL_SHA256), modelHash);
+      checkHash(version, LABELS_FILENAME, metadata.getProperty(KEY_LABELS_SHA256), labelsHash);
+      if (readLabels(new File(staging, LABELS_FILENAME)).isEmpty()) {
+        throw new IOException("Model version " + version + " has no labels");
+      }
+
+      Properties stored = new Properties();
+      stored.putAll(metadata);
+      stored.setProperty(KEY_MODEL_SHA256, modelHash);
+      stored.setProperty(KEY_LABELS_SHA256, labelsHash);
+      stored.setProperty(KEY_INSTALLED_MS, Long.toString(System.currentTimeMillis()));
+      try (FileOutputStream out = new FileOutputStream(new File(staging, METADATA_FILENAME))) {
+        stored.store(out, "Model version " + version);
+        out.getFD().sync();
+      }
+      if (!staging.renameTo(target)) {
+        throw new IOException("Can't move " + staging + " into place");
+      }
+    } catch (IOException e) {
+      deleteRecursively(staging);
+      throw e;
+    }
+    Log.i(LOG_TAG, "Installed model version " + version);
+  }
+
+  /** Returns the live version, or null if none has been promoted. */
+  public synchronized String getCurrentVersion() throws IOException {
+    final File current = new File(directory, CURRENT_FILENAME);
+    if (!current.exists()) {
+      return null;
+    }
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(current), UTF_8))) {
+      final String version = reader.readLine();
+      return version == null || version.trim().isEmpty() ? null : version.trim();
+    }
+  }
+
+  /**
+   * Returns every installed version, oldest install first. Installs are ordered by the time stored
+   * in their metadata, since a directory's modification time changes with what's done inside it.
+   */
+  public synchronized List<String> getVersions() {
+    List<String> versions = new ArrayList<>();
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return versions;
+    }
+    final List<File> versionDirs = new ArrayList<>();
+    final Map<File, Long> installedMs = new HashMap<>();
+    for (File file : files) {
+      if (file.isDirectory() && VERSION_PATTERN.matcher(file.getName()).matches()) {
+        versionDirs.add(file);
+        installedMs.put(file, getInstalledMs(file));
+      }
+    }
+    Collections.sort(
+        versionDirs,
+        new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            final int byTime = Long.compare(installedMs.get(a), installedMs.get(b));
+            return byTime != 0 ? byTime : a.getName().compareTo(b.getName());
+          }
+        });
+    for (File versionDir : versionDirs) {
+      versions.add(versionDir.getName());
+    }
+    return versions;
+  }
+
+  /**
+   * Returns when a version was installed, falling back to when its directory was last modified if
+   * the metadata can't be read.
+   */
+  private static long getInstalledMs(File versionDir) {
+    Properties metadata = new Properties();
+    try (FileInputStream in = new FileInputStream(new File(versionDir, METADATA_FILENAME))) {
+      metadata.load(in);
+      final String value = metadata.getProperty(KEY_INSTALLED_MS);
+      if (value != null) {
+        return Long.parseLong(value.trim());
+      }
+    } catch (IOException | NumberFormatException e) {
+      Log.w(LOG_TAG, "Can't read when " + versionDir.getName() + " was installed: " + e);
+    }
+    return versionDir.lastModified();
+  }
+
+  /** Maps a version's model and checks it and its labels against the stored checksums. */
+  public Model load(String version) throws IOException {
+    checkVersion(version);
+    final File versionDir = new File(directory, version);
+    Properties metadata = new Properties();
+    try (FileInputStream in = new FileInputStream(new File(versionDir, METADATA_FILENAME))) {
+      metadata.load(in);
+    }
+
+    final MappedByteBuffer buffer;
+    try (FileInputStream in = new FileInputStream(new File(versionDir, MODEL_FILENAME));
+        FileChannel channel = in.getChannel()) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    MessageDigest digest = newDigest();
+    digest.update(buffer.duplicate());
+    checkHash(version, MODEL_FILENAME, metadata.getProperty(KEY_MODEL_SHA256), hex(digest));
+
+    final File labelsFile = new File(versionDir, LABELS_FILENAME);
+    try (InputStream in = new FileInputStream(labelsFile)) {
+      checkHash(version, LABELS_FILENAME, metadata.getProperty(KEY_LABELS_SHA256), hash(in, null));
+    }
+    return new Model(version, buffer, readLabels(labelsFile), metadata);
+  }
+
+  /**
+   * Makes a version the live one, after checking it over and having the validator accept it, and
+   * tells the listener.
+   *
+   * @throws IOException if the version is missing, damaged or rejected, leaving the live one as it
+   *     was.
+   */
+  public void promote(String version) throws IOException {
+    synchronized (this) {
+      final Model model = load(version);
+      final Validator currentValidator = validator;
+      if (currentValidator != null) {
+        currentValidator.validate(model);
+      }
+      final File temp = new File(directory, CURRENT_FILENAME + ".tmp");
+      try (FileOutputStream out = new FileOutputStream(temp)) {
+        out.write((version + "\n").getBytes(UTF_8));
+        out.getFD().sync();
+      }
+      if (!temp.renameTo(new File(directory, CURRENT_FILENAME))) {
+        throw new IOException("Can't promote model version " + version);
+      }
+    }
+    Log.i(LOG_TAG, "Promoted model version " + version);
+    final Listener currentListener = listener;
+    if (currentListener != null) {
+      currentListener.onPromoted(version);
+    }
+  }
+
+  /**
+   * Installs every version waiting in an import directory, in order of name, and promotes the last
+   * one. Each version is a subdirectory named after it, holding {@link #MODEL_FILENAME}, {@link
+   * #LABELS_FILENAME} and optionally {@link #METADATA_FILENAME}, whose checksums the copies must
+   * match. Each subdirectory is deleted once it's been dealt with, even if it was turned away, so a
+   * bad one isn't tried again every time.
+   *
+   * @return the version promoted, or null if there was nothing to promote or it was turned away.
+   */
+  public String importFrom(File importDirectory) {
+    File[] files = importDirectory.listFiles();
+    if (files == null) {
+      return null;
+    }
+    Arrays.sort(files);
+    String imported = null;
+    for (File file : files) {
+      final String version = file.getName();
+      if (!file.isDirectory() || !VERSION_PATTERN.matcher(version).matches()) {
+        continue;
+      }
+      try {
+        if (new File(directory, version).exists()) {
+          Log.w(LOG_TAG, "Model version " + version + " is already installed, not importing it");
+        } else {
+          Properties metadata = new Properties();
+          final File metadataFile = new File(file, METADATA_FILENAME);
+          if (metadataFile.exists()) {
+            try (FileInputStream in = new FileInputStream(metadataFile)) {
+              metadata.load(in);
+            }
+          }
+          try (InputStream model = new FileInputStream(new File(file, MODEL_FILENAME));
+              InputStream labels = new FileInputStream(new File(file, LABELS_FILENAME))) {
+            install(version, model, labels, metadata);
+          }
+          imported = version;
+        }
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Can't import model version " + version, e);
+      }
+      deleteRecursively(file);
+    }
+    if (imported == null) {
+      return null;
+    }
+    try {
+      promote(imported);
+      return imported;
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Imported model version " + imported + " can't be promoted", e);
+      return null;
+    }
+  }
+
+  /** Deletes all but the live version and the given number of most recently installed others. */
+  public synchronized void prune(int keep) throws IOException {
+    final String current = getCurrentVersion();
+    List<String> versions = getVersions();
+    versions.remove(current);
+    Collections.reverse(versions);
+    for (int i = keep; i < versions.size(); ++i) {
+      deleteRecursively(new File(directory, versions.get(i)));
+      Log.i(LOG_TAG, "Removed model version " + versions.get(i));
+    }
+  }
+
+  private static void checkVersion(String version) {
+    if (version == null || !VERSION_PATTERN.matcher(version).matches()) {
+      throw new IllegalArgumentException("Invalid model version name: " + version);
+    }
+  }
+
+  private static void checkHash(String version, String filename, String expected, String actual)
+      throws IOException {
+    if (expected != null && !expected.equalsIgnoreCase(actual)) {
+      throw new IOException(
+          "Checksum mismatch for " + filename + " of model version " + version + ": expected "
+              + expected + ", got " + actual);
+    }
+  }
+
+  /** Copies a stream to a file, forcing it to disk, and returns its SHA-256. */
+  private static String copy(InputStream in, File file) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      final String hash = hash(in, out);
+      out.getFD().sync();
+      return hash;
+    }
+  }
+
+  /** Reads a stream to the end, copying it to the output if there is one, and returns its hash. */
+  private static String hash(InputStream in, OutputStream out) throws IOException {
+    MessageDigest digest = newDigest();
+    final byte[] buffer = new byte[64 * 1024];
+    int length;
+    while ((length = in.read(buffer)) >= 0) {
+      digest.update(buffer, 0, length);
+      if (out != null) {
+        out.write(buffer, 0, length);
+      }
+    }
+    return hex(digest);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java and Android runtime is required to provide SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(MessageDigest digest) {
+    StringBuilder hex = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private static List<String> readLabels(File file) throws IOException {
+    List<String> labels = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          labels.add(line);
+        }
+      }
+    }
+    return labels;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      Log.w(LOG_TAG, "Couldn't delete " + file);
+    }
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tunes the smoothing and voting settings by replaying recorded score traces through every
+ * combination in a grid, spread across a fork-join pool.
+ *
+ * <p>The model never runs here: the per-inference scores come from the traces {@link
+ * ScoreTraceWriter} records on the device, so each combination only costs a pass of {@link
+ * DetectionPipeline} over arrays in memory. The traces are decoded once into a {@link Trace} that
+ * every worker reads without copying, and workers share nothing else, so a week of traces swept
+ * through thousands of combinations takes minutes.
+ *
+ * <p>Detections are scored against hand-labeled washes, given as wall-clock intervals. The first
+ * wash detection inside an interval, or up to {@link #matchToleranceMs} after it, is a true
+ * positive and its delay from the start of the wash is the latency. Later detections of the same
+ * wash are ignored, detections outside every interval are false positives, and intervals that are
+ * never detected are misses.
+ */
+public class ParameterSweep {
+  private static final String LOG_TAG = ParameterSweep.class.getSimpleName();
+
+  /** Scores decoded from a directory of trace segments, held column by column. */
+  public static class Trace {
+    public final List<String> labels;
+    public final int sampleRate;
+    public final int recordCount;
+    private final long[] windowEnds;
+    private final long[] wallTimesMs;
+    private final float[][] scoreColumns;
+
+    private Trace(
+        List<String> inLabels,
+        int inSampleRate,
+        long[] inWindowEnds,
+        long[] inWallTimesMs,
+        float[][] inScoreColumns) {
+      labels = inLabels;
+      sampleRate = inSampleRate;
+      recordCount = inWindowEnds.length;
+      windowEnds = inWindowEnds;
+      wallTimesMs = inWallTimesMs;
+      scoreColumns = inScoreColumns;
+    }
+
+    /** Decodes every segment in the directory, oldest first. */
+    public static Trace load(File directory) throws IOException {
+      final List<File> segments = ScoreTraceReader.listSegments(directory);
+      if (segments.isEmpty()) {
+        throw new IOException("No score trace segments in " + directory);
+      }
+
+      List<String> labels = null;
+      int sampleRate = 0;
+      int total = 0;
+      for (File file : segments) {
+        try (ScoreTraceReader reader = new ScoreTraceReader(file)) {
+          if (labels == null) {
+            labels = reader.getLabels();
+            sampleRate = reader.getSampleRate();
+          } else if (!labels.equals(reader.getLabels()) || sampleRate != reader.getSampleRate()) {
+            throw new IOException(file + " was recorded with a different model or sample rate");
+          }
+          total += reader.getRecordCount();
+        }
+      }
+
+      final long[] windowEnds = new long[total];
+      final long[] wallTimesMs = new long[total];
+      final float[][] scoreColumns = new float[labels.size()][total];
+      int offset = 0;
+      for (File file : segments) {
+        try (ScoreTraceReader reader = new ScoreTraceReader(file)) {
+          final int count = reader.getRecordCount();
+          for (int i = 0; i < count; ++i) {
+            windowEnds[offset + i] = reader.getWindowEnd(i);
+            wallTimesMs[offset + i] = reader.getWallTimeMs(i);
+          }
+          for (int label = 0; label < labels.size(); ++label) {
+            reader.getScoreColumn(label, 0, scoreColumns[label], offset, count);
+          }
+          offset += count;
+        }
+      }
+      return new Trace(labels, sampleRate, windowEnds, wallTimesMs, scoreColumns);
+    }
+
+    /**
+     * Total wall-clock time covered, counting each recording session from its first record to its
+     * last.
+     */
+    public long getDurationMs() {
+      long duration = 0;
+      int sessionStart = 0;
+      for (int i = 1; i <= recordCount; ++i) {
+        if (i == recordCount || isSessionStart(i)) {
+          duration += wallTimesMs[i - 1] - wallTimesMs[sessionStart];
+          sessionStart = i;
+        }
+      }
+      return duration;
+    }
+
+    /** Returns whether the app restarted recording before this record, so its clock went back. */
+    boolean isSessionStart(int index) {
+      return index == 0 || windowEnds[index] <= windowEnds[index - 1];
+    }
+  }
+
+  /**
+   * The values to try for each setting. Every combination is run, so the sweep size is the product
+   * of the array lengths. Each starts out holding just the base setting.
+   */
+  public static class Grid {
+    public long[] averageWindowDurationsMs;
+    public float[] detectionThresholds;
+    public int[] suppressionsMs;
+    public int[] minimumCounts;
+    public long[] minimumTimesBetweenSamplesMs;
+    public int[] samplesRecorded;
+    public int[] positiveSamplesRequired;
+
+    public Grid(PipelineSettings base) {
+      averageWindowDurationsMs = new long[] {base.averageWindowDurationMs};
+      detectionThresholds = new float[] {base.detectionThreshold};
+      suppressionsMs = new int[] {base.suppressionMs};
+      minimumCounts = new int[] {base.minimumCount};
+      minimumTimesBetweenSamplesMs = new long[] {base.minimumTimeBetweenSamplesMs};
+      samplesRecorded = new int[] {base.samplesRecorded};
+      positiveSamplesRequired = new int[] {base.positiveSamplesRequired};
+    }
+
+    public int size() {
+      return averageWindowDurationsMs.length
+          * detectionThresholds.length
+          * suppressionsMs.length
+          * minimumCounts.length
+          * minimumTimesBetweenSamplesMs.length
+          * samplesRecorded.length
+          * positiveSamplesRequired.length;
+    }
+
+    /** Returns a copy of the base settings with the values of the given combination. */
+    PipelineSettings getSettings(int combination, PipelineSettings base) {
+      PipelineSettings settings = base.copy();
+      int rest = combination;
+      settings.averageWindowDurationMs =
+          averageWindowDurationsMs[rest % averageWindowDurationsMs.length];
+      rest /= averageWindowDurationsMs.length;
+      settings.detectionThreshold = detectionThresholds[rest % detectionThresholds.length];
+      rest /= detectionThresholds.length;
+      settings.suppressionMs = suppressionsMs[rest % suppressionsMs.length];
+      rest /= suppressionsMs.length;
+      settings.minimumCount = minimumCounts[rest % minimumCounts.length];
+      rest /= minimumCounts.length;
+      settings.minimumTimeBetweenSamplesMs =
+          minimumTimesBetweenSamplesMs[rest % minimumTimesBetweenSamplesMs.length];
+      rest /= minimumTimesBetweenSamplesMs.length;
+      settings.samplesRecorded = samplesRecorded[rest % samplesRecorded.length];
+      rest /= samplesRecorded.length;
+      settings.positiveSamplesRequired =
+          positiveSamplesRequired[rest % positiveSamplesRequired.length];
+      return settings;
+    }
+  }
+
+  /** How one combination of settings did against the labeled washes. */
+  public static class Result {
+    public final PipelineSettings settings;
+    public int truePositives;
+    public int falsePositives;
+    public int falseNegatives;
+    /** Median delay from the start of a wash to its detection, or -1 if none were detected. */
+    public long medianLatencyMs = -1;
+    public long maxLatencyMs = -1;
+
+    Result(PipelineSettings inSettings) {
+      settings = inSettings;
+    }
+
+    public float getPrecision() {
+      final int detections = truePositives + falsePositives;
+      return detections == 0 ? 0.0f : (float) truePositives / detections;
+    }
+
+    public float getRecall() {
+      final int washes = truePositives + falseNegatives;
+      return washes == 0 ? 0.0f : (float) truePositives / washes;
+    }
+
+    public float getF1() {
+      final float precision = getPrecision();
+      final float recall = getRecall();
+      return precision + recall == 0.0f ? 0.0f : 2 * precision * recall / (precision + recall);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "window %d ms, threshold %.2f, suppression %d ms, min count %d, min gap %d ms,"
+              + " vote %d of %d: F1 %.3f (P %.3f, R %.3f, %d FP), latency median %d ms, max %d ms",
+          settings.averageWindowDurationMs,
+          settings.detectionThreshold,
+          settings.suppressionMs,
+          settings.minimumCount,
+          settings.minimumTimeBetweenSamplesMs,
+          settings.positiveSamplesRequired,
+          settings.samplesRecorded,
+          getF1(),
+          getPrecision(),
+          getRecall(),
+          falsePositives,
+          medianLatencyMs,
+          maxLatencyMs);
+    }
+  }
+
+  private final Trace trace;
+  private final long[][] washIntervals;
+  private final PipelineSettings baseSettings;
+
+  /** How long after the end of a wash a detection still counts as detecting it. */
+  public long matchToleranceMs = 2000;
+
+  /**
+   * @param inWashIntervals start and end wall-clock times of the labeled washes, in milliseconds.
+   * @param inBaseSettings the settings the grid doesn't vary, including the parallelism.
+   */
+  public ParameterSweep(
+      Trace inTrace, List<long[]> inWashIntervals, PipelineSettings inBaseSettings) {
+    trace = inTrace;
+    washIntervals = inWashIntervals.toArray(new long[inWashIntervals.size()][]);
+    Arrays.sort(
+        washIntervals,
+        new Comparator<long[]>() {
+          @Override
+          public int compare(long[] a, long[] b) {
+            return Long.compare(a[0], b[0]);
+          }
+        });
+    baseSettings = inBaseSettings.copy();
+    baseSettings.sampleRate = inTrace.sampleRate;
+  }
+
+  /**
+   * Reads labeled washes from a CSV file of {@code startMs,endMs} lines. Blank lines and lines
+   * starting with {@code #} are skipped.
+   */
+  public static List<long[]> readWashIntervals(File file) throws IOException {
+    List<long[]> intervals = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        ++lineNumber;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final String[] fields = line.split(",");
+        try {
+          final long start = Long.parseLong(fields[0].trim());
+          final long end = Long.parseLong(fields[1].trim());
+          if (end < start) {
+            throw new IOException(file + ":" + lineNumber + ": wash ends before it starts");
+          }
+          intervals.add(new long[] {start, end});
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+          throw new IOException(file + ":" + lineNumber + ": expected startMs,endMs", e);
+        }
+      }
+    }
+    return intervals;
+  }
+
+  /** Runs every combination in the grid and returns the results in grid order. */
+  public List<Result> run(Grid grid) {
+    final Result[] results = new Result[grid.size()];
+    final long startTime = System.nanoTime();
+    Log.i(
+        LOG_TAG,
+        "Sweeping " + results.length + " combinations over " + trace.recordCount + " records");
+    ForkJoinPool pool = new ForkJoinPool(baseSettings.parallelism);
+    try {
+      pool.invoke(new SweepTask(grid, results, 0, results.length));
+    } finally {
+      pool.shutdown();
+    }
+    Log.i(LOG_TAG, "Sweep took " + (System.nanoTime() - startTime) / 1000000 + " ms");
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Returns the results no other result beats on both F1 and median latency, from fastest to most
+   * accurate. Results that detected nothing are left out.
+   */
+  public static List<Result> getParetoFront(List<Result> results) {
+    List<Result> candidates = new ArrayList<>();
+    for (Result result : results) {
+      if (result.truePositives > 0) {
+        candidates.add(result);
+      }
+    }
+    Collections.sort(
+        candidates,
+        new Comparator<Result>() {
+          @Override
+          public int compare(Result a, Result b) {
+            if (a.medianLatencyMs != b.medianLatencyMs) {
+              return Long.compare(a.medianLatencyMs, b.medianLatencyMs);
+            }
+            return Float.compare(b.getF1(), a.getF1());
+          }
+        });
+    List<Result> front = new ArrayList<>();
+    float bestF1 = -1.0f;
+    for (Result result : candidates) {
+      if (result.getF1() > bestF1) {
+        front.add(result);
+        bestF1 = result.getF1();
+      }
+    }
+    return front;
+  }
+
+  /** Replays the whole trace through one combination of settings. */
+  private Result evaluate(PipelineSettings settings) {
+    final DetectionPipeline pipeline = new DetectionPipeline(trace.labels, settings);
+    final float[] scores = new float[trace.labels.size()];
+    final long[] latencies = new long[washIntervals.length];
+    final Result result = new Result(settings);
+    // The wash that detections are currently being matched against, and whether it already was.
+    int wash = 0;
+    boolean washMatched = false;
+
+    for (int i = 0; i < trace.recordCount; ++i) {
+      if (i > 0 && trace.isSessionStart(i)) {
+        pipeline.reset();
+      }
+      for (int label = 0; label < scores.length; ++label) {
+        scores[label] = trace.scoreColumns[label][i];
+      }
+      pipeline.process(scores, trace.windowEnds[i]);
+      if (!pipeline.isWashDetected()) {
+        continue;
+      }
+
+      final long timeMs = trace.wallTimesMs[i];
+      while (wash < washIntervals.length && washIntervals[wash][1] + matchToleranceMs < timeMs) {
+        if (!washMatched) {
+          ++result.falseNegatives;
+        }
+        ++wash;
+        washMatched = false;
+      }
+      if (wash < washIntervals.length && washIntervals[wash][0] <= timeMs) {
+        if (!washMatched) {
+          latencies[result.truePositives++] = timeMs - washIntervals[wash][0];
+          washMatched = true;
+        }
+      } else {
+        ++result.falsePositives;
+      }
+    }
+    result.falseNegatives += washIntervals.length - wash - (washMatched ? 1 : 0);
+
+    if (result.truePositives > 0) {
+      Arrays.sort(latencies, 0, result.truePositives);
+      result.medianLatencyMs = latencies[(result.truePositives - 1) / 2];
+      result.maxLatencyMs = latencies[result.truePositives - 1];
+    }
+    return result;
+  }
+
+  /** Recursively halves a range of combinations until each task holds a single one. */
+  private class SweepTask extends RecursiveAction {
+    private final Grid grid;
+    private final Result[] results;
+    private final int start;
+    private final int end;
+
+    SweepTask(Grid inGrid, Result[] inResults, int inStart, int inEnd) {
+      grid = inGrid;
+      results = inResults;
+      start = inStart;
+      end = inEnd;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= 1) {
+        if (start < end) {
+          results[start] = evaluate(grid.getSettings(start, baseSettings));
+        }
+        return;
+      }
+      final int middle = (start + end) >>> 1;
+      invokeAll(
+          new SweepTask(grid, results, start, middle), new SweepTask(grid, results, middle, end));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the audio pipeline as a set of named {@link PipelineStage} threads connected by {@link
+ * BoundedQueue}s, and starts and stops them as a unit.
+ *
+ * <p>A runtime is used once: build it, {@link #start} it, then {@link #stop} it and build a new one
+ * to restart. Stopping asks every stage to stop, in the order they were added, so producers should
+ * be added before their consumers. The queues are then closed, so consumers can drain what is left
+ * and finish, and every thread is joined within a shared deadline.
+ */
+public class PipelineRuntime {
+  private static final String LOG_TAG = PipelineRuntime.class.getSimpleName();
+
+  private final List<PipelineStage> stages = new ArrayList<>();
+  private final List<BoundedQueue<?>> queues = new ArrayList<>();
+  private boolean started;
+
+  public PipelineStage addStage(String name, PipelineStage.Body body) {
+    if (started) {
+      throw new IllegalStateException("Can't add stage " + name + " to a started pipeline");
+    }
+    PipelineStage stage = new PipelineStage(name, body);
+    stages.add(stage);
+    return stage;
+  }
+
+  public <T> BoundedQueue<T> addQueue(String name, int capacity, BoundedQueue.Policy policy) {
+    BoundedQueue<T> queue = new BoundedQueue<>(name, capacity, policy);
+    queues.add(queue);
+    return queue;
+  }
+
+  public void start() {
+    if (started) {
+      throw new IllegalStateException("A pipeline can only be started once");
+    }
+    started = true;
+    for (PipelineStage stage : stages) {
+      stage.start();
+    }
+  }
+
+  /** Returns whether every stage is still running, which is false once any has given up. */
+  public boolean isHealthy() {
+    for (PipelineStage stage : stages) {
+      if (!stage.isRunning()) {
+        return false;
+      }
+    }
+    return started;
+  }
+
+  /**
+   * Stops every stage and waits up to the given time in total for their threads to finish.
+   *
+   * @return whether they all finished in time. Any that didn't are logged.
+   */
+  public boolean stop(long timeoutMs) {
+    for (PipelineStage stage : stages) {
+      stage.requestStop();
+    }
+    for (BoundedQueue<?> queue : queues) {
+      queue.close();
+      if (queue.getDroppedCount() > 0) {
+        Log.i(LOG_TAG, "Queue " + queue.getName() + " dropped " + queue.getDroppedCount());
+      }
+    }
+
+    final long deadline = System.currentTimeMillis() + timeoutMs;
+    boolean stopped = true;
+    for (PipelineStage stage : stages) {
+      try {
+        if (!stage.join(deadline - System.currentTimeMillis())) {
+          Log.w(LOG_TAG, "Stage " + stage.getName() + " didn't stop within " + timeoutMs + " ms");
+          stopped = false;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return stopped;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Settings for running the detection pipeline away from the app, defaulting to the ones the app
+ * runs with.
+ */
+public class PipelineSettings {
+  public int sampleRate = SpeechActivity.SAMPLE_RATE;
+  public int windowLength = SpeechActivity.RECORDING_LENGTH;
+  /** How far the window advances between inferences. */
+  public int windowStrideSamples = SpeechActivity.RECOGNITION_HOP_SAMPLES;
+
+  public long averageWindowDurationMs = SpeechActivity.AVERAGE_WINDOW_DURATION_MS;
+  public float detectionThreshold = SpeechActivity.DETECTION_THRESHOLD;
+  public int suppressionMs = SpeechActivity.SUPPRESSION_MS;
+  public int minimumCount = SpeechActivity.MINIMUM_COUNT;
+  public long minimumTimeBetweenSamplesMs = SpeechActivity.MINIMUM_TIME_BETWEEN_SAMPLES_MS;
+  public int samplesRecorded = SpeechActivity.SAMPLES_RECORDED;
+  public int positiveSamplesRequired = SpeechActivity.POSITIVE_SAMPLES_REQUIRED;
+
+  public int parallelism = Runtime.getRuntime().availableProcessors();
+  /** Number of threads each interpreter may use. One is best when every core has a worker. */
+  public int interpreterThreads = 1;
+
+  public PipelineSettings copy() {
+    PipelineSettings copy = new PipelineSettings();
+    copy.sampleRate = sampleRate;
+    copy.windowLength = windowLength;
+    copy.windowStrideSamples = windowStrideSamples;
+    copy.averageWindowDurationMs = averageWindowDurationMs;
+    copy.detectionThreshold = detectionThreshold;
+    copy.suppressionMs = suppressionMs;
+    copy.minimumCount = minimumCount;
+    copy.minimumTimeBetweenSamplesMs = minimumTimeBetweenSamplesMs;
+    copy.samplesRecorded = samplesRecorded;
+    copy.positiveSamplesRequired = positiveSamplesRequired;
+    copy.parallelism = parallelism;
+    copy.interpreterThreads = interpreterThreads;
+    return copy;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+
+/**
+ * One named thread of the audio pipeline, such as recording or recognition, owned by a {@link
+ * PipelineRuntime}.
+ *
+ * <p>The stage's body runs once on its own thread and should loop while {@link #isRunning}, which
+ * turns false as soon as the runtime asks the stage to stop. Anything the body acquires, such as an
+ * AudioRecord, should be released in a finally block so it is freed however the body ends.
+ */
+public class PipelineStage {
+  private static final String LOG_TAG = PipelineStage.class.getSimpleName();
+
+  /** The work a stage does. */
+  public interface Body {
+    void run(PipelineStage stage) throws Exception;
+  }
+
+  private final String name;
+  private final Thread thread;
+  private volatile boolean running;
+
+  PipelineStage(String inName, final Body inBody) {
+    name = inName;
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  inBody.run(PipelineStage.this);
+                } catch (Exception e) {
+                  Log.e(LOG_TAG, "Stage " + name + " failed", e);
+                } finally {
+                  running = false;
+                }
+              }
+            },
+            inName);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Whether the body should keep going. */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /** Whether the stage's thread is still alive, which it may be for a while after a stop. */
+  public boolean isAlive() {
+    return thread.isAlive();
+  }
+
+  void start() {
+    running = true;
+    thread.start();
+  }
+
+  void requestStop() {
+    running = false;
+  }
+
+  /** Waits up to the given time for the thread to finish, and returns whether it did. */
+  boolean join(long timeoutMs) throws InterruptedException {
+    thread.join(Math.max(1, timeoutMs));
+    return !thread.isAlive();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.Arrays;
+
+/**
+ * Streaming rational resampler, for capturing at the device's native rate (usually 48 kHz) and
+ * feeding the model at its own.
+ *
+ * <p>Resampling by L/M conceptually inserts L - 1 zeros between input samples, low-pass filters the
+ * result and keeps every Mth sample. The polyphase form skips all the work on the zeros and on the
+ * samples that would be dropped: each output is a dot product of recent input with one of L phases
+ * of the filter, all of which are worked out up front. For 48 kHz to 16 kHz that's a single phase
+ * of 193 taps per output.
+ *
+ * <p>The filter is a Kaiser-windowed sinc cutting off just below the lower of the two Nyquist
+ * rates. Its group delay, {@link #getDelayMs}, is the latency it adds. {@link #process} keeps the
+ * tail of each block as history for the next, and never allocates.
+ */
+public class PolyphaseResampler {
+  // Filter half-length, in zero crossings of the sinc at the lower of the two rates.
+  private static final int ZERO_CROSSINGS = 32;
+  // Where the pass band ends, as a fraction of the lower Nyquist rate.
+  private static final double ROLLOFF = 0.9;
+  // Kaiser window shape, trading transition width for about 80 dB of stop band attenuation.
+  private static final double KAISER_BETA = 8.0;
+
+  private final int inputRate;
+  private final int outputRate;
+  private final int upFactor;
+  private final int downFactor;
+  private final int tapsPerPhase;
+  // Each phase's taps in reverse, so they line up with the input oldest first.
+  private final float[][] phases;
+  private final int filterLength;
+  // Input history, the last tapsPerPhase - 1 samples of the previous block, then the new block.
+  private final float[] buffer;
+  private final int maxBlockLength;
+  // Position of the next output on the upsampled time line, counting from the start of buffer.
+  private long position;
+
+  /**
+   * @param inMaxBlockLength the largest number of input samples buffered at once. Longer input is
+   *     processed in several passes.
+   */
+  public PolyphaseResampler(int inInputRate, int inOutputRate, int inMaxBlockLength) {
+    if (inInputRate <= 0 || inOutputRate <= 0) {
+      throw new IllegalArgumentException(
+          "Can't resample from " + inInputRate + " Hz to " + inOutputRate + " Hz");
+    }
+    inputRate = inInputRate;
+    outputRate = inOutputRate;
+    final int divisor = gcd(inInputRate, inOutputRate);
+    upFactor = inOutputRate / divisor;
+    downFactor = inInputRate / divisor;
+
+    final int maxFactor = Math.max(upFactor, downFactor);
+    filterLength = 2 * ZERO_CROSSINGS * maxFactor + 1;
+    tapsPerPhase = (filterLength + upFactor - 1) / upFactor;
+    phases = new float[upFactor][tapsPerPhase];
+    // Cut off relative to the upsampled rate, and scale up by L to make up for the inserted zeros.
+    final double cutoff = ROLLOFF * 0.5 / maxFactor;
+    final double middle = (filterLength - 1) / 2.0;
+    final double windowScale = 1.0 / besselI0(KAISER_BETA);
+    for (int i = 0; i < filterLength; ++i) {
+      final double t = i - middle;
+      final double sinc =
+          t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+      final double ratio = t / middle;
+      final double window = besselI0(KAISER_BETA * Math.sqrt(1 - ratio * ratio)) * windowScale;
+      phases[i % upFactor][tapsPerPhase - 1 - i / upFactor] = (float) (upFactor * sinc * window);
+    }
+
+    maxBlockLength = inMaxBlockLength;
+    buffer = new float[tapsPerPhase - 1 + inMaxBlockLength];
+    reset();
+  }
+
+  public int getInputRate() {
+    return inputRate;
+  }
+
+  public int getOutputRate() {
+    return outputRate;
+  }
+
+  /** The largest number of samples {@link #process} can produce from the given input length. */
+  public int getMaxOutputLength(int inputLength) {
+    return (int) (((long) inputLength * upFactor + downFactor - 1) / downFactor) + 1;
+  }
+
+  /** How far the output lags the input, in milliseconds. */
+  public float getDelayMs() {
+    return (filterLength - 1) / 2.0f / upFactor * 1000.0f / inputRate;
+  }
+
+  /** Forgets the history, as if the stream were starting again from silence. */
+  public void reset() {
+    Arrays.fill(buffer, 0.0f);
+    position = (long) (tapsPerPhase - 1) * upFactor;
+  }
+
+  /**
+   * Resamples the next block of the stream.
+   *
+   * @param output must have room for {@link #getMaxOutputLength} of the input length.
+   * @return the number of samples written to the output.
+   */
+  public int process(
+      float[] input, int inputOffset, int inputLength, float[] output, int outputOffset) {
+    final int history = tapsPerPhase - 1;
+    int outputCount = 0;
+    int consumed = 0;
+    while (consumed < inputLength) {
+      final int length = Math.min(maxBlockLength, inputLength - consumed);
+      System.arraycopy(input, inputOffset + consumed, buffer, history, length);
+      consumed += length;
+      final int available = history + length;
+
+      // Each output needs the input up to and including its own position.
+      long base = position / upFactor;
+      while (base < available) {
+        final float[] taps = phases[(int) (position % upFactor)];
+        final int start = (int) base - history;
+        float sum = 0.0f;
+        for (int k = 0; k < tapsPerPhase; ++k) {
+          sum += taps[k] * buffer[start + k];
+        }
+        output[outputOffset + outputCount++] = sum;
+        position += downFactor;
+        base = position / upFactor;
+      }
+
+      // Keep the newest samples as history for the next block.
+      System.arraycopy(buffer, length, buffer, 0, history);
+      position -= (long) length * upFactor;
+    }
+    return outputCount;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      final int rest = a % b;
+      a = b;
+      b = rest;
+    }
+    return a;
+  }
+
+  /** Zeroth-order modified Bessel function of the first kind, from its power series. */
+  private static double besselI0(double x) {
+    double sum = 1.0;
+    double term = 1.0;
+    final double quarterSquare = x * x / 4;
+    for (int k = 1; term > 1e-12 * sum; ++k) {
+      term *= quarterSquare / ((double) k * k);
+      sum += term;
+    }
+    return sum;
+  }
+}
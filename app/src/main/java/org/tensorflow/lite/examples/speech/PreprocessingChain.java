@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Runs a series of {@link AudioProcessor} stages over each block in turn, for example DC removal,
+ * then noise suppression, then gain control.
+ */
+public class PreprocessingChain implements AudioProcessor {
+  private final AudioProcessor[] stages;
+
+  public PreprocessingChain(AudioProcessor... inStages) {
+    stages = inStages.clone();
+  }
+
+  /** The standard chain: DC removal, noise suppression and then gain control. */
+  public static PreprocessingChain createDefault(int sampleRate) {
+    return new PreprocessingChain(
+        new DcBlocker(sampleRate),
+        new SpectralNoiseSuppressor(sampleRate),
+        new AutomaticGainControl(sampleRate));
+  }
+
+  @Override
+  public void process(float[] samples, int offset, int length) {
+    for (AudioProcessor stage : stages) {
+      stage.process(samples, offset, length);
+    }
+  }
+
+  @Override
+  public int getDelaySamples() {
+    int delay = 0;
+    for (AudioProcessor stage : stages) {
+      delay += stage.getDelaySamples();
+    }
+    return delay;
+  }
+
+  @Override
+  public void reset() {
+    for (AudioProcessor stage : stages) {
+      stage.reset();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+
+/**
+ * Picks the windows to score out of the recording buffer, one hop at a time, and hands on the
+ * scores of those that made it through. {@code SpeechActivity} runs it on its recognition thread
+ * and {@link LatencyHarness} on a simulated clock, so they share all of what happens between the
+ * recorder and the smoother.
+ *
+ * <p>Windows end on a grid of hops from the start of the recording, which is coarser while {@link
+ * #monitoring}. After a stall, the windows missed since the last step are offered to the scorer
+ * together, as many as are still safely in the buffer, and it scores as many of the newest of them
+ * as it can in one go. Scores for windows that recording lapped while they were being read are
+ * thrown away, and windows that span audio the recorder dropped are skipped. Each of these is
+ * counted in the {@link CaptureMetrics}.
+ */
+public class RecognitionLoop {
+  private static final String LOG_TAG = RecognitionLoop.class.getSimpleName();
+
+  /** Scores windows straight out of the recording buffer. */
+  public interface Scorer {
+    /**
+     * Scores the newest of the pending windows, which end a hop apart with the last of them at
+     * {@code windowEnd}.
+     *
+     * @param pendingWindows how many windows are due, at most {@link
+     *     AudioClassifier#MAX_BATCH_SIZE}.
+     * @return a row of scores for each window scored, oldest first, which may be for the newest
+     *     window alone.
+     */
+    float[][] score(AudioRingBuffer buffer, long windowEnd, int hop, int pendingWindows);
+  }
+
+  /** Takes the scores of each window that made it through, in the order they were recorded. */
+  public interface Listener {
+    void onScores(long windowEnd, float[] scores);
+  }
+
+  /** Samples between the ends of windows. */
+  public int hopSamples = SpeechActivity.RECOGNITION_HOP_SAMPLES;
+  /** How many times further apart windows are while monitoring. */
+  public int monitoringHopMultiplier = SpeechActivity.MONITORING_HOP_MULTIPLIER;
+  /** Whether the app is listening in the background, at the reduced rate. */
+  public boolean monitoring;
+  /** How often to log the capture metrics, in milliseconds of audio, or 0 for never. */
+  public long metricsLogIntervalMs;
+
+  private final AudioRingBuffer buffer;
+  private final AudioClock clock;
+  private final CaptureMetrics metrics;
+  private final Scorer scorer;
+  private final Listener listener;
+  private long lastWindowEnd;
+  private long firstWindowEnd;
+  private long lastMetricsLogMs;
+
+  public RecognitionLoop(
+      AudioRingBuffer inBuffer,
+      AudioClock inClock,
+      CaptureMetrics inMetrics,
+      Scorer inScorer,
+      Listener inListener) {
+    buffer = inBuffer;
+    clock = inClock;
+    metrics = inMetrics;
+    scorer = inScorer;
+    listener = inListener;
+  }
+
+  /** Returns the samples between the ends of windows in the current mode. */
+  public int getHop() {
+    return monitoring ? hopSamples * monitoringHopMultiplier : hopSamples;
+  }
+
+  /**
+   * Starts from whatever has been recorded so far. When resuming, the buffer still holds audio
+   * from before the suspension, so the first window scored is one that's all new audio, rather
+   * than a mix of the two.
+   */
+  public void start() {
+    final long resumedAt = buffer.getSamplesWritten();
+    lastWindowEnd = 0;
+    firstWindowEnd = resumedAt == 0 ? 0 : resumedAt + buffer.getWindowLength();
+    lastMetricsLogMs = clock.toMs(resumedAt);
+  }
+
+  /**
+   * Scores the windows that have come due since the last step and hands on their scores.
+   *
+   * @return false if no window was due yet, and the caller should wait for more audio.
+   */
+  public boolean step() {
+    final int hop = getHop();
+    final long samplesWritten = buffer.getSamplesWritten();
+    final long windowEnd = AudioClock.alignToHop(samplesWritten, hop);
+    if (windowEnd == lastWindowEnd || windowEnd < firstWindowEnd) {
+      return false;
+    }
+
+    // Catch up on the windows missed since the last step that are still safely in the buffer.
+    int pendingWindows = 1;
+    if (lastWindowEnd != 0) {
+      final long oldestReadable = samplesWritten - buffer.getMaxWriteLength() / 2;
+      final long firstPending = Math.max(Math.max(lastWindowEnd + hop, firstWindowEnd), hop);
+      final long oldestEnd =
+          Math.max(firstPending, AudioClock.alignToHop(oldestReadable + hop - 1, hop));
+      // The grid may have just changed with the mode, leaving nothing pending on the new one.
+      pendingWindows =
+          (int)
+              Math.max(
+                  1, Math.min(AudioClassifier.MAX_BATCH_SIZE, (windowEnd - oldestEnd) / hop + 1));
+    }
+    final long previousWindowEnd = lastWindowEnd;
+    lastWindowEnd = windowEnd;
+
+    final float[][] scores = scorer.score(buffer, windowEnd, hop, pendingWindows);
+    final int windowCount = scores.length;
+    final long firstEnd = windowEnd - (long) (windowCount - 1) * hop;
+    metrics.recordWindows(
+        windowCount,
+        previousWindowEnd == 0 ? 0 : Math.max(0, (firstEnd - previousWindowEnd) / hop - 1),
+        samplesWritten - windowEnd);
+
+    // If recording lapped us while the model was reading the windows, the scores are for a mix
+    // of old and new audio, so throw them away.
+    if (!buffer.isIntact(firstEnd)) {
+      Log.w(LOG_TAG, "Recognition fell behind recording, skipping a torn window");
+      metrics.recordTornWindows(windowCount);
+      return true;
+    }
+    if (metricsLogIntervalMs > 0
+        && clock.toMs(windowEnd) - lastMetricsLogMs >= metricsLogIntervalMs) {
+      lastMetricsLogMs = clock.toMs(windowEnd);
+      Log.i(LOG_TAG, metrics.toString());
+    }
+
+    // A batch is handed on oldest first, as if each window had been scored on time.
+    for (int i = 0; i < windowCount; ++i) {
+      final long end = firstEnd + (long) i * hop;
+      // Audio the recorder dropped splices two moments together, and the smoother is better off
+      // not hearing about a window like that at all.
+      if (buffer.hasGap(end)) {
+        metrics.recordGappedWindow();
+        continue;
+      }
+      listener.onScores(end, scores[i]);
+    }
+    return true;
+  }
+}
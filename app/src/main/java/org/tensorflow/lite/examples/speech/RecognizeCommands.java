@@ -17,15 +17,20 @@
 package org.tensorflow.lite.examples.speech;
 
 import android.util.Log;
-import android.util.Pair;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
 
-/** Reads in results from an instantaneous audio recognition model and smoothes them over time. */
+/**
+ * Reads in results from an instantaneous audio recognition model and smoothes them over time.
+ *
+ * <p>Previous results are kept in a round-robin buffer that only grows when the averaging window
+ * holds more results than ever before, so once warmed up this runs without allocating beyond the
+ * returned result. That matters when replaying recorded scores through many settings at once.
+ */
 public class RecognizeCommands {
+  private static final String LOG_TAG = RecognizeCommands.class.getSimpleName();
+
   // Configuration settings.
   private List<String> labels = new ArrayList<String>();
   private long averageWindowDurationMs;
@@ -35,13 +40,19 @@ public class RecognizeCommands {
   private long minimumTimeBetweenSamplesMs;
 
   // Working variables.
-  private Deque<Pair<Long, float[]>> previousResults = new ArrayDeque<Pair<Long, float[]>>();
+  // previousResults holds previousResultsCount entries, oldest first, starting at
+  // previousResultsHead and wrapping around the end of the arrays.
+  private long[] previousResultTimes = new long[16];
+  private float[][] previousResults = new float[16][];
+  private int previousResultsHead;
+  private int previousResultsCount;
+  private float[] averageScores;
   private String previousTopLabel;
   private int labelsCount;
   private long previousTopLabelTime;
   private float previousTopLabelScore;
 
-  private static final String SILENCE_LABEL = "_silence_";
+  static final String SILENCE_LABEL = "_silence_";
   private static final long MINIMUM_TIME_FRACTION = 4;
 
   public RecognizeCommands(
@@ -57,6 +68,7 @@ public class RecognizeCommands {
     suppressionMs = inSuppressionMS;
     minimumCount = inMinimumCount;
     labelsCount = inLabels.size();
+    averageScores = new float[labelsCount];
     previousTopLabel = SILENCE_LABEL;
     previousTopLabelTime = Long.MIN_VALUE;
     previousTopLabelScore = 0.0f;
@@ -76,27 +88,6 @@ public class RecognizeCommands {
     }
   }
 
-  private static class ScoreForSorting implements Comparable<ScoreForSorting> {
-    public final float score;
-    public final int index;
-
-    public ScoreForSorting(float inScore, int inIndex) {
-      score = inScore;
-      index = inIndex;
-    }
-
-    @Override
-    public int compareTo(ScoreForSorting other) {
-      if (this.score > other.score) {
-        return -1;
-      } else if (this.score < other.score) {
-        return 1;
-      } else {
-        return 0;
-      }
-    }
-  }
-
   public RecognitionResult processLatestResults(float[] currentResults, long currentTimeMS) {
     if (currentResults.length != labelsCount) {
       throw new RuntimeException(
@@ -106,56 +97,62 @@ public class RecognizeCommands {
               + currentResults.length);
     }
 
-    if ((!previousResults.isEmpty()) && (currentTimeMS < previousResults.getFirst().first)) {
+    if ((previousResultsCount > 0) && (currentTimeMS < previousResultTimes[previousResultsHead])) {
       throw new RuntimeException(
           "You must feed results in increasing time order, but received a timestamp of "
               + currentTimeMS
               + " that was earlier than the previous one of "
-              + previousResults.getFirst().first);
+              + previousResultTimes[previousResultsHead]);
     }
 
-    int howManyResults = previousResults.size();
+    int howManyResults = previousResultsCount;
     // Ignore any results that are coming in too frequently.
     if (howManyResults > 1) {
-      final long timeSinceMostRecent = currentTimeMS - previousResults.getLast().first;
+      final long timeSinceMostRecent =
+          currentTimeMS - previousResultTimes[index(howManyResults - 1)];
       if (timeSinceMostRecent < minimumTimeBetweenSamplesMs) {
         return new RecognitionResult(previousTopLabel, previousTopLabelScore, false);
       }
     }
 
     // Add the latest results to the head of the queue.
-    previousResults.addLast(new Pair<Long, float[]>(currentTimeMS, currentResults.clone()));
+    addResult(currentResults, currentTimeMS);
 
     // Prune any earlier results that are too old for the averaging window.
     final long timeLimit = currentTimeMS - averageWindowDurationMs;
-    while (previousResults.getFirst().first < timeLimit) {
-      previousResults.removeFirst();
+    while (previousResultTimes[previousResultsHead] < timeLimit) {
+      previousResultsHead = index(1);
+      --previousResultsCount;
     }
 
-    howManyResults = previousResults.size();
+    howManyResults = previousResultsCount;
 
     // If there are too few results, assume the result will be unreliable and
     // bail.
-    final long earliestTime = previousResults.getFirst().first;
+    final long earliestTime = previousResultTimes[previousResultsHead];
     final long samplesDuration = currentTimeMS - earliestTime;
 
-    Log.v("Number of Results: ", String.valueOf(howManyResults));
-
-    Log.v(
-        "Duration < WD/FRAC?",
-        String.valueOf((samplesDuration < (averageWindowDurationMs / MINIMUM_TIME_FRACTION))));
+    if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+      Log.v(LOG_TAG, "Number of Results: " + howManyResults);
+      Log.v(
+          LOG_TAG,
+          "Duration < WD/FRAC? "
+              + (samplesDuration < (averageWindowDurationMs / MINIMUM_TIME_FRACTION)));
+    }
 
     if ((howManyResults < minimumCount)
     //        || (samplesDuration < (averageWindowDurationMs / MINIMUM_TIME_FRACTION))
     ) {
-      Log.v("RecognizeResult", "Too few results");
+      if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+        Log.v(LOG_TAG, "Too few results");
+      }
       return new RecognitionResult(previousTopLabel, 0.0f, false);
     }
 
     // Calculate the average score across all the results in the window.
-    float[] averageScores = new float[labelsCount];
-    for (Pair<Long, float[]> previousResult : previousResults) {
-      final float[] scoresTensor = previousResult.second;
+    Arrays.fill(averageScores, 0.0f);
+    for (int result = 0; result < howManyResults; ++result) {
+      final float[] scoresTensor = previousResults[index(result)];
       int i = 0;
       while (i < scoresTensor.length) {
         averageScores[i] += scoresTensor[i] / howManyResults;
@@ -163,17 +160,18 @@ public class RecognizeCommands {
       }
     }
 
-    // Sort the averaged results in descending score order.
-    ScoreForSorting[] sortedAverageScores = new ScoreForSorting[labelsCount];
-    for (int i = 0; i < labelsCount; ++i) {
-      sortedAverageScores[i] = new ScoreForSorting(averageScores[i], i);
+    // Find the highest averaged score. Ties go to the earliest label, as they would in a stable
+    // descending sort.
+    int currentTopIndex = 0;
+    for (int i = 1; i < labelsCount; ++i) {
+      if (averageScores[i] > averageScores[currentTopIndex]) {
+        currentTopIndex = i;
+      }
     }
-    Arrays.sort(sortedAverageScores);
 
     // See if the latest top score is enough to trigger a detection.
-    final int currentTopIndex = sortedAverageScores[0].index;
     final String currentTopLabel = labels.get(currentTopIndex);
-    final float currentTopScore = sortedAverageScores[0].score;
+    final float currentTopScore = averageScores[currentTopIndex];
     // If we've recently had another label trigger, assume one that occurs too
     // soon afterwards is a bad result.
     long timeSinceLastTop;
@@ -193,4 +191,50 @@ public class RecognizeCommands {
     }
     return new RecognitionResult(currentTopLabel, currentTopScore, isNewCommand);
   }
+
+  /**
+   * Estimated Java heap held by the score history. Only approximate if results are coming in on
+   * another thread meanwhile.
+   */
+  public long getHeapBytes() {
+    final float[][] results = previousResults;
+    long bytes =
+        MemoryReport.longArrayBytes(previousResultTimes.length)
+            + MemoryReport.referenceArrayBytes(results.length)
+            + MemoryReport.floatArrayBytes(averageScores.length);
+    for (float[] row : results) {
+      if (row != null) {
+        bytes += MemoryReport.floatArrayBytes(row.length);
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns the array index of the given position in the queue, counting from the oldest. */
+  private int index(int position) {
+    return (previousResultsHead + position) % previousResults.length;
+  }
+
+  /** Appends a copy of the results to the queue, growing it if it's full. */
+  private void addResult(float[] currentResults, long currentTimeMS) {
+    if (previousResultsCount == previousResults.length) {
+      final int capacity = previousResults.length * 2;
+      long[] times = new long[capacity];
+      float[][] results = new float[capacity][];
+      for (int i = 0; i < previousResultsCount; ++i) {
+        times[i] = previousResultTimes[index(i)];
+        results[i] = previousResults[index(i)];
+      }
+      previousResultTimes = times;
+      previousResults = results;
+      previousResultsHead = 0;
+    }
+    final int tail = index(previousResultsCount);
+    if (previousResults[tail] == null) {
+      previousResults[tail] = new float[labelsCount];
+    }
+    System.arraycopy(currentResults, 0, previousResults[tail], 0, labelsCount);
+    previousResultTimes[tail] = currentTimeMS;
+    ++previousResultsCount;
+  }
 }
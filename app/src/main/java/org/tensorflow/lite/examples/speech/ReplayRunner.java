@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Replays recorded audio through the detection pipeline on a virtual clock, as fast as the cores
+ * allow.
+ *
+ * <p>Windows end on the same hop grid the app scores live, and every timestamp comes from the
+ * {@link AudioClock}, so a replay makes exactly the decisions the app would have made had it kept
+ * up with every hop. Each window's scores depend only on its own audio, so the recording is cut
+ * into blocks whose windows are scored in parallel; the results are then fed through the {@link
+ * DetectionPipeline} strictly in order. Replays of the same audio are therefore bit-identical, and
+ * the digest in the {@link Summary} makes that easy to check.
+ */
+public class ReplayRunner implements Closeable {
+  // Number of windows scored together in one parallel block.
+  private static final int BLOCK_WINDOWS = 1200;
+
+  /** Receives every smoothed result, in order. */
+  public interface Listener {
+    void onResult(
+        long windowEnd,
+        float[] scores,
+        RecognizeCommands.RecognitionResult result,
+        boolean isWashDetected);
+  }
+
+  /** Describes a finished replay. */
+  public static class Summary {
+    public long windows;
+    public long newCommands;
+    public long washDetections;
+    public long audioDurationMs;
+    public long elapsedMs;
+    /** CRC32 over every result, to compare the output of two replays. */
+    public long digest;
+
+    /** How many times faster than real time the replay ran. */
+    public double getSpeedup() {
+      return elapsedMs == 0 ? Double.POSITIVE_INFINITY : (double) audioDurationMs / elapsedMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "windows: %d, new commands: %d, washes: %d, audio: %d s, elapsed: %d ms (%.1fx),"
+              + " digest: %08x",
+          windows,
+          newCommands,
+          washDetections,
+          audioDurationMs / 1000,
+          elapsedMs,
+          getSpeedup(),
+          digest);
+    }
+  }
+
+  private final ClassifierPool classifiers;
+  private final List<String> labels;
+  private final PipelineSettings settings;
+  private final ForkJoinPool pool;
+
+  public ReplayRunner(File inModelFile, List<String> inLabels, PipelineSettings inSettings)
+      throws IOException {
+    classifiers = new ClassifierPool(inModelFile, inLabels.size(), inSettings);
+    labels = inLabels;
+    settings = inSettings;
+    pool = new ForkJoinPool(inSettings.parallelism);
+  }
+
+  /** Replays a recording from its start, with the pipeline starting from silence like the app. */
+  public Summary replay(File recording, Listener listener) throws IOException {
+    final long startTime = System.nanoTime();
+    final int hop = settings.windowStrideSamples;
+    final int windowLength = settings.windowLength;
+    final DetectionPipeline pipeline = new DetectionPipeline(labels, settings);
+    final Summary summary = new Summary();
+    final CRC32 crc = new CRC32();
+    final ByteBuffer record = ByteBuffer.allocate(8 + 4 + 4 + 1 + 1);
+
+    // The first windowLength samples are history from the previous block, and start out silent
+    // like the app's recording buffer.
+    final short[] samples = new short[windowLength + BLOCK_WINDOWS * hop];
+    final float[][] scores = new float[BLOCK_WINDOWS][labels.size()];
+    long blockStart = 0;
+
+    try (WavReader.Stream stream = WavReader.open(recording, BLOCK_WINDOWS * hop)) {
+      if (stream.sampleRate != settings.sampleRate) {
+        throw new IOException(
+            recording + " was recorded at " + stream.sampleRate + " Hz instead of "
+                + settings.sampleRate);
+      }
+      while (true) {
+        final int samplesRead = stream.read(samples, windowLength, BLOCK_WINDOWS * hop);
+        final int windows = samplesRead / hop;
+        if (windows > 0) {
+          pool.invoke(new ScoreTask(samples, scores, 0, windows));
+        }
+
+        for (int i = 0; i < windows; ++i) {
+          final long windowEnd = blockStart + (long) (i + 1) * hop;
+          final RecognizeCommands.RecognitionResult result = pipeline.process(scores[i], windowEnd);
+          final boolean isWashDetected = pipeline.isWashDetected();
+          ++summary.windows;
+          if (result.isNewCommand) {
+            ++summary.newCommands;
+          }
+          if (isWashDetected) {
+            ++summary.washDetections;
+          }
+          record.clear();
+          record
+              .putLong(windowEnd)
+              .putInt(labels.indexOf(result.foundCommand))
+              .putInt(Float.floatToIntBits(result.score))
+              .put((byte) (result.isNewCommand ? 1 : 0))
+              .put((byte) (isWashDetected ? 1 : 0));
+          crc.update(record.array(), 0, record.position());
+          if (listener != null) {
+            listener.onResult(windowEnd, scores[i], result, isWashDetected);
+          }
+        }
+
+        if (samplesRead < BLOCK_WINDOWS * hop) {
+          summary.audioDurationMs = pipeline.getClock().toMs(blockStart + samplesRead);
+          break;
+        }
+        // Keep the end of this block as the history for the next one.
+        System.arraycopy(samples, samples.length - windowLength, samples, 0, windowLength);
+        blockStart += samplesRead;
+      }
+    }
+
+    summary.digest = crc.getValue();
+    summary.elapsedMs = (System.nanoTime() - startTime) / 1000000;
+    return summary;
+  }
+
+  @Override
+  public void close() {
+    pool.shutdown();
+    classifiers.close();
+  }
+
+  /** Scores a range of the windows in a block, splitting it across the pool. */
+  private class ScoreTask extends RecursiveAction {
+    // Windows per leaf task, enough to keep the scheduling overhead small, and scored as a batch.
+    private static final int LEAF_WINDOWS = AudioClassifier.MAX_BATCH_SIZE;
+
+    private final short[] samples;
+    private final float[][] scores;
+    private final int start;
+    private final int end;
+
+    ScoreTask(short[] inSamples, float[][] inScores, int inStart, int inEnd) {
+      samples = inSamples;
+      scores = inScores;
+      start = inStart;
+      end = inEnd;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= LEAF_WINDOWS) {
+        final AudioClassifier classifier = classifiers.get();
+        final int hop = settings.windowStrideSamples;
+        // Window i ends (i + 1) hops into the block, so after the history it starts there too.
+        final float[][] batchScores =
+            classifier.recognizeBatch(samples, (start + 1) * hop, hop, end - start);
+        for (int i = start; i < end; ++i) {
+          System.arraycopy(batchScores[i - start], 0, scores[i], 0, scores[i].length);
+        }
+        return;
+      }
+      final int middle = (start + end) >>> 1;
+      invokeAll(
+          new ScoreTask(samples, scores, start, middle),
+          new ScoreTask(samples, scores, middle, end));
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures what capturing at the native rate costs: the CPU time {@link PolyphaseResampler} takes
+ * per second of audio, and the latency it adds before a sample reaches the recording buffer.
+ *
+ * <p>The latency is the filter's group delay plus the time spent filling one capture block, which
+ * is paid whatever the rate. Both are worked out rather than measured, since neither depends on how
+ * fast the device is.
+ */
+public class ResamplerBenchmark {
+  // Seconds of audio resampled before timing starts, to let the JIT settle.
+  private static final int WARMUP_SECONDS = 10;
+
+  /** What one configuration costs. */
+  public static class Result {
+    public int inputRate;
+    public int blockLength;
+    /** CPU time to resample one second of audio, in milliseconds. */
+    public double msPerSecond;
+    /** Delay added by the filter, in milliseconds. */
+    public float filterDelayMs;
+    /** Time to fill one capture block at the input rate, in milliseconds. */
+    public float blockDelayMs;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d Hz in blocks of %d: %.3f ms per second of audio (%.2f%% of a core),"
+              + " latency %.2f ms filter + %.2f ms block",
+          inputRate,
+          blockLength,
+          msPerSecond,
+          msPerSecond / 10.0,
+          filterDelayMs,
+          blockDelayMs);
+    }
+  }
+
+  private ResamplerBenchmark() {}
+
+  /** Resamples the given number of seconds of noise to the model rate, in blocks as captured. */
+  public static Result run(int inputRate, int blockLength, int seconds) {
+    final PolyphaseResampler resampler =
+        new PolyphaseResampler(inputRate, SpeechActivity.SAMPLE_RATE, blockLength);
+    final float[] input = new float[blockLength];
+    final float[] output = new float[resampler.getMaxOutputLength(blockLength)];
+    Random random = new Random(0);
+    for (int i = 0; i < blockLength; ++i) {
+      input[i] = random.nextFloat() * 2 - 1;
+    }
+
+    final long warmupBlocks = (long) WARMUP_SECONDS * inputRate / blockLength;
+    for (long i = 0; i < warmupBlocks; ++i) {
+      resampler.process(input, 0, blockLength, output, 0);
+    }
+    final long blocks = (long) seconds * inputRate / blockLength;
+    final long startTime = System.nanoTime();
+    for (long i = 0; i < blocks; ++i) {
+      resampler.process(input, 0, blockLength, output, 0);
+    }
+    final long elapsedNs = System.nanoTime() - startTime;
+
+    Result result = new Result();
+    result.inputRate = inputRate;
+    result.blockLength = blockLength;
+    result.msPerSecond = elapsedNs / 1e6 / ((double) blocks * blockLength / inputRate);
+    result.filterDelayMs = resampler.getDelayMs();
+    result.blockDelayMs = 1000.0f * blockLength / inputRate;
+    return result;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.util.EnumMap;
+
+/**
+ * Ties the audio pipeline to how the app is being used, and keeps count of how long it spends in
+ * each run mode.
+ *
+ * <p>Mode changes are handed to a {@link Listener}, which starts, slows or stops the pipeline. The
+ * interpreter and the recording buffer outlive every mode, so coming back from {@link
+ * RunMode#SUSPENDED} only costs restarting the threads and the recorder, and the time each change
+ * takes is logged.
+ */
+public class RunModeController {
+  private static final String LOG_TAG = RunModeController.class.getSimpleName();
+
+  /** How hard the pipeline works. */
+  public enum RunMode {
+    /** The app is on screen: record and score every hop. */
+    INTERACTIVE,
+    /** The app is in the background: keep recording, but score fewer windows. */
+    MONITORING,
+    /** Nothing runs and the microphone is released. */
+    SUSPENDED
+  }
+
+  /** Applies a change of mode. Called on the thread that asked for it. */
+  public interface Listener {
+    void onRunModeChanged(RunMode previous, RunMode mode);
+  }
+
+  private final Listener listener;
+  private final EnumMap<RunMode, Long> timeInModeMs = new EnumMap<>(RunMode.class);
+  private volatile RunMode mode;
+  private long modeStartMs;
+
+  public RunModeController(RunMode inInitialMode, Listener inListener) {
+    listener = inListener;
+    mode = inInitialMode;
+    modeStartMs = System.currentTimeMillis();
+    for (RunMode runMode : RunMode.values()) {
+      timeInModeMs.put(runMode, 0L);
+    }
+  }
+
+  /** The current mode. Safe to check from any thread, for example once per inference. */
+  public RunMode getMode() {
+    return mode;
+  }
+
+  /** Switches to the given mode, if it isn't the current one already. */
+  public synchronized void setMode(RunMode newMode) {
+    if (newMode == mode) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    final RunMode previous = mode;
+    timeInModeMs.put(previous, timeInModeMs.get(previous) + now - modeStartMs);
+    mode = newMode;
+    modeStartMs = now;
+    listener.onRunModeChanged(previous, newMode);
+    Log.i(
+        LOG_TAG,
+        "Switched from " + previous + " to " + newMode + " in "
+            + (System.currentTimeMillis() - now) + " ms");
+  }
+
+  /** Total time spent in the given mode, including the current stretch if it's the current one. */
+  public synchronized long getTimeInModeMs(RunMode runMode) {
+    long total = timeInModeMs.get(runMode);
+    if (runMode == mode) {
+      total += System.currentTimeMillis() - modeStartMs;
+    }
+    return total;
+  }
+
+  /** Time spent in every mode, as a printable summary. */
+  public synchronized String getSummary() {
+    StringBuilder summary = new StringBuilder("Time in mode:");
+    for (RunMode runMode : RunMode.values()) {
+      summary.append(' ').append(runMode).append(' ').append(getTimeInModeMs(runMode) / 1000);
+      summary.append(" s");
+    }
+    return summary.toString();
+  }
+}
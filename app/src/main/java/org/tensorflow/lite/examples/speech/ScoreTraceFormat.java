@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a score trace segment, shared by {@link ScoreTraceWriter} and {@link
+ * ScoreTraceReader}.
+ *
+ * <p>A segment holds a fixed number of records, stored column by column so a scan over one column
+ * (say, the wash scores) reads one contiguous run of the file. After a fixed-size header come, in
+ * order, one column each for the window end in samples, the wall time in milliseconds, the raw
+ * score of every label, the smoothed label index, the smoothed score and the flags. Scores are
+ * either four-byte floats or two-byte halves. Everything is little endian.
+ */
+final class ScoreTraceFormat {
+  static final int MAGIC = 0x54535753; // "SWST"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 4096;
+  static final String SEGMENT_PREFIX = "trace-";
+  static final String SEGMENT_SUFFIX = ".swt";
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Header fields.
+  static final int MAGIC_OFFSET = 0;
+  static final int VERSION_OFFSET = 4;
+  static final int LABELS_COUNT_OFFSET = 8;
+  static final int CAPACITY_OFFSET = 12;
+  static final int SCORE_BYTES_OFFSET = 16;
+  static final int RECORD_COUNT_OFFSET = 20;
+  static final int SAMPLE_RATE_OFFSET = 24;
+  static final int LABELS_OFFSET = 32;
+
+  static final byte FLAG_NEW_COMMAND = 1;
+
+  final int labelsCount;
+  final int capacity;
+  final int scoreBytes;
+  final int windowEndOffset;
+  final int wallTimeOffset;
+  final int scoresOffset;
+  final int resultLabelOffset;
+  final int resultScoreOffset;
+  final int flagsOffset;
+  final int segmentSize;
+
+  ScoreTraceFormat(int inLabelsCount, int inCapacity, int inScoreBytes) {
+    labelsCount = inLabelsCount;
+    capacity = inCapacity;
+    scoreBytes = inScoreBytes;
+    windowEndOffset = HEADER_SIZE;
+    wallTimeOffset = windowEndOffset + 8 * inCapacity;
+    scoresOffset = wallTimeOffset + 8 * inCapacity;
+    resultLabelOffset = scoresOffset + inLabelsCount * inScoreBytes * inCapacity;
+    resultScoreOffset = resultLabelOffset + inCapacity;
+    flagsOffset = resultScoreOffset + inScoreBytes * inCapacity;
+    segmentSize = flagsOffset + inCapacity;
+  }
+
+  int scoreColumnOffset(int labelIndex) {
+    return scoresOffset + labelIndex * scoreBytes * capacity;
+  }
+
+  static void writeLabels(ByteBuffer header, List<String> labels) {
+    header.position(LABELS_OFFSET);
+    for (String label : labels) {
+      final byte[] bytes = label.getBytes(UTF_8);
+      header.putShort((short) bytes.length);
+      header.put(bytes);
+    }
+  }
+
+  static List<String> readLabels(ByteBuffer header, int labelsCount) {
+    List<String> labels = new ArrayList<>();
+    header.position(LABELS_OFFSET);
+    for (int i = 0; i < labelsCount; ++i) {
+      final byte[] bytes = new byte[header.getShort()];
+      header.get(bytes);
+      labels.add(new String(bytes, UTF_8));
+    }
+    return labels;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a score trace segment written by {@link ScoreTraceWriter}.
+ *
+ * <p>The segment is memory mapped and read in place, so opening one is cheap and scanning a column
+ * runs at memory speed. Use {@link #listSegments} to walk a whole directory of them in order.
+ */
+public class ScoreTraceReader implements Closeable {
+  private final FileInputStream inputStream;
+  private final MappedByteBuffer segment;
+  private final ScoreTraceFormat format;
+  private final List<String> labels;
+  private final int sampleRate;
+  private final int recordCount;
+
+  public ScoreTraceReader(File file) throws IOException {
+    inputStream = new FileInputStream(file);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      segment.order(ByteOrder.LITTLE_ENDIAN);
+      if (channel.size() < ScoreTraceFormat.HEADER_SIZE
+          || segment.getInt(ScoreTraceFormat.MAGIC_OFFSET) != ScoreTraceFormat.MAGIC) {
+        throw new IOException(file + " is not a score trace");
+      }
+      if (segment.getInt(ScoreTraceFormat.VERSION_OFFSET) != ScoreTraceFormat.VERSION) {
+        throw new IOException(
+            file + " has unsupported version " + segment.getInt(ScoreTraceFormat.VERSION_OFFSET));
+      }
+      format =
+          new ScoreTraceFormat(
+              segment.getInt(ScoreTraceFormat.LABELS_COUNT_OFFSET),
+              segment.getInt(ScoreTraceFormat.CAPACITY_OFFSET),
+              segment.getInt(ScoreTraceFormat.SCORE_BYTES_OFFSET));
+      if (channel.size() < format.segmentSize) {
+        throw new IOException(file + " is truncated");
+      }
+      labels =
+          ScoreTraceFormat.readLabels(
+              segment.duplicate().order(ByteOrder.LITTLE_ENDIAN), format.labelsCount);
+      sampleRate = segment.getInt(ScoreTraceFormat.SAMPLE_RATE_OFFSET);
+      recordCount = segment.getInt(ScoreTraceFormat.RECORD_COUNT_OFFSET);
+    } catch (IOException e) {
+      inputStream.close();
+      throw e;
+    }
+  }
+
+  /** Returns the segments in a directory, oldest first. */
+  public static List<File> listSegments(File directory) {
+    File[] files = directory.listFiles();
+    List<File> segments = new ArrayList<>();
+    if (files == null) {
+      return segments;
+    }
+    // Segment numbers are zero padded, so name order is age order.
+    Arrays.sort(files);
+    for (File file : files) {
+      final String name = file.getName();
+      if (name.startsWith(ScoreTraceFormat.SEGMENT_PREFIX)
+          && name.endsWith(ScoreTraceFormat.SEGMENT_SUFFIX)) {
+        segments.add(file);
+      }
+    }
+    return segments;
+  }
+
+  public List<String> getLabels() {
+    return labels;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /** Number of complete records in the segment. */
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /** Sample count at the end of the window the record was scored on. */
+  public long getWindowEnd(int index) {
+    return segment.getLong(format.windowEndOffset + 8 * index);
+  }
+
+  public long getWallTimeMs(int index) {
+    return segment.getLong(format.wallTimeOffset + 8 * index);
+  }
+
+  public float getScore(int index, int labelIndex) {
+    return getScoreAt(format.scoreColumnOffset(labelIndex), index);
+  }
+
+  /** Copies all of a record's raw scores into the given array. */
+  public void getScores(int index, float[] scores) {
+    for (int label = 0; label < format.labelsCount; ++label) {
+      scores[label] = getScore(index, label);
+    }
+  }
+
+  /**
+   * Copies one label's raw scores for a run of records, reading straight down its column.
+   *
+   * @param start the first record to copy.
+   */
+  public void getScoreColumn(int labelIndex, int start, float[] scores, int offset, int length) {
+    final int columnOffset = format.scoreColumnOffset(labelIndex);
+    for (int i = 0; i < length; ++i) {
+      scores[offset + i] = getScoreAt(columnOffset, start + i);
+    }
+  }
+
+  /** Index of the label the smoother reported, or -1 if it wasn't one of the labels. */
+  public int getResultLabel(int index) {
+    return segment.get(format.resultLabelOffset + index);
+  }
+
+  public float getResultScore(int index) {
+    return getScoreAt(format.resultScoreOffset, index);
+  }
+
+  public boolean isNewCommand(int index) {
+    return (segment.get(format.flagsOffset + index) & ScoreTraceFormat.FLAG_NEW_COMMAND) != 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+
+  private float getScoreAt(int columnOffset, int index) {
+    if (format.scoreBytes == 2) {
+      return HalfFloat.toFloat(segment.getShort(columnOffset + 2 * index));
+    }
+    return segment.getFloat(columnOffset + 4 * index);
+  }
+}
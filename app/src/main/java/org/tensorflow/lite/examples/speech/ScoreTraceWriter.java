@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the raw scores and smoothed result of every inference, so that misfires in the field can
+ * be analyzed afterwards with {@link ScoreTraceReader}.
+ *
+ * <p>Records go into fixed-size segment files that are memory mapped up front, so appending one is
+ * a handful of stores into memory with no system calls or allocation; the kernel writes the pages
+ * back in its own time. When a segment fills up the next one is mapped, and the oldest segments are
+ * deleted to keep the total under a limit. The file layout is described in {@link
+ * ScoreTraceFormat}.
+ */
+public class ScoreTraceWriter implements Closeable {
+  private final File directory;
+  private final List<String> labels;
+  private final int sampleRate;
+  private final int maxSegments;
+  private final ScoreTraceFormat format;
+  private MappedByteBuffer segment;
+  private long segmentNumber;
+  private int recordCount;
+
+  /**
+   * @param inDirectory where the segments are written. Numbering carries on from any segments
+   *     already there.
+   * @param inRecordsPerSegment how many inferences fit in one segment file.
+   * @param inUseFloat16 store scores as half precision, halving the size of the score columns.
+   * @param inMaxSegments the oldest segments are deleted beyond this many.
+   */
+  public ScoreTraceWriter(
+      File inDirectory,
+      List<String> inLabels,
+      int inSampleRate,
+      int inRecordsPerSegment,
+      boolean inUseFloat16,
+      int inMaxSegments)
+      throws IOException {
+    directory = inDirectory;
+    labels = inLabels;
+    sampleRate = inSampleRate;
+    maxSegments = inMaxSegments;
+    format = new ScoreTraceFormat(inLabels.size(), inRecordsPerSegment, inUseFloat16 ? 2 : 4);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create score trace directory " + directory);
+    }
+
+    final List<File> existing = ScoreTraceReader.listSegments(directory);
+    segmentNumber =
+        existing.isEmpty() ? 0 : segmentNumberOf(existing.get(existing.size() - 1)) + 1;
+    startSegment();
+  }
+
+  /** Appends one inference. The scores are the raw model output for the window. */
+  public void append(
+      long windowEnd, long wallTimeMs, float[] scores, RecognizeCommands.RecognitionResult result)
+      throws IOException {
+    if (recordCount == format.capacity) {
+      segment.force();
+      ++segmentNumber;
+      startSegment();
+    }
+    final int i = recordCount;
+    segment.putLong(format.windowEndOffset + 8 * i, windowEnd);
+    segment.putLong(format.wallTimeOffset + 8 * i, wallTimeMs);
+    for (int label = 0; label < format.labelsCount; ++label) {
+      putScore(format.scoreColumnOffset(label), i, scores[label]);
+    }
+    segment.put(format.resultLabelOffset + i, (byte) labels.indexOf(result.foundCommand));
+    putScore(format.resultScoreOffset, i, result.score);
+    segment.put(
+        format.flagsOffset + i, result.isNewCommand ? ScoreTraceFormat.FLAG_NEW_COMMAND : 0);
+    // Publish the record last, so a reader never sees a half-written one.
+    ++recordCount;
+    segment.putInt(ScoreTraceFormat.RECORD_COUNT_OFFSET, recordCount);
+  }
+
+  /** Flushes the current segment to storage. */
+  @Override
+  public void close() {
+    if (segment != null) {
+      segment.force();
+      segment = null;
+    }
+  }
+
+  private void putScore(int columnOffset, int index, float score) {
+    if (format.scoreBytes == 2) {
+      segment.putShort(columnOffset + 2 * index, HalfFloat.fromFloat(score));
+    } else {
+      segment.putFloat(columnOffset + 4 * index, score);
+    }
+  }
+
+  private void startSegment() throws IOException {
+    final File file =
+        new File(
+            directory,
+            String.format(
+                Locale.ROOT,
+                "%s%010d%s",
+                ScoreTraceFormat.SEGMENT_PREFIX,
+                segmentNumber,
+                ScoreTraceFormat.SEGMENT_SUFFIX));
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(format.segmentSize);
+      segment =
+          randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, format.segmentSize);
+    }
+    segment.order(ByteOrder.LITTLE_ENDIAN);
+    segment.putInt(ScoreTraceFormat.MAGIC_OFFSET, ScoreTraceFormat.MAGIC);
+    segment.putInt(ScoreTraceFormat.VERSION_OFFSET, ScoreTraceFormat.VERSION);
+    segment.putInt(ScoreTraceFormat.LABELS_COUNT_OFFSET, format.labelsCount);
+    segment.putInt(ScoreTraceFormat.CAPACITY_OFFSET, format.capacity);
+    segment.putInt(ScoreTraceFormat.SCORE_BYTES_OFFSET, format.scoreBytes);
+    segment.putInt(ScoreTraceFormat.RECORD_COUNT_OFFSET, 0);
+    segment.putInt(ScoreTraceFormat.SAMPLE_RATE_OFFSET, sampleRate);
+    ScoreTraceFormat.writeLabels(segment, labels);
+    recordCount = 0;
+
+    final List<File> segments = ScoreTraceReader.listSegments(directory);
+    for (int i = 0; i < segments.size() - maxSegments; ++i) {
+      if (!segments.get(i).delete()) {
+        throw new IOException("Can't delete old score trace " + segments.get(i));
+      }
+    }
+  }
+
+  private static long segmentNumberOf(File file) {
+    final String name = file.getName();
+    return Long.parseLong(
+        name.substring(
+            ScoreTraceFormat.SEGMENT_PREFIX.length(),
+            name.length() - ScoreTraceFormat.SEGMENT_SUFFIX.length()));
+  }
+}
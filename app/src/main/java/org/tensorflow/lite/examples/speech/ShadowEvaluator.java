@@ -0,0 +1,316 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Runs a candidate model on the same audio as the production model, to judge it on real use before
+ * rolling it out.
+ *
+ * <p>The candidate runs on its own low-priority thread, reading windows straight out of the shared
+ * {@link AudioRingBuffer} with its own interpreter, so the recognition thread only ever hands over
+ * the end of each window and its smoothed result. The shadow thread always takes the newest window
+ * handed over, skipping any that came in while it was busy, and then sleeps long enough to keep
+ * its share of a core within the CPU budget. Its scores go through their own {@link
+ * DetectionPipeline}, and the two sides' smoothed decisions are compared: top labels on the windows
+ * both scored, and new commands matched up by label within {@link #EVENT_TOLERANCE_MS}. New
+ * commands are counted from every primary window, so a candidate that is sampled heavily can only
+ * look like it misses some, never like it gains any.
+ */
+public class ShadowEvaluator implements Closeable {
+  private static final String LOG_TAG = ShadowEvaluator.class.getSimpleName();
+  // How far apart the two sides' new commands may be and still count as the same detection.
+  private static final long EVENT_TOLERANCE_MS = 1000;
+  // How often to log the running stats, in milliseconds of audio.
+  private static final long LOG_INTERVAL_MS = 60 * 1000;
+  private static final long JOIN_TIMEOUT_MS = 2000;
+
+  /** Running totals of how the candidate compares with the production model. */
+  public static class Stats {
+    /** Windows the primary scored. */
+    public long offeredWindows;
+    /** Windows the candidate scored too. The rest were skipped to stay in budget. */
+    public long evaluatedWindows;
+    /** Windows the recording thread overwrote before the candidate was done with them. */
+    public long tornWindows;
+    public long topLabelAgreements;
+    public long primaryNewCommands;
+    public long shadowNewCommands;
+    public long matchingNewCommands;
+    public long totalInferenceMs;
+    public long maxInferenceMs;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "windows: %d offered, %d evaluated (%.1f%%), %d torn; top label agreement: %.4f;"
+              + " new commands: %d primary / %d shadow / %d matching; inference: %.1f ms mean,"
+              + " %d ms max",
+          offeredWindows,
+          evaluatedWindows,
+          offeredWindows == 0 ? 0.0 : 100.0 * evaluatedWindows / offeredWindows,
+          tornWindows,
+          evaluatedWindows == 0 ? 0.0 : (double) topLabelAgreements / evaluatedWindows,
+          primaryNewCommands,
+          shadowNewCommands,
+          matchingNewCommands,
+          evaluatedWindows == 0 ? 0.0 : (double) totalInferenceMs / evaluatedWindows,
+          maxInferenceMs);
+    }
+  }
+
+  private final AudioRingBuffer recordingBuffer;
+  private final List<String> labels;
+  private final float cpuBudget;
+  private final AudioClassifier classifier;
+  private final long modelBytes;
+  private final DetectionPipeline pipeline;
+  private final AudioClock clock;
+  private final Thread thread;
+  private final Stats stats = new Stats();
+
+  // Guarded by this. The newest window handed over, and the primary's result for it.
+  private long pendingWindowEnd = -1;
+  private RecognizeCommands.RecognitionResult pendingResult;
+  private boolean shouldContinue = true;
+  // Guarded by this. New commands not yet matched up, as {timeMs, labelIndex}.
+  private final ArrayDeque<long[]> primaryEvents = new ArrayDeque<>();
+  private final ArrayDeque<long[]> shadowEvents = new ArrayDeque<>();
+  private long lastLogTimeMs;
+
+  /**
+   * @param inModel the candidate model, which must take the same input and labels as the
+   *     production one.
+   * @param inCpuBudget the largest fraction of one core the candidate may use, such as 0.25.
+   */
+  public ShadowEvaluator(
+      ByteBuffer inModel,
+      List<String> inLabels,
+      AudioRingBuffer inRecordingBuffer,
+      PipelineSettings inSettings,
+      float inCpuBudget) {
+    if (inCpuBudget <= 0.0f || inCpuBudget > 1.0f) {
+      throw new IllegalArgumentException("CPU budget must be in (0, 1], not " + inCpuBudget);
+    }
+    recordingBuffer = inRecordingBuffer;
+    labels = inLabels;
+    cpuBudget = inCpuBudget;
+    modelBytes = inModel.capacity();
+    Interpreter.Options options = new Interpreter.Options();
+    options.setNumThreads(1);
+    classifier =
+        new AudioClassifier(
+            inModel,
+            options,
+            inRecordingBuffer.getWindowLength(),
+            inSettings.sampleRate,
+            inLabels.size());
+    classifier.warmUp();
+    pipeline = new DetectionPipeline(inLabels, inSettings);
+    clock = pipeline.getClock();
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                evaluate();
+              }
+            },
+            "ShadowEvaluator");
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * Hands over the primary's smoothed result for the window ending at the given sample count. Never
+   * blocks for longer than it takes to note it down.
+   */
+  public void onPrimaryResult(long windowEnd, RecognizeCommands.RecognitionResult result) {
+    synchronized (this) {
+      ++stats.offeredWindows;
+      if (result.isNewCommand) {
+        ++stats.primaryNewCommands;
+        primaryEvents.addLast(
+            new long[] {clock.toMs(windowEnd), labels.indexOf(result.foundCommand)});
+      }
+      pendingWindowEnd = windowEnd;
+      pendingResult = result;
+      notify();
+    }
+  }
+
+  /** Returns a copy of the stats so far. */
+  public synchronized Stats getStats() {
+    Stats copy = new Stats();
+    copy.offeredWindows = stats.offeredWindows;
+    copy.evaluatedWindows = stats.evaluatedWindows;
+    copy.tornWindows = stats.tornWindows;
+    copy.topLabelAgreements = stats.topLabelAgreements;
+    copy.primaryNewCommands = stats.primaryNewCommands;
+    copy.shadowNewCommands = stats.shadowNewCommands;
+    copy.matchingNewCommands = stats.matchingNewCommands;
+    copy.totalInferenceMs = stats.totalInferenceMs;
+    copy.maxInferenceMs = stats.maxInferenceMs;
+    return copy;
+  }
+
+  /**
+   * Adds what the candidate's interpreter, buffers and smoothing hold to the report. The shadow
+   * thread may be using them meanwhile, so the sizes are only approximate. The interpreter has
+   * allocated its tensors by the time the constructor returns, so callers can measure its native
+   * memory around that.
+   */
+  public void addMemoryTo(MemoryReport report, long nativeBytes) {
+    report.add("Shadow classifier", classifier, nativeBytes, modelBytes);
+    report.add("Shadow smoothing", pipeline.getHeapBytes(), 0, 0, 0);
+  }
+
+  /** Stops the shadow thread, logs the final stats and releases the candidate's interpreter. */
+  @Override
+  public void close() {
+    synchronized (this) {
+      shouldContinue = false;
+      notify();
+    }
+    try {
+      thread.join(JOIN_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      // Closing the interpreter under a running inference would crash, so leak it instead.
+      Log.w(LOG_TAG, "Shadow thread didn't stop in time, not releasing its interpreter");
+      return;
+    }
+    classifier.close();
+    Log.i(LOG_TAG, "Final shadow stats: " + getStats());
+  }
+
+  private void evaluate() {
+    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+    long lastWindowEnd = -1;
+
+    while (true) {
+      final long windowEnd;
+      final RecognizeCommands.RecognitionResult primaryResult;
+      synchronized (this) {
+        while (shouldContinue && pendingWindowEnd == lastWindowEnd) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!shouldContinue) {
+          return;
+        }
+        windowEnd = pendingWindowEnd;
+        primaryResult = pendingResult;
+      }
+      lastWindowEnd = windowEnd;
+
+      final long startTime = System.nanoTime();
+      final float[] scores = classifier.recognize(recordingBuffer.getWindow(windowEnd));
+      final long elapsedNs = System.nanoTime() - startTime;
+      final boolean intact = recordingBuffer.isIntact(windowEnd);
+      final RecognizeCommands.RecognitionResult result =
+          intact ? pipeline.process(scores, windowEnd) : null;
+
+      synchronized (this) {
+        if (!intact) {
+          ++stats.tornWindows;
+        } else {
+          final long elapsedMs = elapsedNs / 1000000;
+          ++stats.evaluatedWindows;
+          stats.totalInferenceMs += elapsedMs;
+          stats.maxInferenceMs = Math.max(stats.maxInferenceMs, elapsedMs);
+          if (result.foundCommand.equals(primaryResult.foundCommand)) {
+            ++stats.topLabelAgreements;
+          }
+          if (result.isNewCommand) {
+            ++stats.shadowNewCommands;
+            shadowEvents.addLast(
+                new long[] {clock.toMs(windowEnd), labels.indexOf(result.foundCommand)});
+          }
+        }
+        matchEvents(clock.toMs(windowEnd));
+      }
+
+      final long timeMs = clock.toMs(windowEnd);
+      if (timeMs - lastLogTimeMs >= LOG_INTERVAL_MS) {
+        lastLogTimeMs = timeMs;
+        Log.i(LOG_TAG, getStats().toString());
+      }
+
+      // Rest for long enough that this inference used no more than the budgeted share of the core.
+      final long restMs = (long) (elapsedNs * (1.0f - cpuBudget) / cpuBudget / 1000000);
+      if (restMs > 0) {
+        synchronized (this) {
+          if (!shouldContinue) {
+            return;
+          }
+          try {
+            wait(restMs);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Pairs up new commands from the two sides that are old enough that no later event could match
+   * them any more. Must be called holding the lock.
+   */
+  private void matchEvents(long nowMs) {
+    final long horizonMs = nowMs - EVENT_TOLERANCE_MS;
+    while (!primaryEvents.isEmpty() && primaryEvents.peekFirst()[0] < horizonMs) {
+      final long[] primary = primaryEvents.removeFirst();
+      Iterator<long[]> shadows = shadowEvents.iterator();
+      while (shadows.hasNext()) {
+        final long[] shadow = shadows.next();
+        if (shadow[0] > primary[0] + EVENT_TOLERANCE_MS) {
+          break;
+        }
+        if (shadow[1] == primary[1] && Math.abs(shadow[0] - primary[0]) <= EVENT_TOLERANCE_MS) {
+          ++stats.matchingNewCommands;
+          shadows.remove();
+          break;
+        }
+      }
+    }
+    // Whatever is too old to match a primary event still waiting is a shadow-only detection.
+    final long oldestPrimaryMs =
+        primaryEvents.isEmpty() ? horizonMs : Math.min(horizonMs, primaryEvents.peekFirst()[0]);
+    while (!shadowEvents.isEmpty()
+        && shadowEvents.peekFirst()[0] < oldestPrimaryMs - EVENT_TOLERANCE_MS) {
+      shadowEvents.removeFirst();
+    }
+  }
+}
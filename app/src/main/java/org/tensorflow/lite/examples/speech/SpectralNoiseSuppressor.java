@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.Arrays;
+
+/**
+ * Suppresses steady background noise such as fans and hand dryers by spectral subtraction.
+ *
+ * <p>Audio is cut into half-overlapping frames of {@link #FRAME_MS} under a square-root Hann
+ * window, which reconstructs the input exactly when no bins are changed. A noise floor is kept for
+ * every frequency bin: it drops straight to the bin's smoothed power whenever that is lower, but
+ * only creeps up by {@link #NOISE_RISE_DB_PER_SECOND}, so it settles on the steady background.
+ * That is slow enough that the sound of a whole wash, well above the background, gets through
+ * mostly untouched. Each bin is then scaled by how far it stands above its floor, never below
+ * {@link #MIN_GAIN} so the result doesn't turn into warbling "musical noise".
+ *
+ * <p>Output lags input by one frame: a hop of output is only complete once the frame that starts
+ * with it has been read in full.
+ */
+public class SpectralNoiseSuppressor implements AudioProcessor {
+  private static final float FRAME_MS = 32.0f;
+  private static final float NOISE_RISE_DB_PER_SECOND = 1.0f;
+  // How much each frame moves the smoothed power that the noise floor follows.
+  private static final float POWER_SMOOTHING = 0.2f;
+  // How much of the noise floor to subtract. More than one gives cleaner but duller output.
+  private static final float OVER_SUBTRACTION = 2.0f;
+  private static final float MIN_GAIN = 0.1f;
+
+  private final Fft fft;
+  private final int frameLength;
+  private final int hopLength;
+  private final float[] window;
+  private final float noiseRise;
+  private final float[] noiseFloor;
+  private final float[] smoothedPower;
+  private final float[] real;
+  private final float[] imaginary;
+  // The latest frame of input, filled up to inputFill.
+  private final float[] input;
+  // Overlap-added output, the first hop of which is complete once a frame has been processed.
+  private final float[] overlap;
+  // Completed output waiting to be handed back, hopLength samples read from outputRead.
+  private final float[] output;
+  private int inputFill;
+  private boolean noiseFloorSet;
+
+  public SpectralNoiseSuppressor(int inSampleRate) {
+    frameLength = Integer.highestOneBit((int) (inSampleRate * FRAME_MS / 1000));
+    hopLength = frameLength / 2;
+    fft = new Fft(frameLength);
+    window = new float[frameLength];
+    for (int i = 0; i < frameLength; ++i) {
+      window[i] = (float) Math.sqrt(0.5 - 0.5 * Math.cos(2 * Math.PI * i / frameLength));
+    }
+    final float framesPerSecond = (float) inSampleRate / hopLength;
+    noiseRise = (float) Math.pow(10, NOISE_RISE_DB_PER_SECOND / 10 / framesPerSecond);
+    noiseFloor = new float[frameLength / 2 + 1];
+    smoothedPower = new float[frameLength / 2 + 1];
+    real = new float[frameLength];
+    imaginary = new float[frameLength];
+    input = new float[frameLength];
+    overlap = new float[frameLength];
+    output = new float[hopLength];
+    reset();
+  }
+
+  @Override
+  public void process(float[] samples, int offset, int length) {
+    final int latency = frameLength - hopLength;
+    for (int i = offset; i < offset + length; ++i) {
+      input[inputFill] = samples[i];
+      samples[i] = output[inputFill - latency];
+      if (++inputFill == frameLength) {
+        processFrame();
+        System.arraycopy(input, hopLength, input, 0, frameLength - hopLength);
+        inputFill = latency;
+      }
+    }
+  }
+
+  @Override
+  public int getDelaySamples() {
+    return frameLength;
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(input, 0.0f);
+    Arrays.fill(overlap, 0.0f);
+    Arrays.fill(output, 0.0f);
+    Arrays.fill(noiseFloor, 0.0f);
+    Arrays.fill(smoothedPower, 0.0f);
+    inputFill = frameLength - hopLength;
+    noiseFloorSet = false;
+  }
+
+  private void processFrame() {
+    for (int i = 0; i < frameLength; ++i) {
+      real[i] = input[i] * window[i];
+      imaginary[i] = 0.0f;
+    }
+    fft.transform(real, imaginary, false);
+
+    // The input is real, so only the first half of the spectrum needs working out, and the gains
+    // are mirrored onto the second half.
+    final int bins = frameLength / 2 + 1;
+    for (int k = 0; k < bins; ++k) {
+      final float power = real[k] * real[k] + imaginary[k] * imaginary[k];
+      smoothedPower[k] =
+          noiseFloorSet ? smoothedPower[k] + POWER_SMOOTHING * (power - smoothedPower[k]) : power;
+      if (!noiseFloorSet || smoothedPower[k] < noiseFloor[k]) {
+        noiseFloor[k] = smoothedPower[k];
+      } else {
+        noiseFloor[k] *= noiseRise;
+      }
+      final float gain =
+          power <= 0.0f
+              ? MIN_GAIN
+              : Math.max(MIN_GAIN, 1.0f - OVER_SUBTRACTION * noiseFloor[k] / power);
+      real[k] *= gain;
+      imaginary[k] *= gain;
+      if (k > 0 && k < frameLength / 2) {
+        real[frameLength - k] *= gain;
+        imaginary[frameLength - k] *= gain;
+      }
+    }
+    noiseFloorSet = true;
+
+    fft.transform(real, imaginary, true);
+    final float scale = 1.0f / frameLength;
+    for (int i = 0; i < frameLength; ++i) {
+      overlap[i] += real[i] * scale * window[i];
+    }
+    System.arraycopy(overlap, 0, output, 0, hopLength);
+    System.arraycopy(overlap, hopLength, overlap, 0, frameLength - hopLength);
+    Arrays.fill(overlap, frameLength - hopLength, frameLength, 0.0f);
+  }
+}
@@ -32,6 +32,7 @@ the RecognizeCommands helper class.
 package org.tensorflow.lite.examples.speech;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -41,10 +42,13 @@ import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.media.AudioFormat;
+import android.media.AudioManager;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 
@@ -64,22 +68,24 @@ import androidx.core.app.NotificationManagerCompat;
 
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.speech.RunModeController.RunMode;
 
 /**
  * An activity that listens for audio and then uses a TensorFlow model to detect particular classes,
@@ -92,20 +98,84 @@ public class SpeechActivity extends Activity
   // settings. See the audio recognition tutorial for a detailed explanation of
   // all these, but you should customize them to match your training settings if
   // you are running your own model.
-  private static final int SAMPLE_RATE = 16000;
-  private static final int SAMPLE_DURATION_MS = 1000;
-  private static final int RECORDING_LENGTH = (int) (SAMPLE_RATE * SAMPLE_DURATION_MS / 1000);
-  private static final long AVERAGE_WINDOW_DURATION_MS = 1000;
-  private static final float DETECTION_THRESHOLD = 0.50f;
-  private static final int SUPPRESSION_MS = 1500;
-  private static final int MINIMUM_COUNT = 3;
-  private static final long MINIMUM_TIME_BETWEEN_SAMPLES_MS = 1;
-  private static final int SAMPLES_RECORDED = 10;
-  private static final int POSITIVE_SAMPLES_REQUIRED = 5;
-  private static final String LABEL_FILENAME = "file:///android_asset/smartwashlabels.txt";
-  private static final String MODEL_FILENAME = "file:///android_asset/model-4600.tflite";
+  static final int SAMPLE_RATE = 16000;
+  static final int SAMPLE_DURATION_MS = 1000;
+  static final int RECORDING_LENGTH = (int) (SAMPLE_RATE * SAMPLE_DURATION_MS / 1000);
+  static final long AVERAGE_WINDOW_DURATION_MS = 1000;
+  static final float DETECTION_THRESHOLD = 0.50f;
+  static final int SUPPRESSION_MS = 1500;
+  static final int MINIMUM_COUNT = 3;
+  static final long MINIMUM_TIME_BETWEEN_SAMPLES_MS = 1;
+  static final int SAMPLES_RECORDED = 10;
+  static final int POSITIVE_SAMPLES_REQUIRED = 5;
+  // Windows are only scored when they end on a multiple of this many samples, so that live
+  // recognition and replays of recorded audio look at exactly the same windows.
+  static final int RECOGNITION_HOP_SAMPLES = SAMPLE_RATE / 20;
+  static final String LABEL_FILENAME = "file:///android_asset/smartwashlabels.txt";
+  static final String MODEL_FILENAME = "file:///android_asset/model-4600.tflite";
+  // Set this to a streaming export of the model, such as
+  // "file:///android_asset/model-4600-streaming.tflite", to score only the newest hop of audio on
+  // each inference instead of the whole window. See StreamingAudioClassifier for the layout.
+  private static final String STREAMING_MODEL_FILENAME = null;
+  // Set this to record every inference's raw scores and smoothed result to a rolling set of score
+  // trace files in app storage, for analyzing misfires afterwards with ScoreTraceReader.
+  private static final boolean SCORE_TRACE_ENABLED = false;
+  private static final String SCORE_TRACE_DIRECTORY = "score_traces";
+  private static final int SCORE_TRACE_RECORDS_PER_SEGMENT = 20 * 60 * 60;
+  private static final int SCORE_TRACE_MAX_SEGMENTS = 48;
+  // Inferences that may wait for the score trace writer before the oldest are dropped.
+  private static final int SCORE_TRACE_QUEUE_CAPACITY = 100;
+  private static final long SCORE_TRACE_POLL_MS = 100;
+  // Set this to a candidate model to run it in the background on the same audio as the production
+  // model, logging how often their smoothed decisions agree. See ShadowEvaluator.
+  private static final String SHADOW_MODEL_FILENAME = null;
+  // The largest fraction of one core the candidate model may use.
+  private static final float SHADOW_CPU_BUDGET = 0.25f;
+  // Set this to record at the device's native rate and resample to SAMPLE_RATE ourselves, instead
+  // of leaving it to the system. Recording falls back to this when SAMPLE_RATE isn't supported.
+  private static final boolean CAPTURE_AT_NATIVE_RATE = false;
+  private static final int DEFAULT_NATIVE_SAMPLE_RATE = 48000;
+  // Set this to clean up the audio before the model hears it, with DC removal, noise suppression
+  // and gain control. See PreprocessingChain. The model should be trained on audio that went
+  // through the same chain, or at least evaluated on it, before this is turned on.
+  private static final boolean PREPROCESSING_ENABLED = false;
+  // Set this to an HTTP endpoint, such as "https://example.com/washes", to upload every wash there
+  // in batches. Washes wait in app storage while offline. See WashEventUploader.
+  private static final String WASH_EVENT_ENDPOINT = null;
+  private static final String WASH_EVENT_DIRECTORY = "wash_events";
+  // Models promoted in this registry in app storage replace MODEL_FILENAME, and take over from it
+  // while the app is running. See ModelRegistry. Retired versions beyond the newest few are
+  // removed after each switch.
+  private static final String MODEL_REGISTRY_DIRECTORY = "models";
+  // New versions are imported from this directory under the app's external files at startup, so
+  // pushing one there, as in "adb push v2 /sdcard/Android/data/<package>/files/model_import/",
+  // and restarting the app rolls it out. See ModelRegistry.importFrom for the layout.
+  private static final String MODEL_IMPORT_DIRECTORY = "model_import";
+  private static final int MODEL_VERSIONS_KEPT = 2;
+  private static final String ASSET_MODEL_VERSION = "asset";
 
   private static final String HANDLE_THREAD_NAME = "CameraBackground";
+  // How long to wait for the pipeline threads to finish when stopping them.
+  private static final long PIPELINE_STOP_TIMEOUT_MS = 2000;
+  // How long to wait before reading again after the recorder returns an error, and how often to
+  // log repeated errors.
+  private static final long READ_ERROR_BACKOFF_MS = 10;
+  private static final int READ_ERROR_LOG_INTERVAL = 100;
+  // How often recognition logs the capture metrics, in milliseconds of audio.
+  private static final long CAPTURE_METRICS_LOG_INTERVAL_MS = 5 * 60 * 1000;
+  // What to do while the app is in the background. MONITORING keeps listening at a reduced rate,
+  // and SUSPENDED releases the microphone until the app comes back. From Android 9 on, an app in
+  // the background only records silence unless it runs a foreground service, which this one
+  // doesn't, so there monitoring would spend the battery scoring zeros and we suspend instead.
+  private static final RunMode BACKGROUND_RUN_MODE =
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? RunMode.SUSPENDED : RunMode.MONITORING;
+  // In the background, windows are only scored on every this many hops. Streaming models need
+  // every hop for their state, so they always run at the full rate.
+  static final int MONITORING_HOP_MULTIPLIER = 4;
+  // When the system trims our memory, the pipeline goes compact until memory has been clear of
+  // pressure for this long, checking this often. See MemoryPressureController.
+  private static final long MEMORY_RECOVERY_DELAY_MS = 60 * 1000;
+  private static final long MEMORY_RECOVERY_CHECK_MS = 15 * 1000;
 
   // UI elements.
   private static final int REQUEST_RECORD_AUDIO = 3;
@@ -113,14 +183,18 @@ public class SpeechActivity extends Activity
   private static final String CHANNEL_ID = "1";
 
   // Working variables.
-  short[] recordingBuffer = new short[RECORDING_LENGTH];
-  int recordingOffset = 0;
-  boolean shouldContinue = true;
-  private Thread recordingThread;
-  boolean shouldContinueRecognition = true;
-  private Thread recognitionThread;
-  private final ReentrantLock recordingBufferLock = new ReentrantLock();
+  final AudioRingBuffer recordingBuffer = new AudioRingBuffer(RECORDING_LENGTH, SAMPLE_RATE);
+  final CaptureMetrics captureMetrics = new CaptureMetrics();
+  private PipelineRuntime pipelineRuntime;
+  // Set if a pipeline thread ever failed to stop, after which the interpreter can't be closed.
+  private boolean pipelineThreadsLeaked;
+  private RunModeController runModeController;
+  // The mode the lifecycle asks for, which only applies while we may use the microphone.
+  private RunMode requestedRunMode = RunMode.SUSPENDED;
+  private MemoryPressureController memoryPressureController;
+  private boolean hasAudioPermission;
   private final ReentrantLock tfLiteLock = new ReentrantLock();
+  private final AudioClock audioClock = new AudioClock(SAMPLE_RATE);
 
   private List<String> labels = new ArrayList<String>();
   private List<String> displayedLabels = new ArrayList<>();
@@ -131,7 +205,21 @@ public class SpeechActivity extends Activity
 
   private final Interpreter.Options tfLiteOptions = new Interpreter.Options();
   private MappedByteBuffer tfLiteModel;
-  private Interpreter tfLite;
+  private String modelVersion = ASSET_MODEL_VERSION;
+  private ModelRegistry modelRegistry;
+  private AudioClassifier classifier;
+  // Roughly how much native memory the current interpreter took, measured as it was created.
+  private long classifierNativeBytes;
+  // Holds the single window's scores when recognition isn't batched, to share the batched path.
+  private final float[][] singleWindowScores = new float[1][];
+  private StreamingAudioClassifier streamingClassifier;
+  // Closed and replaced on the background thread as memory comes and goes, so read it once per
+  // use.
+  private volatile ShadowEvaluator shadowEvaluator;
+  // Written before shadowEvaluator, so it's up to date for whoever reads that.
+  private long shadowNativeBytes;
+  private WashEventLog washEventLog;
+  private WashEventUploader washEventUploader;
   private ImageView bottomSheetArrowImageView;
 
   private TextView yesTextView;
@@ -143,12 +231,21 @@ public class SpeechActivity extends Activity
   private long lastProcessingTimeMs;
   private Handler handler = new Handler();
   private TextView selectedTextView = null;
+  // Runs for as long as the activity exists, since run mode and memory mode changes are made here
+  // while the activity is in the background too.
   private HandlerThread backgroundThread;
   private Handler backgroundHandler;
+  // Whether compact mode has been applied to the pipeline. Only used on the background thread.
+  private boolean compactApplied;
+  // Whether the interpreter was closed to save memory while suspended, and should be created again
+  // when recognition starts. Only used on the background thread.
+  private boolean interpreterReleased;
 
   private LocalDateTime timeOfLastWash;
-  private LinkedBlockingQueue<Boolean> lastSamples;
-  private int positiveSamples;
+  private WashVoter washVoter;
+  // Whether the vote passed on the last command, so each wash is only submitted once. Only used on
+  // the UI thread.
+  private boolean washVotePassed;
 
   /** Memory-map the model file in Assets. */
   private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
@@ -187,28 +284,60 @@ public class SpeechActivity extends Activity
       throw new RuntimeException("Problem reading label file!", e);
     }
 
-    // Set up an object to smooth recognition results to increase accuracy.
-    recognizeCommands =
-        new RecognizeCommands(
-            labels,
-            AVERAGE_WINDOW_DURATION_MS,
-            DETECTION_THRESHOLD,
-            SUPPRESSION_MS,
-            MINIMUM_COUNT,
-            MINIMUM_TIME_BETWEEN_SAMPLES_MS);
-
-    String actualModelFilename = MODEL_FILENAME.split("file:///android_asset/", -1)[1];
+    String modelFilename =
+        STREAMING_MODEL_FILENAME != null ? STREAMING_MODEL_FILENAME : MODEL_FILENAME;
+    String actualModelFilename = modelFilename.split("file:///android_asset/", -1)[1];
     try {
       tfLiteModel = loadModelFile(getAssets(), actualModelFilename);
-      recreateInterpreter();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    if (STREAMING_MODEL_FILENAME == null) {
+      try {
+        modelRegistry = new ModelRegistry(new File(getFilesDir(), MODEL_REGISTRY_DIRECTORY));
+        final String version = modelRegistry.getCurrentVersion();
+        final ModelRegistry.Model model = version == null ? null : loadRegisteredModel(version);
+        if (model != null) {
+          tfLiteModel = model.buffer;
+          modelVersion = model.version;
+        }
+        modelRegistry.setValidator(this::checkModelFits);
+        modelRegistry.setListener(this::onModelPromoted);
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Can't open the model registry, using the built-in model", e);
+      }
+    }
+    Log.i(LOG_TAG, "Using model version " + modelVersion);
+    recreateInterpreter();
+    startShadowEvaluator();
+    if (WASH_EVENT_ENDPOINT != null) {
+      try {
+        washEventLog = new WashEventLog(new File(getFilesDir(), WASH_EVENT_DIRECTORY));
+        washEventUploader =
+            new WashEventUploader(
+                washEventLog, new WashEventUploader.HttpTransport(new URL(WASH_EVENT_ENDPOINT)));
+        washEventUploader.start();
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Can't open the wash event log, not uploading washes", e);
+      }
+    }
 
-    // Start the recording and recognition threads.
-    requestMicrophonePermission();
-    startRecording();
-    startRecognition();
+    // The recording and recognition threads start once the activity is resumed, if we may use
+    // the microphone.
+    runModeController = new RunModeController(RunMode.SUSPENDED, this::onRunModeChanged);
+    startBackgroundThread();
+    if (modelRegistry != null) {
+      backgroundHandler.post(this::importModels);
+    }
+    memoryPressureController =
+        new MemoryPressureController(MEMORY_RECOVERY_DELAY_MS, this::onCompactModeChanged);
+    hasAudioPermission =
+        Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+            || checkSelfPermission(android.Manifest.permission.RECORD_AUDIO)
+                == PackageManager.PERMISSION_GRANTED;
+    if (!hasAudioPermission) {
+      requestMicrophonePermission();
+    }
 
     sampleRateTextView = findViewById(R.id.sample_rate);
     inferenceTimeTextView = findViewById(R.id.inference_info);
@@ -276,11 +405,13 @@ public class SpeechActivity extends Activity
     button.setOnClickListener(new View.OnClickListener() {
       public void onClick(View v) {
         updateLastWash();
+        if (washEventUploader != null) {
+          washEventUploader.submit(System.currentTimeMillis(), 0.0f, true);
+        }
       }
     });
     createNotificationChannel();
-    lastSamples = new LinkedBlockingQueue<Boolean>(SAMPLES_RECORDED);
-    positiveSamples = 0;
+    washVoter = new WashVoter(SAMPLES_RECORDED, POSITIVE_SAMPLES_REQUIRED);
 
     //sendNotification();
   }
@@ -342,263 +473,600 @@ public class SpeechActivity extends Activity
   @Override
   public void onRequestPermissionsResult(
       int requestCode, String[] permissions, int[] grantResults) {
-    if (requestCode == REQUEST_RECORD_AUDIO
-        && grantResults.length > 0
-        && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-      startRecording();
-      startRecognition();
+    if (requestCode == REQUEST_RECORD_AUDIO) {
+      hasAudioPermission =
+          grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+      updateRunMode();
     }
   }
 
-  public synchronized void startRecording() {
-    if (recordingThread != null) {
-      return;
+  /**
+   * Runs the pipeline the way the lifecycle asks for, as long as we may use the microphone. The
+   * change is made on the background thread, since stopping the pipeline waits for its threads.
+   */
+  private void updateRunMode() {
+    final RunMode mode = hasAudioPermission ? requestedRunMode : RunMode.SUSPENDED;
+    backgroundHandler.post(() -> runModeController.setMode(mode));
+  }
+
+  private void onRunModeChanged(RunMode previous, RunMode mode) {
+    if (mode == RunMode.SUSPENDED) {
+      stopPipeline();
+      releaseIdleInterpreter();
+    } else {
+      if (interpreterReleased) {
+        recreateInterpreter();
+      }
+      // Interactive and monitoring share the same threads, which check the mode as they go.
+      startPipeline();
     }
-    shouldContinue = true;
-    recordingThread =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                record();
-              }
-            });
-    recordingThread.start();
   }
 
-  public synchronized void stopRecording() {
-    if (recordingThread == null) {
-      return;
+  /**
+   * Starts the recording and recognition threads, and the score trace writer if it's enabled. Does
+   * nothing if they are all running, but replaces them if any has stopped, for example recording
+   * because the microphone permission hadn't been granted yet.
+   */
+  public synchronized void startPipeline() {
+    if (pipelineRuntime != null) {
+      if (pipelineRuntime.isHealthy()) {
+        return;
+      }
+      stopPipeline();
+    }
+    // Start smoothing afresh, as the audio recorded before a suspension doesn't run on into what's
+    // recorded after it.
+    recognizeCommands =
+        new RecognizeCommands(
+            labels,
+            AVERAGE_WINDOW_DURATION_MS,
+            DETECTION_THRESHOLD,
+            SUPPRESSION_MS,
+            MINIMUM_COUNT,
+            MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+    pipelineRuntime = new PipelineRuntime();
+    pipelineRuntime.addStage("Recording", stage -> record(stage));
+    final BoundedQueue<ScoreTraceEntry> scoreTraceQueue =
+        SCORE_TRACE_ENABLED
+            ? pipelineRuntime.<ScoreTraceEntry>addQueue(
+                "ScoreTrace", SCORE_TRACE_QUEUE_CAPACITY, BoundedQueue.Policy.DROP_OLDEST)
+            : null;
+    pipelineRuntime.addStage(
+        "Recognition",
+        stage -> {
+          if (STREAMING_MODEL_FILENAME != null) {
+            recognizeStreaming(stage, scoreTraceQueue);
+          } else {
+            recognize(stage, scoreTraceQueue);
+          }
+        });
+    if (scoreTraceQueue != null) {
+      pipelineRuntime.addStage("ScoreTrace", stage -> writeScoreTrace(stage, scoreTraceQueue));
     }
-    shouldContinue = false;
-    recordingThread = null;
+    pipelineRuntime.start();
   }
 
-  private void record() {
-    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+  /** Returns a snapshot of how capture and recognition have been keeping up. */
+  public CaptureMetrics getCaptureMetrics() {
+    return captureMetrics.copy();
+  }
 
-    // Estimate the buffer size we'll need for this device.
-    int bufferSize =
-        AudioRecord.getMinBufferSize(
-            SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-    if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
-      bufferSize = SAMPLE_RATE * 2;
+  /**
+   * Stops the pipeline threads and waits for them to finish, releasing the recorder.
+   *
+   * @return whether they all finished in time, so the interpreters are safe to close.
+   */
+  public synchronized boolean stopPipeline() {
+    if (pipelineRuntime == null) {
+      return true;
     }
-    short[] audioBuffer = new short[bufferSize / 2];
+    final boolean stopped = pipelineRuntime.stop(PIPELINE_STOP_TIMEOUT_MS);
+    pipelineRuntime = null;
+    Log.i(LOG_TAG, captureMetrics.toString());
+    if (!stopped) {
+      pipelineThreadsLeaked = true;
+    }
+    return stopped;
+  }
 
-    AudioRecord record =
-        new AudioRecord(
-            MediaRecorder.AudioSource.DEFAULT,
-            SAMPLE_RATE,
-            AudioFormat.CHANNEL_IN_MONO,
-            AudioFormat.ENCODING_PCM_16BIT,
-            bufferSize);
+  private void record(PipelineStage stage) {
+    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
 
-    if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+    // Capture at the model's rate unless asked to use the device's native rate, and fall back to
+    // the native rate if the device won't record at the model's.
+    final int nativeRate = getNativeSampleRate();
+    int captureRate = CAPTURE_AT_NATIVE_RATE ? nativeRate : SAMPLE_RATE;
+    AudioRecord record = createAudioRecord(captureRate);
+    if (record == null && captureRate != nativeRate) {
+      captureRate = nativeRate;
+      record = createAudioRecord(captureRate);
+    }
+    if (record == null) {
       Log.e(LOG_TAG, "Audio Record can't initialize!");
       return;
     }
+    try {
+      recordInto(stage, record, captureRate);
+    } finally {
+      record.release();
+    }
+  }
+
+  /** Runs the recorder until the stage is stopped, filling the round-robin buffer. */
+  private void recordInto(PipelineStage stage, AudioRecord record, int captureRate) {
+    final int bytesPerSample = record.getAudioFormat() == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+    final int maxReadSamples =
+        Math.min(
+            getRecordBufferSize(captureRate, record.getAudioFormat(), bytesPerSample)
+                / bytesPerSample,
+            recordingBuffer.getMaxWriteLength());
+    final ByteBuffer captureBuffer =
+        ByteBuffer.allocateDirect(maxReadSamples * bytesPerSample).order(ByteOrder.nativeOrder());
+
+    // At any other rate than the model's, samples go through the resampler on the way in, and
+    // then through the preprocessing chain if it's enabled.
+    PolyphaseResampler resampler = null;
+    final float[] captureSamples = new float[maxReadSamples];
+    float[] resampledSamples = null;
+    if (captureRate != SAMPLE_RATE) {
+      resampler = new PolyphaseResampler(captureRate, SAMPLE_RATE, maxReadSamples);
+      resampledSamples = new float[resampler.getMaxOutputLength(maxReadSamples)];
+      Log.i(
+          LOG_TAG,
+          "Recording at " + captureRate + " Hz and resampling, adding "
+              + resampler.getDelayMs() + " ms of delay");
+    }
+    final AudioProcessor preprocessor =
+        PREPROCESSING_ENABLED ? PreprocessingChain.createDefault(SAMPLE_RATE) : null;
+    final boolean convert = resampler != null || preprocessor != null;
+
+    // Frames the recorder can hold for us. Once the system has captured more than that beyond what
+    // we've read, the rest were dropped. A read's worth of slack allows for timestamps that run a
+    // little ahead.
+    final long recordBufferFrames =
+        getRecordBufferSize(captureRate, record.getAudioFormat(), bytesPerSample) / bytesPerSample;
+    final long overrunThreshold = recordBufferFrames + maxReadSamples;
+    final AudioTimestamp timestamp =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? new AudioTimestamp() : null;
+    long framesRead = 0;
+    long framesDropped = -1;
 
     record.startRecording();
 
     Log.v(LOG_TAG, "Start recording");
 
-    // Loop, gathering audio data and copying it to a round-robin buffer.
-    while (shouldContinue) {
-      int numberRead = record.read(audioBuffer, 0, audioBuffer.length);
-      int maxLength = recordingBuffer.length;
-      int newRecordingOffset = recordingOffset + numberRead;
-      int secondCopyLength = Math.max(0, newRecordingOffset - maxLength);
-      int firstCopyLength = numberRead - secondCopyLength;
-      // We store off all the data for the recognition thread to access. The ML
-      // thread will copy out of this buffer into its own, while holding the
-      // lock, so this should be thread safe.
-      recordingBufferLock.lock();
-      try {
-        System.arraycopy(audioBuffer, 0, recordingBuffer, recordingOffset, firstCopyLength);
-        System.arraycopy(audioBuffer, firstCopyLength, recordingBuffer, 0, secondCopyLength);
-        recordingOffset = newRecordingOffset % maxLength;
-      } finally {
-        recordingBufferLock.unlock();
+    // Loop, gathering audio data into the round-robin buffer. Float samples at the model's rate are
+    // read straight into it, while anything else is converted on the way in.
+    while (stage.isRunning()) {
+      final int bytesRead;
+      if (!convert && bytesPerSample == 4) {
+        ByteBuffer region = recordingBuffer.beginWrite(maxReadSamples);
+        bytesRead = record.read(region, region.capacity());
+        captureMetrics.recordRead(bytesRead, bytesPerSample);
+        if (bytesRead > 0) {
+          recordingBuffer.commitWrite(bytesRead / 4);
+        }
+      } else {
+        bytesRead = record.read(captureBuffer, captureBuffer.capacity());
+        captureMetrics.recordRead(bytesRead, bytesPerSample);
+        if (bytesRead > 0) {
+          writeCaptured(
+              captureBuffer,
+              bytesRead / bytesPerSample,
+              bytesPerSample,
+              captureSamples,
+              resampler,
+              resampledSamples,
+              preprocessor);
+        }
+      }
+      if (bytesRead < 0) {
+        if (bytesRead == AudioRecord.ERROR_DEAD_OBJECT) {
+          // The recorder is gone for good. Ending the stage leaves the pipeline unhealthy, so it's
+          // built afresh the next time it's started.
+          Log.e(LOG_TAG, "Recorder died, stopping capture");
+          break;
+        }
+        if (captureMetrics.getReadErrors() % READ_ERROR_LOG_INTERVAL == 1) {
+          Log.e(LOG_TAG, "Recorder read failed with " + bytesRead + ", " + captureMetrics);
+        }
+        try {
+          // Don't spin while the recorder is in a bad way.
+          Thread.sleep(READ_ERROR_BACKOFF_MS);
+        } catch (InterruptedException e) {
+          // Ignore
+        }
+        continue;
+      }
+      if (bytesRead == 0 || timestamp == null) {
+        continue;
+      }
+      framesRead += bytesRead / bytesPerSample;
+
+      if (record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+          != AudioRecord.SUCCESS) {
+        continue;
+      }
+      final long backlog = timestamp.framePosition - framesRead;
+      if (framesDropped < 0) {
+        // Some devices don't count from zero, so take whatever is beyond the buffer at first as
+        // the starting point.
+        framesDropped = Math.max(0, backlog - overrunThreshold);
+        continue;
+      }
+      if (backlog - framesDropped > overrunThreshold) {
+        final long dropped = backlog - framesDropped - overrunThreshold;
+        framesDropped += dropped;
+        captureMetrics.recordOverrun(dropped);
+        // The system drops new audio while the buffer is full, so the splice comes after what's
+        // still waiting in it, though it may since have drained somewhat.
+        final long written = recordingBuffer.getSamplesWritten();
+        recordingBuffer.markGap(written, written + recordBufferFrames * SAMPLE_RATE / captureRate);
+        Log.w(LOG_TAG, "Recorder overrun, " + dropped + " frames dropped");
       }
     }
 
     record.stop();
-    record.release();
+    Log.v(LOG_TAG, "End recording");
   }
 
-  public synchronized void startRecognition() {
-    if (recognitionThread != null) {
+  /**
+   * Converts samples read into the capture buffer to floats and writes them to the round-robin
+   * buffer, through the resampler and preprocessing chain if there are any.
+   */
+  private void writeCaptured(
+      ByteBuffer captureBuffer,
+      int samplesRead,
+      int bytesPerSample,
+      float[] captureSamples,
+      PolyphaseResampler resampler,
+      float[] resampledSamples,
+      AudioProcessor preprocessor) {
+    if (resampler == null && preprocessor == null) {
+      recordingBuffer.writePcm16(captureBuffer, samplesRead);
       return;
     }
-    shouldContinueRecognition = true;
-    recognitionThread =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                recognize();
-              }
-            });
-    recognitionThread.start();
+    for (int i = 0; i < samplesRead; ++i) {
+      captureSamples[i] =
+          bytesPerSample == 4
+              ? captureBuffer.getFloat(i * 4)
+              : captureBuffer.getShort(i * 2) / 32767.0f;
+    }
+    float[] block = captureSamples;
+    int blockLength = samplesRead;
+    if (resampler != null) {
+      blockLength = resampler.process(captureSamples, 0, samplesRead, resampledSamples, 0);
+      block = resampledSamples;
+    }
+    if (preprocessor != null) {
+      preprocessor.process(block, 0, blockLength);
+    }
+    recordingBuffer.write(block, 0, blockLength);
   }
 
-  public synchronized void stopRecognition() {
-    if (recognitionThread == null) {
-      return;
+  /** Returns the sample rate the device's audio hardware runs at, which is usually 48 kHz. */
+  private int getNativeSampleRate() {
+    AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+    String rate =
+        audioManager == null
+            ? null
+            : audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+    try {
+      return rate == null ? DEFAULT_NATIVE_SAMPLE_RATE : Integer.parseInt(rate);
+    } catch (NumberFormatException e) {
+      return DEFAULT_NATIVE_SAMPLE_RATE;
+    }
+  }
+
+  /**
+   * Returns an initialized recorder at the given rate, preferring floats, which can land in the
+   * round-robin buffer exactly as the model wants them. Older devices, and some newer ones, only
+   * support 16-bit samples. Returns null if the device can't record at that rate at all.
+   */
+  private static AudioRecord createAudioRecord(int sampleRate) {
+    AudioRecord record = null;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      record = createAudioRecord(sampleRate, AudioFormat.ENCODING_PCM_FLOAT, 4);
     }
-    shouldContinueRecognition = false;
-    recognitionThread = null;
+    if (record == null) {
+      record = createAudioRecord(sampleRate, AudioFormat.ENCODING_PCM_16BIT, 2);
+    }
+    return record;
   }
 
-  private void recognize() {
+  /** Returns an initialized recorder for the given encoding, or null if the device can't do it. */
+  private static AudioRecord createAudioRecord(int sampleRate, int encoding, int bytesPerSample) {
+    AudioRecord record =
+        new AudioRecord(
+            MediaRecorder.AudioSource.DEFAULT,
+            sampleRate,
+            AudioFormat.CHANNEL_IN_MONO,
+            encoding,
+            getRecordBufferSize(sampleRate, encoding, bytesPerSample));
 
-    Log.v(LOG_TAG, "Start recognition");
+    if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+      record.release();
+      return null;
+    }
+    return record;
+  }
 
-    short[] inputBuffer = new short[RECORDING_LENGTH];
-    float[][] floatInputBuffer = new float[RECORDING_LENGTH][1];
-    //TODO - how many outputs do we get from our model?
-    float[][] outputScores = new float[1][labels.size()];
-    int[] sampleRateList = new int[] {SAMPLE_RATE};
+  /** Estimate the buffer size in bytes we'll need for this device. */
+  private static int getRecordBufferSize(int sampleRate, int encoding, int bytesPerSample) {
+    int bufferSize =
+        AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, encoding);
+    if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
+      bufferSize = sampleRate * bytesPerSample;
+    }
+    return bufferSize;
+  }
 
-    // Loop, grabbing recorded data and running the recognition model on it.
-    while (shouldContinueRecognition) {
-      long startTime = new Date().getTime();
-      // The recording thread places data in this round-robin buffer, so lock to
-      // make sure there's no writing happening and then copy it to our own
-      // local version.
-      recordingBufferLock.lock();
-      try {
-        int maxLength = recordingBuffer.length;
-        int firstCopyLength = maxLength - recordingOffset;
-        int secondCopyLength = recordingOffset;
-        System.arraycopy(recordingBuffer, recordingOffset, inputBuffer, 0, firstCopyLength);
-        System.arraycopy(recordingBuffer, 0, inputBuffer, firstCopyLength, secondCopyLength);
-      } finally {
-        recordingBufferLock.unlock();
+  private void recognize(PipelineStage stage, BoundedQueue<ScoreTraceEntry> scoreTraceQueue) {
+
+    Log.v(LOG_TAG, "Start recognition");
+
+    // The recording thread places data in this round-robin buffer, and the model reads windows
+    // straight out of it without taking a copy first.
+    final RecognitionLoop loop =
+        new RecognitionLoop(
+            recordingBuffer,
+            audioClock,
+            captureMetrics,
+            this::scoreWindows,
+            (windowEnd, scores) -> {
+              // Use the smoother to figure out if we've had a real recognition event. It runs on
+              // the audio clock, so its decisions don't depend on how the threads were scheduled.
+              final RecognizeCommands.RecognitionResult result =
+                  recognizeCommands.processLatestResults(scores, audioClock.toMs(windowEnd));
+              if (scoreTraceQueue != null) {
+                scoreTraceQueue.offer(new ScoreTraceEntry(windowEnd, scores, result));
+              }
+              final ShadowEvaluator shadow = shadowEvaluator;
+              if (shadow != null) {
+                shadow.onPrimaryResult(windowEnd, result);
+              }
+              showResult(result);
+            });
+    loop.metricsLogIntervalMs = CAPTURE_METRICS_LOG_INTERVAL_MS;
+    loop.start();
+
+    // Loop, grabbing recorded data and running the recognition model on it. In the background,
+    // the hop grid is coarser.
+    while (stage.isRunning()) {
+      loop.monitoring = runModeController.getMode() == RunMode.MONITORING;
+      if (!loop.step()) {
+        try {
+          // Wait for the next hop to be recorded.
+          Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+        } catch (InterruptedException e) {
+          // Ignore
+        }
       }
+    }
 
-      // We need to feed in float values between -1.0f and 1.0f, so divide the
-      // signed 16-bit inputs.
-      for (int i = 0; i < RECORDING_LENGTH; ++i) {
-        floatInputBuffer[i][0] = inputBuffer[i] / 32767.0f;
+    Log.v(LOG_TAG, "End recognition");
+  }
+
+  /**
+   * Scores windows for {@link RecognitionLoop}. After a stall, a model with a batch dimension
+   * catches up on all the pending windows in one invocation. One without would only fall further
+   * behind scoring them one at a time, so it skips straight to the newest, and so does any model
+   * while memory is short.
+   */
+  private float[][] scoreWindows(
+      AudioRingBuffer buffer, long windowEnd, int hop, int pendingWindows) {
+    long startTime = new Date().getTime();
+    // The classifier may be replaced by a new model version between inferences, so only look at
+    // it while holding the lock.
+    final float[][] outputScores;
+    tfLiteLock.lock();
+    try {
+      final int windowCount =
+          classifier.supportsBatching() && !memoryPressureController.isCompact()
+              ? pendingWindows
+              : 1;
+      if (windowCount == 1) {
+        singleWindowScores[0] = classifier.recognize(buffer.getWindow(windowEnd));
+        outputScores = singleWindowScores;
+      } else {
+        outputScores =
+            classifier.recognizeBatch(
+                buffer, windowEnd - (long) (windowCount - 1) * hop, hop, windowCount);
       }
+    } finally {
+      tfLiteLock.unlock();
+    }
+    lastProcessingTimeMs = new Date().getTime() - startTime;
+    return outputScores;
+  }
+
+  /** Updates the UI and the wash vote with the latest smoothed result. */
+  private void showResult(final RecognizeCommands.RecognitionResult result) {
+    runOnUiThread(
+        new Runnable() {
+          @RequiresApi(api = Build.VERSION_CODES.O)
+          @Override
+          public void run() {
+
+            inferenceTimeTextView.setText(lastProcessingTimeMs + " ms");
+
+            // If we do have a new command, highlight the right list entry.
+            if (!result.foundCommand.startsWith("_") && result.isNewCommand) {
+              int labelIndex = -1;
+              for (int i = 0; i < labels.size(); ++i) {
+                if (labels.get(i).equals(result.foundCommand)) {
+                  labelIndex = i;
+                }
+              }
+              //updates the wash vote along with UI element selection
+              switch (labelIndex - 2) {
+                case 0:
+                  washVoter.addSample(true);
+                  selectedTextView = yesTextView;
+                  break;
+                case 1:
+                  washVoter.addSample(false);
+                  selectedTextView = noTextView;
+                  break;
+              }
+              checkPositiveSamples(result.score);
+
+              if (selectedTextView != null) {
+                selectedTextView.setBackgroundResource(R.drawable.round_corner_text_bg_selected);
+                final String score = Math.round(result.score * 100) + "%";
+                selectedTextView.setText(selectedTextView.getText() + "\n" + score);
+                selectedTextView.setTextColor(
+                    getResources().getColor(android.R.color.holo_orange_light));
+                handler.postDelayed(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        String origionalString =
+                            selectedTextView.getText().toString().replace(score, "").trim();
+                        selectedTextView.setText(origionalString);
+                        selectedTextView.setBackgroundResource(
+                            R.drawable.round_corner_text_bg_unselected);
+                        selectedTextView.setTextColor(
+                            getResources().getColor(android.R.color.darker_gray));
+                      }
+                    },
+                    750);
+              }
+            }
+          }
+        });
+  }
+
+  private void recognizeStreaming(
+      PipelineStage stage, BoundedQueue<ScoreTraceEntry> scoreTraceQueue) {
+    Log.v(LOG_TAG, "Start streaming recognition");
 
-      Object[] inputArray = {floatInputBuffer, sampleRateList};
-      Map<Integer, Object> outputMap = new HashMap<>();
-      outputMap.put(0, outputScores);
+    final int hopLength;
+    tfLiteLock.lock();
+    try {
+      // Anything carried over from before a suspension no longer matches the audio.
+      streamingClassifier.reset();
+      hopLength = streamingClassifier.getHopLength();
+    } finally {
+      tfLiteLock.unlock();
+    }
+    long hopEnd = recordingBuffer.getSamplesWritten();
+
+    // Loop, feeding each new hop of recorded data through the streaming model in order.
+    while (stage.isRunning()) {
+      if (recordingBuffer.getSamplesWritten() < hopEnd + hopLength) {
+        try {
+          // Wait for the next hop to be recorded.
+          Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+        } catch (InterruptedException e) {
+          // Ignore
+        }
+        continue;
+      }
+      hopEnd += hopLength;
+      long startTime = new Date().getTime();
 
       // Run the model
+      final float[] outputScores;
+      final boolean isWarm;
       tfLiteLock.lock();
       try {
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        if (recordingBuffer.isIntact(hopEnd)) {
+          outputScores = streamingClassifier.recognize(recordingBuffer.getRange(hopEnd, hopLength));
+        } else {
+          outputScores = null;
+        }
+        // If we fell so far behind that audio was lost, or recording lapped us while the model
+        // was reading the hop, the carried-over state no longer matches the audio. Start again
+        // from the newest hop.
+        if (outputScores == null || !recordingBuffer.isIntact(hopEnd)) {
+          Log.w(LOG_TAG, "Gap in the audio stream, resetting the streaming model state");
+          streamingClassifier.reset();
+          final long newestEnd = recordingBuffer.getSamplesWritten();
+          captureMetrics.recordTornWindows(1);
+          captureMetrics.recordWindows(0, (newestEnd - hopEnd) / hopLength, newestEnd - hopEnd);
+          hopEnd = newestEnd;
+          continue;
+        }
+        // The same goes for audio the recorder dropped. Carry on from the next hop.
+        if (recordingBuffer.hasGap(hopEnd, hopLength)) {
+          streamingClassifier.reset();
+          captureMetrics.recordGappedWindow();
+          continue;
+        }
+        captureMetrics.recordWindows(1, 0, recordingBuffer.getSamplesWritten() - hopEnd);
+        isWarm = streamingClassifier.isWarm();
       } finally {
         tfLiteLock.unlock();
       }
+      if (!isWarm) {
+        continue;
+      }
 
       // Use the smoother to figure out if we've had a real recognition event.
-      long currentTime = System.currentTimeMillis();
       final RecognizeCommands.RecognitionResult result =
-          recognizeCommands.processLatestResults(outputScores[0], currentTime);
-      lastProcessingTimeMs = new Date().getTime() - startTime;
-      runOnUiThread(
-          new Runnable() {
-            @RequiresApi(api = Build.VERSION_CODES.O)
-            @Override
-            public void run() {
-
-              inferenceTimeTextView.setText(lastProcessingTimeMs + " ms");
-
-              // If we do have a new command, highlight the right list entry.
-              if (!result.foundCommand.startsWith("_") && result.isNewCommand) {
-                int labelIndex = -1;
-                for (int i = 0; i < labels.size(); ++i) {
-                  if (labels.get(i).equals(result.foundCommand)) {
-                    labelIndex = i;
-                  }
-                }
-                //updates the lastSamples queue along with UI element selection
-                switch (labelIndex - 2) {
-                  case 0:
-                    //not full
-                    if (lastSamples.offer(Boolean.TRUE)) {
-                      //count goes up
-                      positiveSamples = positiveSamples + 1;
-                    }
-                    //full, needs to remove head
-                    else {
-                      //last sample was hand washing
-                      try {
-                        if (lastSamples.take()){
-                          //count stays the same
-                        }
-                        else{
-                          //count goes up
-                          positiveSamples = positiveSamples + 1;
-                        }
-                        lastSamples.offer(Boolean.TRUE);
-                      } catch (InterruptedException e) {
-                        e.printStackTrace();
-                      }
-                    }
-                    selectedTextView = yesTextView;
-                    break;
-                  case 1:
-                    if (lastSamples.offer(Boolean.FALSE)) {
-                      //count stays the same
-                    }
-                    else {
-                      try {
-                        if (lastSamples.take()) {
-                          //count goes down
-                          positiveSamples = positiveSamples - 1;
-                        }
-                        else {
-                          //count stays the same
-                        }
-                        lastSamples.offer(Boolean.FALSE);
-                      } catch (InterruptedException e) {
-                        e.printStackTrace();
-                      }
-                    }
-                    selectedTextView = noTextView;
-                    break;
-                }
-                checkPositiveSamples();
-
-                if (selectedTextView != null) {
-                  selectedTextView.setBackgroundResource(R.drawable.round_corner_text_bg_selected);
-                  final String score = Math.round(result.score * 100) + "%";
-                  selectedTextView.setText(selectedTextView.getText() + "\n" + score);
-                  selectedTextView.setTextColor(
-                      getResources().getColor(android.R.color.holo_orange_light));
-                  handler.postDelayed(
-                      new Runnable() {
-                        @Override
-                        public void run() {
-                          String origionalString =
-                              selectedTextView.getText().toString().replace(score, "").trim();
-                          selectedTextView.setText(origionalString);
-                          selectedTextView.setBackgroundResource(
-                              R.drawable.round_corner_text_bg_unselected);
-                          selectedTextView.setTextColor(
-                              getResources().getColor(android.R.color.darker_gray));
-                        }
-                      },
-                      750);
-                }
-              }
-            }
-          });
-      try {
-        // We don't need to run too frequently, so snooze for a bit.
-        Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
-      } catch (InterruptedException e) {
-        // Ignore
+          recognizeCommands.processLatestResults(outputScores, audioClock.toMs(hopEnd));
+      if (scoreTraceQueue != null) {
+        scoreTraceQueue.offer(new ScoreTraceEntry(hopEnd, outputScores, result));
+      }
+      final ShadowEvaluator shadow = shadowEvaluator;
+      if (shadow != null) {
+        shadow.onPrimaryResult(hopEnd, result);
       }
+      lastProcessingTimeMs = new Date().getTime() - startTime;
+      showResult(result);
     }
 
-    Log.v(LOG_TAG, "End recognition");
+    Log.v(LOG_TAG, "End streaming recognition");
+  }
+
+  /** One inference's worth of score trace, on its way to the writer thread. */
+  private static class ScoreTraceEntry {
+    final long windowEnd;
+    final long wallTimeMs;
+    final float[] scores;
+    final RecognizeCommands.RecognitionResult result;
+
+    ScoreTraceEntry(
+        long inWindowEnd, float[] inScores, RecognizeCommands.RecognitionResult inResult) {
+      windowEnd = inWindowEnd;
+      wallTimeMs = System.currentTimeMillis();
+      // The classifier reuses its output array, so take a copy.
+      scores = inScores.clone();
+      result = inResult;
+    }
+  }
+
+  /** Writes queued score traces to disk, off the recognition thread. */
+  private void writeScoreTrace(PipelineStage stage, BoundedQueue<ScoreTraceEntry> queue)
+      throws InterruptedException {
+    ScoreTraceWriter writer;
+    try {
+      writer =
+          new ScoreTraceWriter(
+              new File(getFilesDir(), SCORE_TRACE_DIRECTORY),
+              labels,
+              SAMPLE_RATE,
+              SCORE_TRACE_RECORDS_PER_SEGMENT,
+              true,
+              SCORE_TRACE_MAX_SEGMENTS);
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Can't open score trace, not recording one", e);
+      return;
+    }
+    try {
+      // Once stopped, drain whatever recognition queued before it stopped too.
+      while (stage.isRunning() || !queue.isEmpty()) {
+        final ScoreTraceEntry entry = queue.poll(SCORE_TRACE_POLL_MS);
+        if (entry != null) {
+          writer.append(entry.windowEnd, entry.wallTimeMs, entry.scores, entry.result);
+        }
+      }
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Can't write score trace, stopping recording it", e);
+    } finally {
+      writer.close();
+    }
   }
 
   @Override
@@ -638,16 +1106,352 @@ public class SpeechActivity extends Activity
     else apiSwitchCompat.setText("TFLITE");
   }
 
+  /**
+   * Loads and checks a version from the registry, returning null if it's damaged or doesn't fit
+   * this app. Promotion already turns away versions that don't fit, but one promoted by an older
+   * release of the app might not.
+   */
+  private ModelRegistry.Model loadRegisteredModel(String version) {
+    try {
+      final ModelRegistry.Model model = modelRegistry.load(version);
+      checkModelFits(model);
+      return model;
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Can't use model version " + version, e);
+      return null;
+    }
+  }
+
+  /**
+   * Checks a registered version can replace the running model. It has to take the same labels,
+   * since the UI and the wash vote are built around them, and the same input.
+   */
+  private void checkModelFits(ModelRegistry.Model model) throws IOException {
+    if (!model.labels.equals(labels)
+        || model.getInt(ModelRegistry.KEY_SAMPLE_RATE, SAMPLE_RATE) != SAMPLE_RATE
+        || model.getInt(ModelRegistry.KEY_WINDOW_LENGTH, RECORDING_LENGTH) != RECORDING_LENGTH) {
+      throw new IOException(
+          "Model version " + model.version + " doesn't match this app's labels or input");
+    }
+  }
+
+  /**
+   * Switches recognition over to a newly promoted version between two inferences, on the thread
+   * that promoted it, without stopping capture. The new interpreter is created before taking the
+   * lock, so recognition only waits for the swap. The smoothing history carries over, since the
+   * labels are the same. Once the old interpreter is closed nothing refers to the old mapping, and
+   * it's unmapped when it's collected.
+   */
+  private void onModelPromoted(String version) {
+    final ModelRegistry.Model model = loadRegisteredModel(version);
+    if (model == null) {
+      return;
+    }
+    if (interpreterReleased) {
+      // There's no interpreter to switch over while suspended and compact. The new version is
+      // loaded when recognition starts again.
+      tfLiteLock.lock();
+      try {
+        tfLiteModel = model.buffer;
+        modelVersion = model.version;
+      } finally {
+        tfLiteLock.unlock();
+      }
+      Log.i(LOG_TAG, "Switched to model version " + version + " for when recognition resumes");
+      pruneModelVersions();
+      return;
+    }
+    final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+    final AudioClassifier newClassifier =
+        new AudioClassifier(
+            model.buffer, tfLiteOptions, RECORDING_LENGTH, SAMPLE_RATE, labels.size());
+    newClassifier.warmUp();
+    if (!isMemoryCompact()) {
+      newClassifier.prepareBatching();
+    }
+    final long nativeBytes = getNativeGrowthSince(nativeBefore);
+    final String oldVersion;
+    tfLiteLock.lock();
+    try {
+      if (classifier == null) {
+        // The activity was torn down in the meantime.
+        newClassifier.close();
+        return;
+      }
+      classifier.close();
+      classifier = newClassifier;
+      classifierNativeBytes = nativeBytes;
+      tfLiteModel = model.buffer;
+      oldVersion = modelVersion;
+      modelVersion = model.version;
+    } finally {
+      tfLiteLock.unlock();
+    }
+    Log.i(LOG_TAG, "Switched from model version " + oldVersion + " to " + version);
+    pruneModelVersions();
+  }
+
+  private void pruneModelVersions() {
+    try {
+      modelRegistry.prune(MODEL_VERSIONS_KEPT);
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Couldn't remove old model versions", e);
+    }
+  }
+
+  /**
+   * Installs and promotes any new model versions waiting in the import directory, which switches
+   * recognition over to the last one.
+   */
+  private void importModels() {
+    final File externalDir = getExternalFilesDir(null);
+    if (externalDir == null) {
+      return;
+    }
+    final String version = modelRegistry.importFrom(new File(externalDir, MODEL_IMPORT_DIRECTORY));
+    if (version != null) {
+      Log.i(LOG_TAG, "Imported model version " + version);
+    }
+  }
+
+  /** Whether the pipeline is in compact mode, which it can't be before it's set up. */
+  private boolean isMemoryCompact() {
+    return memoryPressureController != null && memoryPressureController.isCompact();
+  }
+
+  /** Starts running the candidate model alongside, if there is one and memory allows. */
+  private void startShadowEvaluator() {
+    if (SHADOW_MODEL_FILENAME == null || shadowEvaluator != null || isMemoryCompact()) {
+      return;
+    }
+    String actualShadowFilename = SHADOW_MODEL_FILENAME.split("file:///android_asset/", -1)[1];
+    try {
+      final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+      ShadowEvaluator shadow =
+          new ShadowEvaluator(
+              loadModelFile(getAssets(), actualShadowFilename),
+              labels,
+              recordingBuffer,
+              new PipelineSettings(),
+              SHADOW_CPU_BUDGET);
+      shadowNativeBytes = getNativeGrowthSince(nativeBefore);
+      shadow.start();
+      shadowEvaluator = shadow;
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Can't load shadow model, not evaluating it", e);
+    }
+  }
+
+  private void stopShadowEvaluator() {
+    final ShadowEvaluator shadow = shadowEvaluator;
+    if (shadow != null) {
+      shadowEvaluator = null;
+      shadow.close();
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    memoryPressureController.onTrimMemory(level);
+  }
+
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    memoryPressureController.onLowMemory();
+  }
+
+  /**
+   * Hands a change of memory mode to the background thread. Applying it waits for the shadow
+   * thread and for inferences in flight, and may create an interpreter, none of which belongs on
+   * the UI thread while the system is short of memory.
+   */
+  private void onCompactModeChanged(boolean compact) {
+    final Handler memoryHandler = backgroundHandler;
+    if (memoryHandler != null) {
+      memoryHandler.post(this::applyMemoryMode);
+    }
+  }
+
+  /**
+   * Sheds what the pipeline can do without while memory is short. While suspended, which is where
+   * the app spends its time in the background, that's the interpreter, with its tensor arena and
+   * input buffers; it's created again when recognition starts. While running, it's the shadow model
+   * and what the classifier holds for catching up in batches, and recognition itself carries on as
+   * before, just without catching up after a stall. Those are rebuilt once memory recovers. Runs
+   * on the background thread, and applies the mode as it is now, so a change that has already been
+   * overtaken does nothing.
+   */
+  private void applyMemoryMode() {
+    final boolean compact = memoryPressureController.isCompact();
+    if (compact) {
+      // Keep checking for recovery for as long as we're compact.
+      backgroundHandler.removeCallbacks(memoryRecoveryCheck);
+      backgroundHandler.postDelayed(memoryRecoveryCheck, MEMORY_RECOVERY_CHECK_MS);
+    }
+    if (compact == compactApplied) {
+      return;
+    }
+    compactApplied = compact;
+    if (compact) {
+      stopShadowEvaluator();
+      setClassifierBatching(false);
+      releaseIdleInterpreter();
+    } else {
+      setClassifierBatching(true);
+      startShadowEvaluator();
+    }
+    Log.i(LOG_TAG, getMemoryReport().toString());
+  }
+
+  private final Runnable memoryRecoveryCheck =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (memoryPressureController.checkRecovery(getMemoryInfo().lowMemory)) {
+            backgroundHandler.postDelayed(this, MEMORY_RECOVERY_CHECK_MS);
+          }
+        }
+      };
+
+  /**
+   * Closes the classifier's batch interpreter and drops its batch buffers, or creates them again.
+   * Creating them means scoring a batch on the background thread while holding the lock, which
+   * holds up recognition for about as long as one catch-up would, but saves the first stall after
+   * recovering from paying for it on top.
+   */
+  private void setClassifierBatching(boolean enabled) {
+    tfLiteLock.lock();
+    try {
+      if (classifier == null || !classifier.supportsBatching()) {
+        return;
+      }
+      final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+      if (enabled) {
+        classifier.prepareBatching();
+        classifierNativeBytes += getNativeGrowthSince(nativeBefore);
+      } else {
+        classifier.releaseBatching();
+        classifierNativeBytes =
+            Math.max(
+                0,
+                classifierNativeBytes
+                    - Math.max(0, nativeBefore - Debug.getNativeHeapAllocatedSize()));
+      }
+    } finally {
+      tfLiteLock.unlock();
+    }
+  }
+
+  private ActivityManager.MemoryInfo getMemoryInfo() {
+    ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+    ((ActivityManager) getSystemService(Context.ACTIVITY_SERVICE)).getMemoryInfo(memoryInfo);
+    return memoryInfo;
+  }
+
+  /**
+   * How far the native heap has grown since the given reading, as a rough footprint for an
+   * interpreter created on this thread meanwhile. Other threads' allocations count too.
+   */
+  private static long getNativeGrowthSince(long nativeBefore) {
+    return Math.max(0, Debug.getNativeHeapAllocatedSize() - nativeBefore);
+  }
+
+  /** Returns what the pipeline holds in memory, by component, next to the process totals. */
+  public MemoryReport getMemoryReport() {
+    MemoryReport report = new MemoryReport();
+    report.processNativeBytes = Debug.getNativeHeapAllocatedSize();
+    final ActivityManager.MemoryInfo memoryInfo = getMemoryInfo();
+    report.systemAvailableBytes = memoryInfo.availMem;
+    report.systemThresholdBytes = memoryInfo.threshold;
+    report.systemLowMemory = memoryInfo.lowMemory;
+    report.add("Recording buffer", 0, recordingBuffer.getDirectBytes(), 0, 0);
+    tfLiteLock.lock();
+    try {
+      if (classifier != null) {
+        report.add("Classifier", classifier, classifierNativeBytes, tfLiteModel.capacity());
+      }
+      if (streamingClassifier != null) {
+        report.add(
+            "Streaming classifier",
+            streamingClassifier.getHeapBytes(),
+            streamingClassifier.getDirectBytes(),
+            classifierNativeBytes,
+            tfLiteModel.capacity());
+      }
+    } finally {
+      tfLiteLock.unlock();
+    }
+    final RecognizeCommands smoothing = recognizeCommands;
+    if (smoothing != null) {
+      report.add("Smoothing", smoothing.getHeapBytes(), 0, 0, 0);
+    }
+    final ShadowEvaluator shadow = shadowEvaluator;
+    if (shadow != null) {
+      shadow.addMemoryTo(report, shadowNativeBytes);
+    }
+    return report;
+  }
+
+  /**
+   * Closes the interpreter if memory is short and recognition is suspended, so nothing is using it.
+   * Only called on the background thread, which is also where the pipeline is started.
+   */
+  private void releaseIdleInterpreter() {
+    if (interpreterReleased
+        || !isMemoryCompact()
+        || runModeController.getMode() != RunMode.SUSPENDED
+        || pipelineThreadsLeaked) {
+      return;
+    }
+    final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+    closeInterpreter();
+    interpreterReleased = true;
+    Log.i(
+        LOG_TAG,
+        "Released the interpreter while suspended, freeing about "
+            + Math.max(0, nativeBefore - Debug.getNativeHeapAllocatedSize()) / 1024
+            + " KiB of native memory");
+  }
+
+  private void closeInterpreter() {
+    tfLiteLock.lock();
+    try {
+      if (classifier != null) {
+        classifier.close();
+        classifier = null;
+      }
+      if (streamingClassifier != null) {
+        streamingClassifier.close();
+        streamingClassifier = null;
+      }
+    } finally {
+      tfLiteLock.unlock();
+    }
+  }
+
   private void recreateInterpreter() {
     tfLiteLock.lock();
     try {
-      if (tfLite != null) {
-        tfLite.close();
-        tfLite = null;
+      closeInterpreter();
+      // A streaming interpreter allocates its tensors as it's created, since it's never resized.
+      final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+      if (STREAMING_MODEL_FILENAME != null) {
+        streamingClassifier =
+            new StreamingAudioClassifier(
+                tfLiteModel, tfLiteOptions, SAMPLE_RATE, RECORDING_LENGTH, labels.size());
+      } else {
+        classifier =
+            new AudioClassifier(
+                tfLiteModel, tfLiteOptions, RECORDING_LENGTH, SAMPLE_RATE, labels.size());
+        classifier.warmUp();
+        if (!isMemoryCompact()) {
+          classifier.prepareBatching();
+        }
       }
-      tfLite = new Interpreter(tfLiteModel, tfLiteOptions);
-      tfLite.resizeInput(0, new int[] {RECORDING_LENGTH, 1});
-      tfLite.resizeInput(1, new int[] {1});
+      classifierNativeBytes = getNativeGrowthSince(nativeBefore);
+      interpreterReleased = false;
     } finally {
       tfLiteLock.unlock();
     }
@@ -671,22 +1475,67 @@ public class SpeechActivity extends Activity
   }
 
   @RequiresApi(api = Build.VERSION_CODES.O)
-  private void checkPositiveSamples() {
-    if (positiveSamples > POSITIVE_SAMPLES_REQUIRED){
+  private void checkPositiveSamples(float score) {
+    final boolean washDetected = washVoter.isWashDetected();
+    if (washDetected){
       updateLastWash();
     }
+    // The vote keeps passing for every command until enough nonwash ones push the washes out, so
+    // only the command that passed it counts as a wash. That's always a wash command, since only
+    // those raise the vote, so the score is the one that carried the wash.
+    if (washDetected && !washVotePassed && washEventUploader != null) {
+      washEventUploader.submit(System.currentTimeMillis(), score, false);
+    }
+    washVotePassed = washDetected;
   }
 
   @Override
   protected void onResume() {
     super.onResume();
 
-    startBackgroundThread();
+    requestedRunMode = RunMode.INTERACTIVE;
+    updateRunMode();
+  }
+
+  @Override
+  protected void onPause() {
+    super.onPause();
+    requestedRunMode = BACKGROUND_RUN_MODE;
+    updateRunMode();
   }
 
   @Override
-  protected void onStop() {
-    super.onStop();
+  protected void onDestroy() {
+    requestedRunMode = RunMode.SUSPENDED;
+    updateRunMode();
+    // Let the suspension and any change of memory mode in progress finish before tearing down what
+    // they work on.
+    backgroundHandler.removeCallbacks(memoryRecoveryCheck);
     stopBackgroundThread();
+    Log.i(LOG_TAG, runModeController.getSummary());
+    Log.i(LOG_TAG, memoryPressureController.getSummary());
+    stopShadowEvaluator();
+    if (modelRegistry != null) {
+      modelRegistry.setListener(null);
+    }
+    if (washEventUploader != null) {
+      washEventUploader.close();
+      washEventUploader = null;
+    }
+    if (washEventLog != null) {
+      try {
+        washEventLog.close();
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Couldn't close the wash event log", e);
+      }
+      washEventLog = null;
+    }
+    if (!pipelineThreadsLeaked) {
+      closeInterpreter();
+    } else {
+      // Closing the interpreter under a running inference would crash, so leak it instead.
+      Log.w(LOG_TAG, "Pipeline didn't stop in time, not releasing the interpreter");
+    }
+    super.onDestroy();
   }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the wash event server, for exercising {@link WashEventUploader}
+ * without a network.
+ *
+ * <p>It unpacks each batch as the real server would and keeps every event exactly once, ignoring
+ * repeated idempotency keys and sequences it has already seen. It can fail a share of requests at
+ * random: dropping the connection before or after taking the batch, or replying with a server
+ * error, which between them cover every way a retry can happen. It can also reject a share of
+ * requests outright with a client error. Failures come from a seeded generator, so a run can be
+ * repeated. Set the knobs while holding the server's lock if it's already in use.
+ */
+public class StandInEventServer implements WashEventUploader.Transport {
+  private static final Pattern LOG_ID = Pattern.compile("\"log_id\":\"([^\"]*)\"");
+  private static final Pattern SEQUENCE = Pattern.compile("\"seq\":(\\d+)");
+
+  /** Fraction of requests that fail, split evenly between the three kinds of failure. */
+  public float failureRate;
+  /** Time each request takes, to stand in for the round trip. */
+  public long latencyMs;
+  /** Fraction of requests rejected with {@link #rejectionStatus} before looking at them. */
+  public float rejectionRate;
+  public int rejectionStatus = 400;
+
+  private final Random random;
+  private final Set<String> seenKeys = new HashSet<>();
+  private final List<String> requestKeys = new ArrayList<>();
+  // Sequences kept from each log.
+  private final Map<String, Set<Long>> sequences = new HashMap<>();
+  private long requests;
+  private long duplicateRequests;
+  private long duplicateEvents;
+  private long events;
+
+  public StandInEventServer(long seed) {
+    random = new Random(seed);
+  }
+
+  @Override
+  public synchronized int send(byte[] body, String idempotencyKey) throws IOException {
+    ++requests;
+    requestKeys.add(idempotencyKey);
+    if (latencyMs > 0) {
+      try {
+        Thread.sleep(latencyMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted");
+      }
+    }
+    if (rejectionRate > 0 && random.nextFloat() < rejectionRate) {
+      return rejectionStatus;
+    }
+    final float roll = random.nextFloat();
+    if (roll < failureRate / 3) {
+      throw new IOException("Connection dropped before the batch arrived");
+    }
+    if (roll < failureRate * 2 / 3) {
+      return 503;
+    }
+
+    if (!seenKeys.add(idempotencyKey)) {
+      ++duplicateRequests;
+    } else {
+      final String json = gunzip(body);
+      Matcher logId = LOG_ID.matcher(json);
+      if (!logId.find()) {
+        return 400;
+      }
+      Set<Long> kept = sequences.get(logId.group(1));
+      if (kept == null) {
+        kept = new HashSet<>();
+        sequences.put(logId.group(1), kept);
+      }
+      Matcher sequence = SEQUENCE.matcher(json);
+      while (sequence.find()) {
+        if (kept.add(Long.parseLong(sequence.group(1)))) {
+          ++events;
+        } else {
+          ++duplicateEvents;
+        }
+      }
+    }
+
+    if (roll < failureRate) {
+      throw new IOException("Connection dropped before the reply was sent");
+    }
+    return 200;
+  }
+
+  /** Events kept, each counted once. */
+  public synchronized long getEventCount() {
+    return events;
+  }
+
+  public synchronized long getRequestCount() {
+    return requests;
+  }
+
+  /** The idempotency key of every request so far, in order. */
+  public synchronized List<String> getRequestKeys() {
+    return new ArrayList<>(requestKeys);
+  }
+
+  /** Requests ignored because their idempotency key had been seen before. */
+  public synchronized long getDuplicateRequestCount() {
+    return duplicateRequests;
+  }
+
+  /** Events ignored because they had already arrived in a batch grouped differently. */
+  public synchronized long getDuplicateEventCount() {
+    return duplicateEvents;
+  }
+
+  private static String gunzip(byte[] body) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      final byte[] buffer = new byte[4096];
+      int length;
+      while ((length = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, length);
+      }
+    }
+    return out.toString("UTF-8");
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+/**
+ * Runs a streaming-exported model, which looks at only the newest hop of audio and carries
+ * everything it needs from earlier hops in its own state tensors.
+ *
+ * <p>The model is expected to follow the layout the streaming exporters produce:
+ *
+ * <ul>
+ *   <li>input 0 is the float hop of audio, and its size sets the hop length;
+ *   <li>an int32 input, if there is one, takes the sample rate like the non-streaming model does;
+ *   <li>every other input is a float state tensor;
+ *   <li>output 0 is the label scores, and outputs 1 onwards are the updated states, in the same
+ *       order as the state inputs.
+ * </ul>
+ *
+ * <p>State is double buffered, so the updated states from one call become the inputs of the next
+ * without being copied. Until a full window's worth of audio has gone through since the last
+ * {@link #reset}, the state doesn't cover the receptive field of the model and {@link #isWarm}
+ * returns false.
+ */
+public class StreamingAudioClassifier implements Closeable {
+  private final Interpreter interpreter;
+  private final int hopLength;
+  private final int warmupSamples;
+  private final float[][] outputScores;
+  private final Object[] inputArray;
+  private final Map<Integer, Object> outputMap = new HashMap<>();
+  private final int[] stateInputIndices;
+  private final ByteBuffer[] states;
+  private final ByteBuffer[] nextStates;
+  private final ByteBuffer hopBuffer;
+  private long samplesSinceReset;
+
+  public StreamingAudioClassifier(
+      ByteBuffer inModel,
+      Interpreter.Options inOptions,
+      int inSampleRate,
+      int inWarmupSamples,
+      int inLabelsCount) {
+    interpreter = new Interpreter(inModel, inOptions);
+    hopLength = interpreter.getInputTensor(0).numElements();
+    warmupSamples = inWarmupSamples;
+    outputScores = new float[1][inLabelsCount];
+    hopBuffer = ByteBuffer.allocateDirect(hopLength * 4).order(ByteOrder.nativeOrder());
+
+    inputArray = new Object[interpreter.getInputTensorCount()];
+    List<Integer> stateInputs = new ArrayList<>();
+    for (int i = 1; i < inputArray.length; ++i) {
+      Tensor tensor = interpreter.getInputTensor(i);
+      if (tensor.dataType() == DataType.INT32) {
+        inputArray[i] = new int[] {inSampleRate};
+      } else if (tensor.dataType() == DataType.FLOAT32) {
+        stateInputs.add(i);
+      } else {
+        throw new IllegalArgumentException(
+            "Streaming model input " + i + " has unsupported type " + tensor.dataType());
+      }
+    }
+    if (interpreter.getOutputTensorCount() != stateInputs.size() + 1) {
+      throw new IllegalArgumentException(
+          "Streaming model has "
+              + stateInputs.size()
+              + " state inputs, but "
+              + (interpreter.getOutputTensorCount() - 1)
+              + " state outputs");
+    }
+
+    stateInputIndices = new int[stateInputs.size()];
+    states = new ByteBuffer[stateInputs.size()];
+    nextStates = new ByteBuffer[stateInputs.size()];
+    for (int i = 0; i < stateInputIndices.length; ++i) {
+      stateInputIndices[i] = stateInputs.get(i);
+      final int bytes = interpreter.getInputTensor(stateInputIndices[i]).numBytes();
+      if (interpreter.getOutputTensor(i + 1).numBytes() != bytes) {
+        throw new IllegalArgumentException(
+            "Streaming model state output " + (i + 1) + " doesn't match its input in size");
+      }
+      states[i] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+      nextStates[i] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+    outputMap.put(0, outputScores);
+  }
+
+  public int getHopLength() {
+    return hopLength;
+  }
+
+  /** Estimated Java heap held by the output array. */
+  public long getHeapBytes() {
+    return MemoryReport.floatArrayBytes(1, outputScores[0].length);
+  }
+
+  /** Direct memory held by the hop and the double-buffered state. */
+  public long getDirectBytes() {
+    long bytes = hopBuffer.capacity();
+    for (int i = 0; i < states.length; ++i) {
+      bytes += states[i].capacity() + nextStates[i].capacity();
+    }
+    return bytes;
+  }
+
+  /** Returns whether enough audio has been seen since the last reset for the scores to be valid. */
+  public boolean isWarm() {
+    return samplesSinceReset >= warmupSamples;
+  }
+
+  /** Clears the carried-over state, for when the audio stream has a gap in it. */
+  public void reset() {
+    for (int i = 0; i < states.length; ++i) {
+      zero(states[i]);
+      zero(nextStates[i]);
+    }
+    samplesSinceReset = 0;
+  }
+
+  /**
+   * Scores the next hop of native-order float samples held in direct memory, such as one returned
+   * by {@link AudioRingBuffer#getRange}. Hops must be fed in order without gaps, or the state must
+   * be {@link #reset} first. The returned array is reused by the next call.
+   */
+  public float[] recognize(ByteBuffer hop) {
+    if (hop.capacity() != hopLength * 4) {
+      throw new IllegalArgumentException(
+          "Expected a hop of " + hopLength * 4 + " bytes, but got " + hop.capacity());
+    }
+    inputArray[0] = hop;
+    for (int i = 0; i < stateInputIndices.length; ++i) {
+      states[i].rewind();
+      nextStates[i].rewind();
+      inputArray[stateInputIndices[i]] = states[i];
+      outputMap.put(i + 1, nextStates[i]);
+    }
+    try {
+      interpreter.runForMultipleInputsOutputs(inputArray, outputMap);
+    } finally {
+      inputArray[0] = null;
+    }
+
+    // The updated states become the inputs of the next call.
+    for (int i = 0; i < states.length; ++i) {
+      ByteBuffer swap = states[i];
+      states[i] = nextStates[i];
+      nextStates[i] = swap;
+    }
+    samplesSinceReset += hopLength;
+    return outputScores[0];
+  }
+
+  /**
+   * Scores the hop of 16-bit samples starting at the given offset, converting them the same way
+   * {@link AudioClassifier#recognize(short[])} does. Used when replaying recorded clips.
+   */
+  public float[] recognize(short[] samples, int offset) {
+    for (int i = 0; i < hopLength; ++i) {
+      hopBuffer.putFloat(i * 4, samples[offset + i] / 32767.0f);
+    }
+    return recognize(hopBuffer);
+  }
+
+  @Override
+  public void close() {
+    interpreter.close();
+  }
+
+  private static void zero(ByteBuffer buffer) {
+    for (int i = 0; i < buffer.capacity(); ++i) {
+      buffer.put(i, (byte) 0);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A/B harness that plays the same clips through a full-window model such as model-4600.tflite and
+ * a streaming export of it, and measures how closely the two agree.
+ *
+ * <p>At the end of every hop, the full-window model scores the last window of audio and the
+ * streaming model scores just that hop. Raw scores are compared once the streaming model is warm,
+ * and both score sequences are smoothed by their own {@link RecognizeCommands} so the detections
+ * they would have reported can be compared too. As in the app, streaming scores only reach
+ * smoothing once the model is warm.
+ */
+public class StreamingComparison {
+  private final AudioClassifier windowClassifier;
+  private final StreamingAudioClassifier streamingClassifier;
+  private final List<String> labels;
+  private final PipelineSettings settings;
+
+  /** Running totals over every clip compared so far. */
+  public static class Stats {
+    private final int labelsCount;
+    public long hops;
+    public long comparedHops;
+    public long topLabelAgreements;
+    public double sumAbsoluteDifference;
+    public float maxAbsoluteDifference;
+    public long windowNewCommands;
+    public long streamingNewCommands;
+    public long matchingNewCommands;
+
+    Stats(int inLabelsCount) {
+      labelsCount = inLabelsCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "hops: %d, compared: %d, top label agreement: %.4f, mean |diff|: %.6f, max |diff|: %.6f,"
+              + " new commands: %d window / %d streaming / %d matching",
+          hops,
+          comparedHops,
+          comparedHops == 0 ? 0.0 : (double) topLabelAgreements / comparedHops,
+          comparedHops == 0 ? 0.0 : sumAbsoluteDifference / comparedHops / labelsCount,
+          maxAbsoluteDifference,
+          windowNewCommands,
+          streamingNewCommands,
+          matchingNewCommands);
+    }
+  }
+
+  private final Stats stats;
+
+  public StreamingComparison(
+      AudioClassifier inWindowClassifier,
+      StreamingAudioClassifier inStreamingClassifier,
+      List<String> inLabels,
+      PipelineSettings inSettings) {
+    windowClassifier = inWindowClassifier;
+    streamingClassifier = inStreamingClassifier;
+    labels = inLabels;
+    settings = inSettings;
+    stats = new Stats(inLabels.size());
+  }
+
+  public Stats getStats() {
+    return stats;
+  }
+
+  /** Plays one clip through both models and adds the results to the running stats. */
+  public void compare(File file) throws IOException {
+    WavReader.Clip clip = WavReader.read(file);
+    if (clip.sampleRate != settings.sampleRate) {
+      throw new IOException(
+          file + " was recorded at " + clip.sampleRate + " Hz instead of " + settings.sampleRate);
+    }
+    final short[] samples = clip.samples;
+    final short[] window = new short[windowClassifier.getWindowLength()];
+    final int hopLength = streamingClassifier.getHopLength();
+    final RecognizeCommands windowCommands = createRecognizeCommands();
+    final RecognizeCommands streamingCommands = createRecognizeCommands();
+    final AudioClock clock = new AudioClock(settings.sampleRate);
+
+    // Each clip is its own stream, starting from silence.
+    streamingClassifier.reset();
+    for (int hopEnd = hopLength; hopEnd <= samples.length; hopEnd += hopLength) {
+      final int windowStart = hopEnd - window.length;
+      final int padding = Math.max(0, -windowStart);
+      Arrays.fill(window, 0, padding, (short) 0);
+      System.arraycopy(samples, windowStart + padding, window, padding, window.length - padding);
+
+      final float[] windowScores = windowClassifier.recognize(window).clone();
+      final float[] streamingScores = streamingClassifier.recognize(samples, hopEnd - hopLength);
+      final long timeMs = clock.toMs(hopEnd);
+      ++stats.hops;
+
+      if (streamingClassifier.isWarm()) {
+        ++stats.comparedHops;
+        for (int i = 0; i < windowScores.length; ++i) {
+          final float difference = Math.abs(windowScores[i] - streamingScores[i]);
+          stats.sumAbsoluteDifference += difference;
+          stats.maxAbsoluteDifference = Math.max(stats.maxAbsoluteDifference, difference);
+        }
+        if (argMax(windowScores) == argMax(streamingScores)) {
+          ++stats.topLabelAgreements;
+        }
+      }
+
+      RecognizeCommands.RecognitionResult windowResult =
+          windowCommands.processLatestResults(windowScores, timeMs);
+      if (windowResult.isNewCommand) {
+        ++stats.windowNewCommands;
+      }
+      // The app doesn't smooth streaming scores until the state has taken in a whole window.
+      if (!streamingClassifier.isWarm()) {
+        continue;
+      }
+      RecognizeCommands.RecognitionResult streamingResult =
+          streamingCommands.processLatestResults(streamingScores, timeMs);
+      if (streamingResult.isNewCommand) {
+        ++stats.streamingNewCommands;
+      }
+      if (windowResult.isNewCommand
+          && streamingResult.isNewCommand
+          && windowResult.foundCommand.equals(streamingResult.foundCommand)) {
+        ++stats.matchingNewCommands;
+      }
+    }
+  }
+
+  private RecognizeCommands createRecognizeCommands() {
+    return new RecognizeCommands(
+        labels,
+        settings.averageWindowDurationMs,
+        settings.detectionThreshold,
+        settings.suppressionMs,
+        settings.minimumCount,
+        settings.minimumTimeBetweenSamplesMs);
+  }
+
+  private static int argMax(float[] scores) {
+    int best = 0;
+    for (int i = 1; i < scores.length; ++i) {
+      if (scores[i] > scores[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+}
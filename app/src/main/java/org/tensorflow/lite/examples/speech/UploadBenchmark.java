@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Measures how fast {@link WashEventUploader} clears a backlog built up while offline, such as
+ * after a week without a network, against a {@link StandInEventServer}.
+ *
+ * <p>The backlog is written straight to a fresh {@link WashEventLog} first, then the uploader is
+ * started and timed until the log is empty. Backoff is shortened so a run with failures doesn't
+ * spend its time asleep; what's left is the cost of reading, encoding, compressing and
+ * acknowledging batches.
+ */
+public class UploadBenchmark {
+  private static final long POLL_MS = 5;
+
+  /** How one run went. */
+  public static class Result {
+    public int events;
+    public int batchEvents;
+    public float failureRate;
+    public long elapsedMs;
+    public long delivered;
+    public long requests;
+    public long duplicateRequests;
+    public WashEventUploader.Stats stats;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d events in batches of %d, %.0f%% failures: %d ms (%.0f events/s), %d delivered,"
+              + " %d requests (%d repeats), %.1fx compression",
+          events,
+          batchEvents,
+          failureRate * 100,
+          elapsedMs,
+          elapsedMs == 0 ? 0.0 : events * 1000.0 / elapsedMs,
+          delivered,
+          requests,
+          duplicateRequests,
+          stats.compressedBytes == 0
+              ? 0.0
+              : (double) stats.uncompressedBytes / stats.compressedBytes);
+    }
+  }
+
+  private UploadBenchmark() {}
+
+  /**
+   * Uploads a backlog of the given size from a new log in the given directory, which must not hold
+   * a log already.
+   */
+  public static Result run(File directory, int events, int batchEvents, float failureRate)
+      throws IOException, InterruptedException {
+    WashEventLog log = new WashEventLog(directory);
+    try {
+      // A wash every hour or so, with detection scores like the real ones.
+      long timeMs = 1500000000000L;
+      for (int i = 0; i < events; ++i) {
+        timeMs += 3000000 + (i * 7919L) % 1200000;
+        final boolean manual = i % 10 == 0;
+        log.append(timeMs, manual ? 0.0f : 0.7f + (i % 30) / 100.0f, manual);
+      }
+
+      StandInEventServer server = new StandInEventServer(0);
+      server.failureRate = failureRate;
+      WashEventUploader uploader = new WashEventUploader(log, server);
+      uploader.maxBatchEvents = batchEvents;
+      uploader.initialBackoffMs = 1;
+      uploader.maxBackoffMs = 10;
+
+      final long startTime = System.nanoTime();
+      uploader.start();
+      while (!uploader.isIdle()) {
+        Thread.sleep(POLL_MS);
+      }
+      final long elapsedMs = (System.nanoTime() - startTime) / 1000000;
+      uploader.close();
+
+      Result result = new Result();
+      result.events = events;
+      result.batchEvents = batchEvents;
+      result.failureRate = failureRate;
+      result.elapsedMs = elapsedMs;
+      result.delivered = server.getEventCount();
+      result.requests = server.getRequestCount();
+      result.duplicateRequests = server.getDuplicateRequestCount();
+      result.stats = uploader.getStats();
+      return result;
+    } finally {
+      log.close();
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A durable queue of wash events waiting to be uploaded, kept in app storage so they survive the
+ * app being killed or the device going without a network for days.
+ *
+ * <p>Events are appended to {@link #LOG_FILENAME} as fixed-size records, each forced to disk before
+ * {@link #append} returns, and numbered with a sequence that never repeats. The sequence of the
+ * last event the server has acknowledged lives in {@link #ACK_FILENAME}, which is replaced
+ * atomically through a rename, so a crash leaves either the old or the new value. A record torn by
+ * a crash mid-append is ignored. Once everything in the log is acknowledged and it has grown past
+ * {@link #COMPACT_BYTES}, it is emptied.
+ */
+public class WashEventLog implements Closeable {
+  static final String LOG_FILENAME = "wash_events.log";
+  static final String ACK_FILENAME = "wash_events.ack";
+  private static final String ID_FILENAME = "wash_events.id";
+  // Sequence, wall time, score and flags.
+  private static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+  private static final long COMPACT_BYTES = 1024 * 1024;
+  private static final int FLAG_MANUAL = 1;
+
+  /** One wash, as recorded in the log. */
+  public static class WashEvent {
+    public final long sequence;
+    public final long timeMs;
+    /** Smoothed score of the wash command that passed the vote, or 0 if logged by hand. */
+    public final float score;
+    /** Whether the user logged the wash with the button rather than it being detected. */
+    public final boolean manual;
+
+    public WashEvent(long inSequence, long inTimeMs, float inScore, boolean inManual) {
+      sequence = inSequence;
+      timeMs = inTimeMs;
+      score = inScore;
+      manual = inManual;
+    }
+  }
+
+  private final File directory;
+  private final String logId;
+  private final RandomAccessFile logFile;
+  private final FileChannel channel;
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer ack = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+  private long acknowledgedSequence;
+  private long nextSequence;
+  // Byte offset of the first record not yet acknowledged, and the end of the last whole record.
+  private long pendingOffset;
+  private long logEnd;
+
+  public WashEventLog(File inDirectory) throws IOException {
+    directory = inDirectory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can't create wash event directory " + directory);
+    }
+    logId = readOrCreateId(new File(directory, ID_FILENAME));
+    acknowledgedSequence = readAcknowledged(new File(directory, ACK_FILENAME));
+    logFile = new RandomAccessFile(new File(directory, LOG_FILENAME), "rw");
+    channel = logFile.getChannel();
+    try {
+      // Drop any record torn by a crash part way through appending it.
+      logEnd = channel.size() - channel.size() % RECORD_SIZE;
+      channel.truncate(logEnd);
+      nextSequence = acknowledgedSequence + 1;
+      pendingOffset = logEnd;
+      if (logEnd > 0) {
+        final long firstSequence = readRecord(0).sequence;
+        final long lastSequence = readRecord(logEnd - RECORD_SIZE).sequence;
+        nextSequence = Math.max(nextSequence, lastSequence + 1);
+        // Sequences are consecutive within the log, so the first pending record can be found
+        // without a scan.
+        final long acknowledgedRecords =
+            Math.max(0, Math.min(acknowledgedSequence - firstSequence + 1, logEnd / RECORD_SIZE));
+        pendingOffset = acknowledgedRecords * RECORD_SIZE;
+      }
+    } catch (IOException e) {
+      logFile.close();
+      throw e;
+    }
+  }
+
+  /** A random identifier for this log, so the server can tell devices' sequences apart. */
+  public String getLogId() {
+    return logId;
+  }
+
+  /** Durably appends a wash and returns its sequence number. */
+  public synchronized long append(long timeMs, float score, boolean manual) throws IOException {
+    final long sequence = nextSequence;
+    record.clear();
+    record.putLong(sequence).putLong(timeMs).putFloat(score).putInt(manual ? FLAG_MANUAL : 0);
+    record.flip();
+    while (record.hasRemaining()) {
+      channel.write(record, logEnd + record.position());
+    }
+    channel.force(false);
+    logEnd += RECORD_SIZE;
+    ++nextSequence;
+    return sequence;
+  }
+
+  public synchronized long getPendingCount() {
+    return (logEnd - pendingOffset) / RECORD_SIZE;
+  }
+
+  /**
+   * Reads up to the given number of the oldest events that haven't been acknowledged yet.
+   *
+   * @return the number of events added to the list.
+   */
+  public synchronized int readPending(int maxEvents, List<WashEvent> events) throws IOException {
+    final int count = (int) Math.min(maxEvents, getPendingCount());
+    if (count == 0) {
+      return 0;
+    }
+    ByteBuffer records = ByteBuffer.allocate(count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    while (records.hasRemaining()) {
+      if (channel.read(records, pendingOffset + records.position()) < 0) {
+        throw new IOException("Wash event log ended early");
+      }
+    }
+    records.flip();
+    for (int i = 0; i < count; ++i) {
+      events.add(decode(records));
+    }
+    return count;
+  }
+
+  /** Marks every event up to and including the given sequence as safely uploaded. */
+  public synchronized void acknowledge(long sequence) throws IOException {
+    if (sequence <= acknowledgedSequence) {
+      return;
+    }
+    final File ackFile = new File(directory, ACK_FILENAME);
+    final File tempFile = new File(directory, ACK_FILENAME + ".tmp");
+    try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+      ack.clear();
+      ack.putLong(sequence).flip();
+      file.getChannel().write(ack, 0);
+      file.getChannel().force(false);
+    }
+    if (!tempFile.renameTo(ackFile)) {
+      throw new IOException("Can't replace " + ackFile);
+    }
+    final long acknowledgedRecords = Math.min(sequence - acknowledgedSequence, getPendingCount());
+    acknowledgedSequence = sequence;
+    pendingOffset += acknowledgedRecords * RECORD_SIZE;
+
+    if (pendingOffset == logEnd && logEnd >= COMPACT_BYTES) {
+      channel.truncate(0);
+      channel.force(false);
+      pendingOffset = 0;
+      logEnd = 0;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    logFile.close();
+  }
+
+  private WashEvent readRecord(long offset) throws IOException {
+    record.clear();
+    while (record.hasRemaining()) {
+      if (channel.read(record, offset + record.position()) < 0) {
+        throw new IOException("Wash event log ended early");
+      }
+    }
+    record.flip();
+    return decode(record);
+  }
+
+  private static WashEvent decode(ByteBuffer buffer) {
+    final long sequence = buffer.getLong();
+    final long timeMs = buffer.getLong();
+    final float score = buffer.getFloat();
+    final int flags = buffer.getInt();
+    return new WashEvent(sequence, timeMs, score, (flags & FLAG_MANUAL) != 0);
+  }
+
+  private static long readAcknowledged(File file) throws IOException {
+    if (!file.exists()) {
+      return 0;
+    }
+    try (RandomAccessFile ackFile = new RandomAccessFile(file, "r")) {
+      return ackFile.length() < 8 ? 0 : Long.reverseBytes(ackFile.readLong());
+    }
+  }
+
+  private static String readOrCreateId(File file) throws IOException {
+    try (RandomAccessFile idFile = new RandomAccessFile(file, "rw")) {
+      if (idFile.length() > 0) {
+        return idFile.readUTF();
+      }
+      final String id = UUID.randomUUID().toString();
+      idFile.writeUTF(id);
+      idFile.getFD().sync();
+      return id;
+    }
+  }
+}
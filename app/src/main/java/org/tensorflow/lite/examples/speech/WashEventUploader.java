@@ -0,0 +1,413 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads wash events to a server in batches, from a {@link WashEventLog} so nothing is lost while
+ * the device is offline.
+ *
+ * <p>Everything happens on the uploader's own thread: {@link #submit} only hands the event over,
+ * so it's safe to call from the UI thread and never holds up recognition. The thread appends each
+ * event to the log, and sends a batch once {@link #maxBatchEvents} are waiting or the oldest has
+ * waited {@link #maxBatchDelayMs}. After an outage the backlog goes out in full batches back to
+ * back.
+ *
+ * <p>A batch is a gzipped JSON document, sent with an idempotency key made of the log ID and the
+ * range of sequences it holds. A retry sends exactly the same batch with the same key, so a server
+ * that saw the first attempt but whose reply was lost can ignore the repeat. A batch abandoned by
+ * {@link #close} may be regrouped next time, so servers should also ignore sequences they have
+ * already seen for the log. Server and network errors are retried with exponential backoff and
+ * jitter; other client errors mean the server will never take the batch, so it's logged and
+ * dropped rather than holding up everything behind it. Events submitted during a backoff still go
+ * into the log straight away, they just wait for the backoff to end before being sent.
+ */
+public class WashEventUploader implements Closeable {
+  private static final String LOG_TAG = WashEventUploader.class.getSimpleName();
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final long JOIN_TIMEOUT_MS = 2000;
+
+  /** Sends one batch somewhere. */
+  public interface Transport {
+    /**
+     * Sends a gzipped batch.
+     *
+     * @return the HTTP status the server replied with.
+     * @throws IOException if there was no reply, such as when the network is down.
+     */
+    int send(byte[] body, String idempotencyKey) throws IOException;
+  }
+
+  /** Posts batches to an HTTP endpoint. */
+  public static class HttpTransport implements Transport {
+    private final URL endpoint;
+    public int connectTimeoutMs = 10000;
+    public int readTimeoutMs = 20000;
+
+    public HttpTransport(URL inEndpoint) {
+      endpoint = inEndpoint;
+    }
+
+    @Override
+    public int send(byte[] body, String idempotencyKey) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+      try {
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setRequestProperty("Idempotency-Key", idempotencyKey);
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(body);
+        }
+        final int status = connection.getResponseCode();
+        // Drain the reply so the connection can be reused.
+        InputStream in =
+            status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+          try {
+            final byte[] discard = new byte[1024];
+            while (in.read(discard) >= 0) {}
+          } finally {
+            in.close();
+          }
+        }
+        return status;
+      } finally {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /** Running totals, for seeing how uploads are going. */
+  public static class Stats {
+    public long submittedEvents;
+    public long uploadedEvents;
+    public long droppedEvents;
+    public long batches;
+    public long retries;
+    public long uncompressedBytes;
+    public long compressedBytes;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "events: %d submitted, %d uploaded, %d dropped; %d batches, %d retries;"
+              + " %d bytes gzipped to %d",
+          submittedEvents,
+          uploadedEvents,
+          droppedEvents,
+          batches,
+          retries,
+          uncompressedBytes,
+          compressedBytes);
+    }
+  }
+
+  public int maxBatchEvents = 100;
+  public long maxBatchDelayMs = 60 * 1000;
+  public long initialBackoffMs = 1000;
+  public long maxBackoffMs = 15 * 60 * 1000;
+
+  private final WashEventLog log;
+  private final Transport transport;
+  private final Thread thread;
+  private final Random jitter = new Random();
+  private final Stats stats = new Stats();
+  // Guarded by this. Events handed over but not yet in the log, as {timeMs, score bits, manual}.
+  private final ArrayList<long[]> submitted = new ArrayList<>();
+  // Guarded by this. Events submitted or already in the log that haven't been uploaded or dropped.
+  private long unresolvedEvents;
+  private boolean shouldContinue = true;
+  // Only touched by the uploader thread.
+  private final ArrayList<WashEventLog.WashEvent> batch = new ArrayList<>();
+  // Events taken from submitted but not yet in the log, oldest first.
+  private final ArrayDeque<long[]> appending = new ArrayDeque<>();
+  private long oldestPendingMs = -1;
+
+  public WashEventUploader(WashEventLog inLog, Transport inTransport) {
+    log = inLog;
+    transport = inTransport;
+    unresolvedEvents = inLog.getPendingCount();
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                upload();
+              }
+            },
+            "WashEventUploader");
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  /** Queues a wash for upload. Returns straight away; the disk and network work is done later. */
+  public void submit(long timeMs, float score, boolean manual) {
+    synchronized (this) {
+      submitted.add(new long[] {timeMs, Float.floatToIntBits(score), manual ? 1 : 0});
+      ++stats.submittedEvents;
+      ++unresolvedEvents;
+      notify();
+    }
+  }
+
+  /** Returns a copy of the stats so far. */
+  public synchronized Stats getStats() {
+    Stats copy = new Stats();
+    copy.submittedEvents = stats.submittedEvents;
+    copy.uploadedEvents = stats.uploadedEvents;
+    copy.droppedEvents = stats.droppedEvents;
+    copy.batches = stats.batches;
+    copy.retries = stats.retries;
+    copy.uncompressedBytes = stats.uncompressedBytes;
+    copy.compressedBytes = stats.compressedBytes;
+    return copy;
+  }
+
+  /**
+   * Whether every event handed over so far, and every one left in the log from before, has been
+   * uploaded or dropped. The stats are up to date with them by then.
+   */
+  public synchronized boolean isIdle() {
+    return unresolvedEvents == 0;
+  }
+
+  /**
+   * Stops the uploader thread, after writing any events still in hand to the log so they go out
+   * next time. A batch in flight is abandoned and sent again later.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      shouldContinue = false;
+      notify();
+    }
+    // Not interrupted: that would close the log's file channel under it.
+    try {
+      thread.join(JOIN_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      Log.w(LOG_TAG, "Uploader thread didn't stop in time");
+    } else {
+      try {
+        appendSubmitted();
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Couldn't save wash events before closing", e);
+      }
+    }
+    Log.i(LOG_TAG, "Final upload stats: " + getStats());
+  }
+
+  private void upload() {
+    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+    long backoffMs = 0;
+    long retryAtMs = 0;
+    while (true) {
+      try {
+        appendSubmitted();
+        final long pending = log.getPendingCount();
+        if (pending == 0) {
+          oldestPendingMs = -1;
+        } else if (oldestPendingMs < 0) {
+          oldestPendingMs = System.currentTimeMillis();
+        }
+
+        final long nowMs = System.currentTimeMillis();
+        long waitMs = 0;
+        if (backoffMs > 0) {
+          waitMs = retryAtMs - nowMs;
+        } else if (pending == 0) {
+          waitMs = Long.MAX_VALUE;
+        } else if (pending < maxBatchEvents) {
+          waitMs = oldestPendingMs + maxBatchDelayMs - nowMs;
+        }
+        if (waitMs > 0 && !waitForWork(waitMs)) {
+          return;
+        }
+        if (!shouldContinue()) {
+          return;
+        }
+        if (waitMs > 0) {
+          // Woken by a new event, which has to go into the log before anything else, or the time
+          // is up. Check again which it was; a backoff carries on until retryAtMs either way.
+          continue;
+        }
+
+        backoffMs = sendBatch(backoffMs);
+        retryAtMs = System.currentTimeMillis() + backoffMs;
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "Wash event log failed", e);
+        backoffMs = nextBackoff(backoffMs);
+        retryAtMs = System.currentTimeMillis() + backoffMs;
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Sends the oldest pending events as one batch.
+   *
+   * @return how long to back off before the next attempt, or 0 to carry straight on.
+   */
+  private long sendBatch(long backoffMs) throws IOException {
+    // A batch that failed is kept and retried as it was, even if more events have come in since.
+    if (batch.isEmpty()) {
+      log.readPending(maxBatchEvents, batch);
+      if (batch.isEmpty()) {
+        return 0;
+      }
+    }
+    final byte[] json = toJson(log.getLogId(), batch);
+    final byte[] body = gzip(json);
+    final long firstSequence = batch.get(0).sequence;
+    final long lastSequence = batch.get(batch.size() - 1).sequence;
+    final String key = log.getLogId() + ":" + firstSequence + "-" + lastSequence;
+
+    int status;
+    try {
+      status = transport.send(body, key);
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Couldn't upload " + key + ": " + e);
+      status = -1;
+    }
+    final boolean succeeded = status >= 200 && status < 300;
+    final boolean rejected =
+        status >= 400 && status < 500 && status != 408 && status != 429;
+    final int batchSize = batch.size();
+    if (succeeded || rejected) {
+      batch.clear();
+      log.acknowledge(lastSequence);
+      oldestPendingMs = log.getPendingCount() == 0 ? -1 : System.currentTimeMillis();
+    }
+    synchronized (this) {
+      if (backoffMs > 0) {
+        ++stats.retries;
+      }
+      if (succeeded || rejected) {
+        unresolvedEvents -= batchSize;
+      }
+      if (succeeded) {
+        ++stats.batches;
+        stats.uploadedEvents += batchSize;
+        stats.uncompressedBytes += json.length;
+        stats.compressedBytes += body.length;
+      } else if (rejected) {
+        stats.droppedEvents += batchSize;
+      }
+    }
+    if (rejected) {
+      Log.e(LOG_TAG, "Server rejected " + key + " with " + status + ", dropping it");
+    }
+    return succeeded || rejected ? 0 : nextBackoff(backoffMs);
+  }
+
+  private long nextBackoff(long backoffMs) {
+    final long next = backoffMs == 0 ? initialBackoffMs : Math.min(maxBackoffMs, backoffMs * 2);
+    // Up to half again, so devices that lost the network together don't all come back together.
+    return next + (long) (jitter.nextFloat() * next / 2);
+  }
+
+  private void appendSubmitted() throws IOException {
+    synchronized (this) {
+      appending.addAll(submitted);
+      submitted.clear();
+    }
+    // Each event leaves the queue as soon as it's in the log, so if one fails, the next attempt
+    // picks up from it rather than writing the ones before it again.
+    while (!appending.isEmpty()) {
+      final long[] event = appending.peekFirst();
+      log.append(event[0], Float.intBitsToFloat((int) event[1]), event[2] != 0);
+      appending.removeFirst();
+    }
+  }
+
+  private synchronized boolean shouldContinue() {
+    return shouldContinue;
+  }
+
+  /**
+   * Waits until an event is submitted or the time is up.
+   *
+   * @return false if the uploader is closing.
+   */
+  private synchronized boolean waitForWork(long waitMs) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + Math.min(waitMs, Long.MAX_VALUE / 2);
+    while (shouldContinue && submitted.isEmpty()) {
+      final long remainingMs = deadline - System.currentTimeMillis();
+      if (remainingMs <= 0) {
+        break;
+      }
+      wait(remainingMs);
+    }
+    return shouldContinue;
+  }
+
+  static byte[] toJson(String logId, List<WashEventLog.WashEvent> events) {
+    StringBuilder json = new StringBuilder(64 + events.size() * 80);
+    json.append("{\"log_id\":\"").append(logId).append("\",\"events\":[");
+    for (int i = 0; i < events.size(); ++i) {
+      final WashEventLog.WashEvent event = events.get(i);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"seq\":")
+          .append(event.sequence)
+          .append(",\"time_ms\":")
+          .append(event.timeMs)
+          .append(",\"score\":")
+          .append(event.score)
+          .append(",\"manual\":")
+          .append(event.manual)
+          .append('}');
+    }
+    json.append("]}");
+    return json.toString().getBytes(UTF_8);
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(data);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+/**
+ * Keeps a vote over the most recent wash/nonwash commands and decides when enough of them were
+ * washes to count as a hand wash.
+ */
+public class WashVoter {
+  public static final String WASH_LABEL = "wash";
+  public static final String NONWASH_LABEL = "nonwash";
+
+  private final boolean[] lastSamples;
+  private final int positiveSamplesRequired;
+  private int head;
+  private int size;
+  private int positiveSamples;
+
+  public WashVoter(int inSamplesRecorded, int inPositiveSamplesRequired) {
+    lastSamples = new boolean[inSamplesRecorded];
+    positiveSamplesRequired = inPositiveSamplesRequired;
+  }
+
+  /**
+   * Records a new command, dropping the oldest one once the window is full.
+   *
+   * @return true if more than the required number of recent commands were washes.
+   */
+  public boolean addSample(boolean isWash) {
+    if (size == lastSamples.length) {
+      if (lastSamples[head]) {
+        --positiveSamples;
+      }
+      lastSamples[head] = isWash;
+      head = (head + 1) % lastSamples.length;
+    } else {
+      lastSamples[(head + size) % lastSamples.length] = isWash;
+      ++size;
+    }
+    if (isWash) {
+      ++positiveSamples;
+    }
+    return isWashDetected();
+  }
+
+  public boolean isWashDetected() {
+    return positiveSamples > positiveSamplesRequired;
+  }
+
+  public int getPositiveSamples() {
+    return positiveSamples;
+  }
+
+  public void reset() {
+    head = 0;
+    size = 0;
+    positiveSamples = 0;
+  }
+}
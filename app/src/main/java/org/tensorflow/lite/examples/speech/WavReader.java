@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** Reads 16-bit mono PCM WAV files, the format the recognition model was trained on. */
+public final class WavReader {
+  private static final int RIFF = 0x46464952; // "RIFF"
+  private static final int WAVE = 0x45564157; // "WAVE"
+  private static final int FMT = 0x20746d66; // "fmt "
+  private static final int DATA = 0x61746164; // "data"
+  private static final int FORMAT_PCM = 1;
+
+  /** Holds the decoded samples of a clip. */
+  public static class Clip {
+    public final short[] samples;
+    public final int sampleRate;
+
+    public Clip(short[] inSamples, int inSampleRate) {
+      samples = inSamples;
+      sampleRate = inSampleRate;
+    }
+  }
+
+  /**
+   * Reads the samples of a clip a block at a time, for recordings too long to hold in memory, such
+   * as a whole day of field audio.
+   */
+  public static class Stream implements Closeable {
+    public final int sampleRate;
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final long dataEnd;
+    private final ByteBuffer readBuffer;
+    private long position;
+
+    private Stream(
+        FileInputStream inInputStream,
+        FileChannel inChannel,
+        int inSampleRate,
+        long inDataStart,
+        long inDataEnd,
+        int inMaxReadSamples) {
+      inputStream = inInputStream;
+      channel = inChannel;
+      sampleRate = inSampleRate;
+      position = inDataStart;
+      dataEnd = inDataEnd;
+      readBuffer = ByteBuffer.allocateDirect(inMaxReadSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads up to the given number of samples, blocking until they are all read or the clip ends.
+     *
+     * @return the number of samples read, which is less than requested only at the end of the clip.
+     */
+    public int read(short[] samples, int offset, int length) throws IOException {
+      int total = 0;
+      while (total < length && position < dataEnd) {
+        readBuffer.clear();
+        final long remainingBytes = dataEnd - position;
+        final int wanted = Math.min(readBuffer.capacity(), (length - total) * 2);
+        readBuffer.limit((int) Math.min(wanted, remainingBytes & ~1L));
+        if (readBuffer.limit() == 0) {
+          break;
+        }
+        while (readBuffer.hasRemaining()) {
+          final int bytesRead = channel.read(readBuffer, position + readBuffer.position());
+          if (bytesRead < 0) {
+            throw new IOException("Clip ended before its data chunk did");
+          }
+        }
+        readBuffer.flip();
+        final int samplesRead = readBuffer.remaining() / 2;
+        readBuffer.asShortBuffer().get(samples, offset + total, samplesRead);
+        position += samplesRead * 2;
+        total += samplesRead;
+      }
+      return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+      inputStream.close();
+    }
+  }
+
+  private WavReader() {}
+
+  /** Opens a clip for reading in blocks of up to the given number of samples. */
+  public static Stream open(File file, int maxReadSamples) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    FileChannel channel = inputStream.getChannel();
+    try {
+      ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0, 12);
+      if (header.getInt(0) != RIFF || header.getInt(8) != WAVE) {
+        throw new IOException(file + " is not a RIFF WAVE file");
+      }
+      int sampleRate = -1;
+      long position = 12;
+      while (position + 8 <= channel.size()) {
+        readFully(channel, header, position, 8);
+        final int chunkId = header.getInt(0);
+        final long chunkSize = header.getInt(4) & 0xffffffffL;
+        position += 8;
+        if (chunkId == FMT) {
+          readFully(channel, header, position, 16);
+          sampleRate = checkFormat(file, header);
+        } else if (chunkId == DATA) {
+          if (sampleRate < 0) {
+            throw new IOException(file + " has a data chunk before its fmt chunk");
+          }
+          final long dataEnd = Math.min(channel.size(), position + chunkSize);
+          return new Stream(inputStream, channel, sampleRate, position, dataEnd, maxReadSamples);
+        }
+        // Chunks are padded to an even number of bytes.
+        position += chunkSize + (chunkSize & 1);
+      }
+      throw new IOException(file + " has no data chunk");
+    } catch (IOException e) {
+      channel.close();
+      inputStream.close();
+      throw e;
+    }
+  }
+
+  public static Clip read(File file) throws IOException {
+    ByteBuffer bytes;
+    try (FileInputStream inputStream = new FileInputStream(file);
+        FileChannel channel = inputStream.getChannel()) {
+      bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    bytes.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (bytes.remaining() < 12 || bytes.getInt() != RIFF) {
+      throw new IOException(file + " is not a RIFF file");
+    }
+    bytes.getInt(); // Overall chunk size, which some writers get wrong.
+    if (bytes.getInt() != WAVE) {
+      throw new IOException(file + " is not a WAVE file");
+    }
+
+    int sampleRate = -1;
+    while (bytes.remaining() >= 8) {
+      final int chunkId = bytes.getInt();
+      final long chunkSize = bytes.getInt() & 0xffffffffL;
+      if (chunkId == DATA) {
+        if (sampleRate < 0) {
+          throw new IOException(file + " has a data chunk before its fmt chunk");
+        }
+        // As in open, a data chunk that runs past the end of the file, from a writer that streamed
+        // it without going back to fill in the size or a recording cut short, ends with the file.
+        short[] samples = new short[(int) Math.min(chunkSize, bytes.remaining()) / 2];
+        bytes.asShortBuffer().get(samples);
+        return new Clip(samples, sampleRate);
+      }
+      if (chunkSize > bytes.remaining()) {
+        throw new IOException(file + " has a truncated chunk");
+      }
+      final int chunkEnd = bytes.position() + (int) chunkSize;
+      if (chunkId == FMT) {
+        sampleRate = checkFormat(file, bytes.slice().order(ByteOrder.LITTLE_ENDIAN));
+      }
+      // Chunks are padded to an even number of bytes.
+      bytes.position(Math.min(bytes.limit(), chunkEnd + (int) (chunkSize & 1)));
+    }
+    throw new IOException(file + " has no data chunk");
+  }
+
+  /** Checks that the fmt chunk starting at the beginning of the buffer is 16-bit mono PCM. */
+  private static int checkFormat(File file, ByteBuffer fmt) throws IOException {
+    final int format = fmt.getShort(0) & 0xffff;
+    final int channels = fmt.getShort(2) & 0xffff;
+    final int sampleRate = fmt.getInt(4);
+    final int bitsPerSample = fmt.getShort(14) & 0xffff;
+    if (format != FORMAT_PCM || channels != 1 || bitsPerSample != 16) {
+      throw new IOException(
+          file
+              + " must be 16-bit mono PCM, but has format "
+              + format
+              + ", "
+              + channels
+              + " channels and "
+              + bitsPerSample
+              + " bits per sample");
+    }
+    return sampleRate;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+      throws IOException {
+    buffer.clear();
+    buffer.limit(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+  }
+}
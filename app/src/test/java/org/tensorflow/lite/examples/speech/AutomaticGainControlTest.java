@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AutomaticGainControlTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  /** Returns the output level over the last second of a three-second tone of the given level. */
+  private static float getSettledRms(float amplitude) {
+    final float[] output =
+        Signals.process(
+            new AutomaticGainControl(SAMPLE_RATE),
+            Signals.tone(440.0f, amplitude, SAMPLE_RATE, 3 * SAMPLE_RATE),
+            1333);
+    return Signals.rms(output, 2 * SAMPLE_RATE, 3 * SAMPLE_RATE);
+  }
+
+  @Test
+  public void evensOutQuietAndLoudInput() {
+    final float quiet = getSettledRms(0.01f);
+    final float loud = getSettledRms(0.9f);
+
+    // 39 dB apart going in.
+    assertEquals(0.0f, Signals.decibels(loud / quiet), 2.0f);
+    assertEquals(0.0f, Signals.decibels(quiet / 0.1f), 6.0f);
+    assertEquals(0.0f, Signals.decibels(loud / 0.1f), 6.0f);
+  }
+
+  @Test
+  public void limitsBoostOfNearSilence() {
+    final AutomaticGainControl control = new AutomaticGainControl(SAMPLE_RATE);
+    final float[] input = Signals.noise(1e-4f, 10 * SAMPLE_RATE, 1);
+    final float[] output = Signals.process(control, input, 1333);
+
+    final int lastSecond = 9 * SAMPLE_RATE;
+    final float boost =
+        Signals.rms(output, lastSecond, output.length)
+            / Signals.rms(input, lastSecond, input.length);
+    assertTrue("boost " + Signals.decibels(boost) + " dB", Signals.decibels(boost) <= 30.01f);
+    assertTrue(Signals.decibels(control.getGain()) <= 30.01f);
+  }
+
+  @Test
+  public void clipsSuddenLoudInput() {
+    final float[] input = new float[3 * SAMPLE_RATE];
+    System.arraycopy(Signals.noise(1e-3f, 2 * SAMPLE_RATE, 2), 0, input, 0, 2 * SAMPLE_RATE);
+    for (int i = 2 * SAMPLE_RATE; i < input.length; ++i) {
+      input[i] = (i / 20) % 2 == 0 ? 1.0f : -1.0f;
+    }
+    final float[] output = Signals.process(new AutomaticGainControl(SAMPLE_RATE), input, 1333);
+
+    for (float sample : output) {
+      assertTrue(sample >= -1.0f && sample <= 1.0f);
+    }
+  }
+
+  @Test
+  public void resetRestoresUnityGain() {
+    final AutomaticGainControl control = new AutomaticGainControl(SAMPLE_RATE);
+    Signals.process(control, Signals.tone(440.0f, 0.01f, SAMPLE_RATE, SAMPLE_RATE), 1333);
+    assertTrue(control.getGain() > 2.0f);
+    control.reset();
+    assertEquals(1.0f, control.getGain(), 0.0f);
+  }
+}
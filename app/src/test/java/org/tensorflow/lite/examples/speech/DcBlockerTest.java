@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DcBlockerTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  /** A 1 kHz tone riding on an offset, as from a microphone with a DC bias. */
+  private static float[] offsetTone() {
+    final float[] samples = Signals.tone(1000.0f, 0.5f, SAMPLE_RATE, SAMPLE_RATE);
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] += 0.3f;
+    }
+    return samples;
+  }
+
+  @Test
+  public void removesOffsetAndKeepsTone() {
+    final float[] output = Signals.process(new DcBlocker(SAMPLE_RATE), offsetTone(), 1333);
+
+    double sum = 0.0;
+    for (int i = SAMPLE_RATE / 2; i < SAMPLE_RATE; ++i) {
+      sum += output[i];
+    }
+    assertEquals(0.0, sum / (SAMPLE_RATE / 2), 1e-3);
+    final float toneRms = 0.5f / (float) Math.sqrt(2);
+    assertEquals(toneRms, Signals.rms(output, SAMPLE_RATE / 2, SAMPLE_RATE), toneRms * 0.01f);
+  }
+
+  @Test
+  public void blockLengthDoesNotChangeTheOutput() {
+    final float[] whole = Signals.process(new DcBlocker(SAMPLE_RATE), offsetTone(), SAMPLE_RATE);
+    for (int blockLength : new int[] {1, 160, 1333}) {
+      assertArrayEquals(
+          whole, Signals.process(new DcBlocker(SAMPLE_RATE), offsetTone(), blockLength), 0.0f);
+    }
+  }
+
+  @Test
+  public void resetStartsAgainFromSilence() {
+    final DcBlocker blocker = new DcBlocker(SAMPLE_RATE);
+    final float[] first = Signals.process(blocker, offsetTone(), 1333);
+    blocker.reset();
+    assertArrayEquals(first, Signals.process(blocker, offsetTone(), 1333), 0.0f);
+    assertEquals(0, blocker.getDelaySamples());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Builds {@link EvaluationReport}s from made-up clip outcomes. */
+public class EvaluationReportTest {
+  private static final List<String> LABELS =
+      Arrays.asList(RecognizeCommands.SILENCE_LABEL, "_unknown_", "wash", "nonwash");
+  private static final int SILENCE = 0;
+  private static final int WASH = 2;
+  private static final int NONWASH = 3;
+
+  @Test
+  public void countsPrecisionAndRecallFromTheConfusionMatrix() {
+    EvaluationReport report = new EvaluationReport(LABELS);
+    report.addClip(WASH, WASH, 1000, 5000, 20, 10000);
+    report.addClip(WASH, WASH, 2000, 6000, 20, 10000);
+    report.addClip(WASH, NONWASH, -1, -1, 20, 10000);
+    report.addClip(NONWASH, WASH, -1, 7000, 20, 10000);
+    report.addClip(NONWASH, SILENCE, -1, -1, 20, 10000);
+
+    assertEquals(5, report.getClipCount());
+    assertEquals(2, report.getConfusion(WASH, WASH));
+    assertEquals(1, report.getConfusion(WASH, NONWASH));
+    // Two of the three clips detected as wash were washes, and two of the three washes were found.
+    assertEquals(2.0f / 3, report.getPrecision(WASH), 1e-6f);
+    assertEquals(2.0f / 3, report.getRecall(WASH), 1e-6f);
+    assertEquals(0.0f, report.getPrecision(NONWASH), 1e-6f);
+    assertEquals(0.0f, report.getRecall(NONWASH), 1e-6f);
+    assertEquals(100, report.getWindowCount());
+    assertEquals(50000, report.getAudioDurationMs());
+  }
+
+  @Test
+  public void takesLatencyPercentilesOnlyFromDetections() {
+    EvaluationReport report = new EvaluationReport(LABELS);
+    for (int i = 1; i <= 10; ++i) {
+      report.addClip(WASH, WASH, i * 100, i * 1000, 20, 10000);
+    }
+    report.addClip(WASH, SILENCE, -1, -1, 20, 10000);
+    // A wash vote on a nonwash clip is a false trigger, not a wash vote latency.
+    report.addClip(NONWASH, NONWASH, 300, 100, 20, 10000);
+
+    assertEquals(500, report.getDetectionLatencyPercentileMs(WASH, 50));
+    assertEquals(1000, report.getDetectionLatencyPercentileMs(WASH, 100));
+    assertEquals(5000, report.getWashVoteLatencyPercentileMs(50));
+    assertEquals(1000, report.getWashVoteLatencyPercentileMs(0));
+    assertEquals(300, report.getDetectionLatencyPercentileMs(NONWASH, 50));
+    assertEquals(-1, report.getDetectionLatencyPercentileMs(SILENCE, 50));
+  }
+
+  @Test
+  public void mergesReportsFromSeparateWorkers() {
+    EvaluationReport whole = new EvaluationReport(LABELS);
+    EvaluationReport first = new EvaluationReport(LABELS);
+    EvaluationReport second = new EvaluationReport(LABELS);
+    for (int i = 0; i < 40; ++i) {
+      final int detected = i % 3 == 0 ? NONWASH : WASH;
+      whole.addClip(WASH, detected, i * 10, i * 100, 20, 10000);
+      (i < 25 ? first : second).addClip(WASH, detected, i * 10, i * 100, 20, 10000);
+    }
+    first.addFailedClip();
+    whole.addFailedClip();
+
+    EvaluationReport merged = first.merge(second);
+    assertEquals(whole.getClipCount(), merged.getClipCount());
+    assertEquals(1, merged.getFailedClipCount());
+    assertEquals(whole.getConfusion(WASH, NONWASH), merged.getConfusion(WASH, NONWASH));
+    assertEquals(whole.getRecall(WASH), merged.getRecall(WASH), 0.0f);
+    for (int percentile = 0; percentile <= 100; percentile += 10) {
+      assertEquals(
+          whole.getDetectionLatencyPercentileMs(WASH, percentile),
+          merged.getDetectionLatencyPercentileMs(WASH, percentile));
+      assertEquals(
+          whole.getWashVoteLatencyPercentileMs(percentile),
+          merged.getWashVoteLatencyPercentileMs(percentile));
+    }
+    assertTrue(merged.toString().contains("Clips: 40 (1 failed)"));
+  }
+}
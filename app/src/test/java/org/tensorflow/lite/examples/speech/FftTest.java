@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks {@link Fft} against a direct DFT. */
+public class FftTest {
+  @Test
+  public void matchesDirectDft() {
+    final int size = 64;
+    final Random random = new Random(1);
+    final float[] real = new float[size];
+    final float[] imaginary = new float[size];
+    for (int i = 0; i < size; ++i) {
+      real[i] = random.nextFloat() * 2 - 1;
+      imaginary[i] = random.nextFloat() * 2 - 1;
+    }
+    final float[] inputReal = real.clone();
+    final float[] inputImaginary = imaginary.clone();
+
+    new Fft(size).transform(real, imaginary, false);
+    for (int k = 0; k < size; ++k) {
+      double expectedReal = 0.0;
+      double expectedImaginary = 0.0;
+      for (int n = 0; n < size; ++n) {
+        final double angle = -2 * Math.PI * k * n / size;
+        expectedReal += inputReal[n] * Math.cos(angle) - inputImaginary[n] * Math.sin(angle);
+        expectedImaginary += inputReal[n] * Math.sin(angle) + inputImaginary[n] * Math.cos(angle);
+      }
+      assertEquals("real " + k, expectedReal, real[k], 1e-4);
+      assertEquals("imaginary " + k, expectedImaginary, imaginary[k], 1e-4);
+    }
+  }
+
+  @Test
+  public void putsToneInItsBin() {
+    final int size = 256;
+    final float[] real = new float[size];
+    final float[] imaginary = new float[size];
+    for (int i = 0; i < size; ++i) {
+      real[i] = (float) Math.cos(2 * Math.PI * 5 * i / size);
+    }
+
+    new Fft(size).transform(real, imaginary, false);
+    for (int k = 0; k < size; ++k) {
+      final double magnitude = Math.hypot(real[k], imaginary[k]);
+      assertEquals("bin " + k, k == 5 || k == size - 5 ? size / 2 : 0, magnitude, 1e-3);
+    }
+  }
+
+  @Test
+  public void roundTripScalesBySize() {
+    final int size = 512;
+    final Random random = new Random(2);
+    final float[] real = new float[size];
+    final float[] imaginary = new float[size];
+    for (int i = 0; i < size; ++i) {
+      real[i] = random.nextFloat() * 2 - 1;
+    }
+    final float[] input = real.clone();
+
+    final Fft fft = new Fft(size);
+    fft.transform(real, imaginary, false);
+    fft.transform(real, imaginary, true);
+    for (int i = 0; i < size; ++i) {
+      assertEquals(input[i] * size, real[i], 1e-3);
+      assertEquals(0.0f, imaginary[i], 1e-3);
+    }
+  }
+
+  @Test
+  public void rejectsSizesThatAreNotPowersOfTwo() {
+    for (int size : new int[] {0, 1, 12, 1000}) {
+      try {
+        new Fft(size);
+        fail("Accepted a size of " + size);
+      } catch (IllegalArgumentException expected) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Plays scripted timelines through {@link LatencyHarness}, scored by a scripted stand-in. */
+public class LatencyHarnessTest {
+  private static final List<String> LABELS =
+      Arrays.asList(RecognizeCommands.SILENCE_LABEL, "_unknown_", "wash", "nonwash");
+  // Smoothing and voting take most of this: the vote needs several wash commands, and each of
+  // those needs the averaged scores over the threshold.
+  private static final long P50_LATENCY_BUDGET_MS = 9500;
+  private static final long P95_LATENCY_BUDGET_MS = 10500;
+  private static final double FALSE_TRIGGERS_PER_HOUR_BUDGET = 1.0;
+
+  private final PipelineSettings settings = new PipelineSettings();
+
+  private LatencyHarness createHarness() {
+    return new LatencyHarness(
+        LABELS, settings, new LatencyHarness.ScriptedScorer(LABELS, settings, 1));
+  }
+
+  /** Five washes, each between silence before and noise after. */
+  private static AudioTimeline createWashes() {
+    AudioTimeline timeline = new AudioTimeline();
+    for (int i = 0; i < 5; ++i) {
+      timeline
+          .add(AudioTimeline.Kind.SILENCE, 15000)
+          .add(AudioTimeline.Kind.WASH, 20000)
+          .add(AudioTimeline.Kind.NOISE, 10000);
+    }
+    return timeline.add(AudioTimeline.Kind.SILENCE, 5000);
+  }
+
+  @Test
+  public void detectsScriptedWashesWithinLatencyBudget() {
+    LatencyHarness.Result result = createHarness().run(createWashes(), 3);
+
+    assertEquals(5, result.washes);
+    assertEquals(5, result.detectedWashes);
+    assertTrue(result.toString(), result.getLatencyPercentileMs(50) <= P50_LATENCY_BUDGET_MS);
+    assertTrue(result.toString(), result.getLatencyPercentileMs(95) <= P95_LATENCY_BUDGET_MS);
+    assertEquals(0, result.falseTriggers);
+    assertEquals(0, result.tornWindows);
+  }
+
+  @Test
+  public void randomTimelinesStayWithinFalseTriggerBudget() {
+    LatencyHarness.Result result = createHarness().runRandom(3, 10 * 60 * 1000, 7);
+
+    assertEquals(result.toString(), result.washes, result.detectedWashes);
+    assertTrue(result.toString(), result.getLatencyPercentileMs(50) <= P50_LATENCY_BUDGET_MS);
+    assertTrue(result.toString(), result.getLatencyPercentileMs(95) <= P95_LATENCY_BUDGET_MS);
+    assertTrue(
+        result.toString(), result.getFalseTriggersPerHour() <= FALSE_TRIGGERS_PER_HOUR_BUDGET);
+  }
+
+  @Test
+  public void monitoringScoresFewerWindowsForLittleExtraLatency() {
+    LatencyHarness.Result interactive = createHarness().run(createWashes(), 3);
+    LatencyHarness harness = createHarness();
+    harness.monitoring = true;
+    LatencyHarness.Result monitoring = harness.run(createWashes(), 3);
+
+    assertEquals(monitoring.washes, monitoring.detectedWashes);
+    assertTrue(monitoring.toString(), monitoring.windows < interactive.windows / 2);
+    assertTrue(
+        monitoring.toString(),
+        monitoring.getLatencyPercentileMs(95) <= interactive.getLatencyPercentileMs(95) + 500);
+    assertEquals(0, monitoring.falseTriggers);
+  }
+
+  @Test
+  public void batchingCatchesUpOnWindowsMissedDuringSlowInference() {
+    LatencyHarness single = createHarness();
+    single.inferenceMs = 180;
+    LatencyHarness.Result skipping = single.run(createWashes(), 3);
+    LatencyHarness batched = createHarness();
+    batched.inferenceMs = 180;
+    batched.batching = true;
+    LatencyHarness.Result catchingUp = batched.run(createWashes(), 3);
+
+    assertTrue(skipping.toString(), skipping.skippedWindows > 0);
+    assertEquals(catchingUp.toString(), 0, catchingUp.skippedWindows);
+    assertEquals(catchingUp.washes, catchingUp.detectedWashes);
+    assertTrue(
+        catchingUp.toString(),
+        catchingUp.getLatencyPercentileMs(50) <= skipping.getLatencyPercentileMs(50));
+    assertEquals(0, catchingUp.falseTriggers);
+  }
+
+  @Test
+  public void throwsAwayWindowsRecordingLappedDuringInference() {
+    LatencyHarness harness = createHarness();
+    // Longer than the buffer holds beyond a window, so every window is overwritten as it's read.
+    harness.inferenceMs = 1500;
+    LatencyHarness.Result result = harness.run(createWashes(), 3);
+
+    assertEquals(result.toString(), result.windows, result.tornWindows);
+    assertEquals(0, result.detectedWashes);
+    assertEquals(0, result.falseTriggers);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Installs and promotes versions in a {@link ModelRegistry} in a temporary directory. */
+public class ModelRegistryTest {
+  private static final List<String> LABELS = Arrays.asList("_silence_", "_unknown_", "wash");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private ModelRegistry registry;
+  private final List<String> promoted = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    registry = new ModelRegistry(folder.newFolder("models"));
+    registry.setListener(promoted::add);
+    registry.setValidator(
+        model -> {
+          if (!model.labels.equals(LABELS)) {
+            throw new IOException("Labels don't match");
+          }
+        });
+  }
+
+  private void install(String version, List<String> labels) throws IOException {
+    registry.install(
+        version,
+        stream("model " + version),
+        stream(String.join("\n", labels) + "\n"),
+        new Properties());
+  }
+
+  private static InputStream stream(String contents) {
+    return new ByteArrayInputStream(contents.getBytes(Charset.forName("UTF-8")));
+  }
+
+  /** Lays a version out in the import directory the way an operator would push it. */
+  private static void stage(File importDir, String version, String metadata) throws IOException {
+    final File versionDir = new File(importDir, version);
+    versionDir.mkdirs();
+    write(new File(versionDir, ModelRegistry.MODEL_FILENAME), "model " + version);
+    write(new File(versionDir, ModelRegistry.LABELS_FILENAME), String.join("\n", LABELS) + "\n");
+    if (metadata != null) {
+      write(new File(versionDir, ModelRegistry.METADATA_FILENAME), metadata);
+    }
+  }
+
+  private static void write(File file, String contents) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(contents.getBytes(Charset.forName("UTF-8")));
+    }
+  }
+
+  @Test
+  public void promotesVersionTheValidatorAccepts() throws IOException {
+    install("v1", LABELS);
+    registry.promote("v1");
+
+    assertEquals("v1", registry.getCurrentVersion());
+    assertEquals(Arrays.asList("v1"), promoted);
+  }
+
+  @Test
+  public void rejectedVersionLeavesCurrentAlone() throws IOException {
+    install("v1", LABELS);
+    registry.promote("v1");
+    install("v2", Arrays.asList("_silence_", "_unknown_", "wash", "rinse"));
+
+    try {
+      registry.promote("v2");
+      fail("Promoted a version with the wrong labels");
+    } catch (IOException expected) {
+      // Expected.
+    }
+    assertEquals("v1", registry.getCurrentVersion());
+    assertEquals(Arrays.asList("v1"), promoted);
+  }
+
+  @Test
+  public void rejectedFirstVersionLeavesNoneCurrent() throws IOException {
+    install("v1", Arrays.asList("yes", "no"));
+
+    try {
+      registry.promote("v1");
+      fail("Promoted a version with the wrong labels");
+    } catch (IOException expected) {
+      // Expected.
+    }
+    assertNull(registry.getCurrentVersion());
+    assertEquals(0, promoted.size());
+  }
+
+  @Test
+  public void importInstallsVersionsAndPromotesTheLast() throws IOException {
+    final File importDir = folder.newFolder("import");
+    stage(importDir, "v2", null);
+    stage(importDir, "v3", "sample_rate=16000\n");
+
+    assertEquals("v3", registry.importFrom(importDir));
+    assertEquals("v3", registry.getCurrentVersion());
+    assertEquals(Arrays.asList("v3"), promoted);
+    assertEquals(Arrays.asList("v2", "v3"), registry.getVersions());
+    assertEquals(0, importDir.listFiles().length);
+  }
+
+  @Test
+  public void importTurnsAwayDamagedVersion() throws IOException {
+    final File importDir = folder.newFolder("import");
+    stage(importDir, "v2", ModelRegistry.KEY_MODEL_SHA256 + "=0123\n");
+
+    assertNull(registry.importFrom(importDir));
+    assertNull(registry.getCurrentVersion());
+    assertEquals(0, registry.getVersions().size());
+    assertFalse(new File(importDir, "v2").exists());
+  }
+
+  @Test
+  public void versionsAreOrderedByInstallTime() throws Exception {
+    install("v2", LABELS);
+    Thread.sleep(10);
+    install("v1", LABELS);
+    // Touching a directory doesn't make its version any newer.
+    new File(folder.getRoot(), "models/v2").setLastModified(System.currentTimeMillis() + 60000);
+
+    assertEquals(Arrays.asList("v2", "v1"), registry.getVersions());
+    registry.prune(1);
+    assertEquals(Arrays.asList("v1"), registry.getVersions());
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Sweeps score traces made up on the spot, with washes where the test put them. */
+public class ParameterSweepTest {
+  private static final List<String> LABELS =
+      Arrays.asList(RecognizeCommands.SILENCE_LABEL, "_unknown_", "wash", "nonwash");
+  private static final int SAMPLE_RATE = 16000;
+  private static final int HOP = 800;
+  private static final long FIRST_SESSION_MS = 1000000;
+  private static final long SECOND_SESSION_MS = FIRST_SESSION_MS + 600000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private ParameterSweep.Trace trace;
+  private final List<long[]> washes = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    final File directory = folder.newFolder("trace");
+    // Small segments, so the trace spans several of them.
+    try (ScoreTraceWriter writer =
+        new ScoreTraceWriter(directory, LABELS, SAMPLE_RATE, 2000, false, 100)) {
+      writeSession(
+          writer,
+          FIRST_SESSION_MS,
+          360000,
+          new long[][] {{60000, 80000}, {180000, 200000}},
+          new long[][] {{20000, 35000}});
+      // The app restarted recording, so the audio clock starts over.
+      writeSession(writer, SECOND_SESSION_MS, 240000, new long[][] {{60000, 85000}}, new long[0][]);
+    }
+    trace = ParameterSweep.Trace.load(directory);
+  }
+
+  /**
+   * Records a session of silence with washes and other noise at the given offsets. Noise after a
+   * wash would pass the vote again, so these tests keep it before the first one.
+   */
+  private void writeSession(
+      ScoreTraceWriter writer, long startMs, long durationMs, long[][] washesMs, long[][] noisesMs)
+      throws IOException {
+    final RecognizeCommands.RecognitionResult result =
+        new RecognizeCommands.RecognitionResult(RecognizeCommands.SILENCE_LABEL, 0.0f, false);
+    final float[] scores = new float[LABELS.size()];
+    for (long windowEnd = HOP; windowEnd * 1000 / SAMPLE_RATE <= durationMs; windowEnd += HOP) {
+      final long timeMs = windowEnd * 1000 / SAMPLE_RATE;
+      Arrays.fill(scores, 0.05f);
+      if (isInside(timeMs, washesMs)) {
+        scores[2] = 0.9f;
+      } else if (isInside(timeMs, noisesMs)) {
+        scores[3] = 0.9f;
+      } else {
+        scores[0] = 0.9f;
+      }
+      writer.append(windowEnd, startMs + timeMs, scores, result);
+    }
+    for (long[] wash : washesMs) {
+      washes.add(new long[] {startMs + wash[0], startMs + wash[1]});
+    }
+  }
+
+  private static boolean isInside(long timeMs, long[][] intervals) {
+    for (long[] interval : intervals) {
+      if (timeMs >= interval[0] && timeMs < interval[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void loadsEverySegmentAndSession() {
+    assertEquals(LABELS, trace.labels);
+    assertEquals(SAMPLE_RATE, trace.sampleRate);
+    assertEquals((360000 + 240000) / 50, trace.recordCount);
+    assertEquals(360000 - 50 + 240000 - 50, trace.getDurationMs());
+  }
+
+  @Test
+  public void detectsEveryLabeledWashWithTheAppSettings() {
+    final PipelineSettings settings = new PipelineSettings();
+    final ParameterSweep sweep = new ParameterSweep(trace, washes, settings);
+    final List<ParameterSweep.Result> results = sweep.run(new ParameterSweep.Grid(settings));
+
+    assertEquals(1, results.size());
+    final ParameterSweep.Result result = results.get(0);
+    assertEquals(result.toString(), 3, result.truePositives);
+    assertEquals(result.toString(), 0, result.falsePositives);
+    assertEquals(result.toString(), 0, result.falseNegatives);
+    assertTrue(result.toString(), result.medianLatencyMs > 0);
+    assertTrue(result.toString(), result.maxLatencyMs <= 20000);
+  }
+
+  @Test
+  public void countsUnlabeledWashesAsFalsePositives() {
+    final PipelineSettings settings = new PipelineSettings();
+    final ParameterSweep sweep = new ParameterSweep(trace, washes.subList(0, 2), settings);
+    final ParameterSweep.Result result = sweep.run(new ParameterSweep.Grid(settings)).get(0);
+
+    assertEquals(result.toString(), 2, result.truePositives);
+    assertTrue(result.toString(), result.falsePositives > 0);
+    assertEquals(result.toString(), 0, result.falseNegatives);
+  }
+
+  @Test
+  public void runsEveryCombinationInGridOrder() {
+    final PipelineSettings settings = new PipelineSettings();
+    settings.parallelism = 4;
+    final ParameterSweep.Grid grid = new ParameterSweep.Grid(settings);
+    // The wash scores never reach the higher threshold.
+    grid.detectionThresholds = new float[] {0.5f, 0.95f};
+    grid.positiveSamplesRequired = new int[] {3, 5, 7};
+    final List<ParameterSweep.Result> results =
+        new ParameterSweep(trace, washes, settings).run(grid);
+
+    assertEquals(6, results.size());
+    for (int i = 0; i < results.size(); ++i) {
+      final ParameterSweep.Result result = results.get(i);
+      assertEquals(i % 2 == 0 ? 0.5f : 0.95f, result.settings.detectionThreshold, 0.0f);
+      assertEquals(3 + 2 * (i / 2), result.settings.positiveSamplesRequired);
+      if (i % 2 == 0) {
+        assertEquals(result.toString(), 3, result.truePositives);
+      } else {
+        assertEquals(result.toString(), 0, result.truePositives);
+        assertEquals(result.toString(), 3, result.falseNegatives);
+      }
+    }
+    // Needing more of the vote only makes detection slower here.
+    assertTrue(results.get(0).medianLatencyMs < results.get(2).medianLatencyMs);
+    assertTrue(results.get(2).medianLatencyMs < results.get(4).medianLatencyMs);
+
+    final List<ParameterSweep.Result> front = ParameterSweep.getParetoFront(results);
+    assertEquals(1, front.size());
+    assertEquals(3, front.get(0).settings.positiveSamplesRequired);
+  }
+
+  @Test
+  public void readsWashIntervalsFromCsv() throws IOException {
+    final File file = folder.newFile("washes.csv");
+    try (Writer writer = new FileWriter(file)) {
+      writer.write("# startMs,endMs\n1000,2000\n\n 3000 , 4500 \n");
+    }
+    final List<long[]> intervals = ParameterSweep.readWashIntervals(file);
+
+    assertEquals(2, intervals.size());
+    assertEquals(1000, intervals.get(0)[0]);
+    assertEquals(2000, intervals.get(0)[1]);
+    assertEquals(3000, intervals.get(1)[0]);
+    assertEquals(4500, intervals.get(1)[1]);
+  }
+
+  @Test
+  public void rejectsWashesThatEndBeforeTheyStart() throws IOException {
+    final File file = folder.newFile("washes.csv");
+    try (Writer writer = new FileWriter(file)) {
+      writer.write("1000,2000\n5000,4000\n");
+    }
+    try {
+      ParameterSweep.readWashIntervals(file);
+      fail("Read a wash that ends before it starts");
+    } catch (IOException e) {
+      assertFalse(e.getMessage(), e.getMessage().isEmpty());
+      assertTrue(e.getMessage(), e.getMessage().contains(":2:"));
+    }
+  }
+}
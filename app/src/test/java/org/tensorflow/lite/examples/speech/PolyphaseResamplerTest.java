@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks {@link PolyphaseResampler} against tones whose output is known in advance. */
+public class PolyphaseResamplerTest {
+  private static float[] tone(float frequency, int sampleRate, int length) {
+    final float[] samples = new float[length];
+    for (int i = 0; i < length; ++i) {
+      samples[i] = (float) Math.sin(2 * Math.PI * frequency * i / sampleRate);
+    }
+    return samples;
+  }
+
+  /** Resamples all of the input in blocks of the given length and returns the output. */
+  private static float[] resample(PolyphaseResampler resampler, float[] input, int blockLength) {
+    final float[] output = new float[resampler.getMaxOutputLength(input.length) + input.length];
+    int outputLength = 0;
+    for (int offset = 0; offset < input.length; offset += blockLength) {
+      final int length = Math.min(blockLength, input.length - offset);
+      outputLength += resampler.process(input, offset, length, output, outputLength);
+    }
+    return Arrays.copyOf(output, outputLength);
+  }
+
+  /**
+   * Returns the largest difference between the output and the tone it should be, delayed by the
+   * filter, once the filter has filled up.
+   */
+  private static float getToneError(
+      PolyphaseResampler resampler, float[] output, float frequency) {
+    final int rate = resampler.getOutputRate();
+    final double delaySeconds = resampler.getDelayMs() / 1000.0;
+    final int settled = (int) (2 * delaySeconds * rate) + 1;
+    float maxError = 0.0f;
+    for (int i = settled; i < output.length; ++i) {
+      final double time = (double) i / rate - delaySeconds;
+      final double expected = Math.sin(2 * Math.PI * frequency * time);
+      maxError = Math.max(maxError, (float) Math.abs(output[i] - expected));
+    }
+    return maxError;
+  }
+
+  private static float getRms(float[] samples, int start) {
+    double sum = 0.0;
+    for (int i = start; i < samples.length; ++i) {
+      sum += samples[i] * samples[i];
+    }
+    return (float) Math.sqrt(sum / (samples.length - start));
+  }
+
+  @Test
+  public void producesOutputAtTheOutputRate() {
+    final int[][] rates = {{48000, 16000}, {44100, 16000}, {16000, 48000}, {16000, 16000}};
+    for (int[] rate : rates) {
+      final PolyphaseResampler resampler = new PolyphaseResampler(rate[0], rate[1], 1024);
+      final float[] output = resample(resampler, new float[rate[0] * 2], 1000);
+      assertEquals(rate[0] + " to " + rate[1], rate[1] * 2, output.length, 1);
+    }
+  }
+
+  @Test
+  public void passesToneInTheBandUnchanged() {
+    final int[][] rates = {{48000, 16000}, {44100, 16000}, {16000, 48000}};
+    for (int[] rate : rates) {
+      final PolyphaseResampler resampler = new PolyphaseResampler(rate[0], rate[1], 4000);
+      final float[] output = resample(resampler, tone(1000.0f, rate[0], rate[0]), 4000);
+      final float error = getToneError(resampler, output, 1000.0f);
+      assertTrue(rate[0] + " to " + rate[1] + ": error " + error, error < 1e-3f);
+    }
+  }
+
+  @Test
+  public void removesToneAboveTheOutputNyquistRate() {
+    final PolyphaseResampler resampler = new PolyphaseResampler(48000, 16000, 4000);
+    final float[] output = resample(resampler, tone(10000.0f, 48000, 48000), 4000);
+    // Would alias down to 6 kHz if the filter let it through. The bound is 77 dB below the tone.
+    final float rms = getRms(output, 1000);
+    assertTrue("RMS " + rms, rms < 1e-4f);
+  }
+
+  @Test
+  public void blockLengthDoesNotChangeTheOutput() {
+    final Random random = new Random(1);
+    final float[] input = new float[20000];
+    for (int i = 0; i < input.length; ++i) {
+      input[i] = random.nextFloat() * 2 - 1;
+    }
+    final float[] whole = resample(new PolyphaseResampler(44100, 16000, 512), input, 512);
+    // Blocks both shorter and longer than the resampler buffers at once.
+    for (int blockLength : new int[] {1, 7, 441, 2000}) {
+      assertArrayEquals(
+          "blocks of " + blockLength,
+          whole,
+          resample(new PolyphaseResampler(44100, 16000, 512), input, blockLength),
+          0.0f);
+    }
+  }
+
+  @Test
+  public void resetStartsAgainFromSilence() {
+    final PolyphaseResampler resampler = new PolyphaseResampler(48000, 16000, 4000);
+    final float[] input = tone(440.0f, 48000, 12000);
+    final float[] first = resample(resampler, input, 4000);
+    resampler.reset();
+    assertArrayEquals(first, resample(resampler, input, 4000), 0.0f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveRates() {
+    new PolyphaseResampler(0, 16000, 1024);
+  }
+
+  @Test
+  public void benchmarkReportsCostAndLatency() {
+    final ResamplerBenchmark.Result result = ResamplerBenchmark.run(48000, 4000, 1);
+
+    assertEquals(48000, result.inputRate);
+    assertTrue(result.toString(), result.msPerSecond > 0.0);
+    assertEquals(new PolyphaseResampler(48000, 16000, 4000).getDelayMs(), result.filterDelayMs, 0);
+    assertEquals(4000 * 1000.0f / 48000, result.blockDelayMs, 1e-3f);
+  }
+}
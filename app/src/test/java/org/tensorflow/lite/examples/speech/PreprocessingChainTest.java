@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PreprocessingChainTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  @Test
+  public void runsStagesInOrder() {
+    final float[] input = Signals.noise(0.1f, SAMPLE_RATE, 1);
+    final float[] expected =
+        Signals.process(
+            new AutomaticGainControl(SAMPLE_RATE),
+            Signals.process(
+                new SpectralNoiseSuppressor(SAMPLE_RATE),
+                Signals.process(new DcBlocker(SAMPLE_RATE), input, 1333),
+                1333),
+            1333);
+
+    assertArrayEquals(
+        expected, Signals.process(PreprocessingChain.createDefault(SAMPLE_RATE), input, 1333), 0);
+  }
+
+  @Test
+  public void addsUpTheDelaysAndResetsEveryStage() {
+    final PreprocessingChain chain = PreprocessingChain.createDefault(SAMPLE_RATE);
+    assertEquals(
+        new SpectralNoiseSuppressor(SAMPLE_RATE).getDelaySamples(), chain.getDelaySamples());
+
+    final float[] input = Signals.noise(0.1f, SAMPLE_RATE, 2);
+    final float[] first = Signals.process(chain, input, 1333);
+    chain.reset();
+    assertArrayEquals(first, Signals.process(chain, input, 1333), 0.0f);
+  }
+
+  @Test
+  public void benchmarkTimesEveryStage() {
+    final String report = AudioProcessorBenchmark.runDefaultChain(SAMPLE_RATE, 1333, 1);
+
+    assertTrue(report, report.contains("DC blocker: "));
+    assertTrue(report, report.contains("Noise suppressor: "));
+    assertTrue(report, report.contains("Gain control: "));
+    assertTrue(report, report.contains("Whole chain: "));
+    assertTrue(report, report.contains("delay 32.0 ms"));
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Writes score traces with {@link ScoreTraceWriter} and reads them back. */
+public class ScoreTraceTest {
+  private static final List<String> LABELS =
+      Arrays.asList(RecognizeCommands.SILENCE_LABEL, "_unknown_", "wash", "nonwash");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Writes records with scores that depend on their index, and returns the directory. */
+  private File writeTrace(int records, int recordsPerSegment, boolean useFloat16, int maxSegments)
+      throws IOException {
+    final File directory = folder.newFolder();
+    final float[] scores = new float[LABELS.size()];
+    try (ScoreTraceWriter writer =
+        new ScoreTraceWriter(
+            directory, LABELS, 16000, recordsPerSegment, useFloat16, maxSegments)) {
+      for (int i = 0; i < records; ++i) {
+        for (int label = 0; label < scores.length; ++label) {
+          scores[label] = (i % 100) / 100.0f + label / 1000.0f;
+        }
+        writer.append(
+            (i + 1) * 800L,
+            1000000L + i * 50L,
+            scores,
+            new RecognizeCommands.RecognitionResult(LABELS.get(i % 4), i % 7 / 7.0f, i % 3 == 0));
+      }
+    }
+    return directory;
+  }
+
+  private static void checkRecords(File directory, int firstRecord, int records, float tolerance)
+      throws IOException {
+    int i = firstRecord;
+    for (File file : ScoreTraceReader.listSegments(directory)) {
+      try (ScoreTraceReader reader = new ScoreTraceReader(file)) {
+        assertEquals(LABELS, reader.getLabels());
+        assertEquals(16000, reader.getSampleRate());
+        for (int r = 0; r < reader.getRecordCount(); ++r, ++i) {
+          assertEquals((i + 1) * 800L, reader.getWindowEnd(r));
+          assertEquals(1000000L + i * 50L, reader.getWallTimeMs(r));
+          for (int label = 0; label < LABELS.size(); ++label) {
+            assertEquals(
+                (i % 100) / 100.0f + label / 1000.0f, reader.getScore(r, label), tolerance);
+          }
+          assertEquals(i % 4, reader.getResultLabel(r));
+          assertEquals(i % 7 / 7.0f, reader.getResultScore(r), tolerance);
+          assertEquals(i % 3 == 0, reader.isNewCommand(r));
+        }
+      }
+    }
+    assertEquals(firstRecord + records, i);
+  }
+
+  @Test
+  public void readsBackEveryRecordAcrossSegments() throws IOException {
+    final File directory = writeTrace(2500, 1000, false, 10);
+
+    assertEquals(3, ScoreTraceReader.listSegments(directory).size());
+    checkRecords(directory, 0, 2500, 0.0f);
+  }
+
+  @Test
+  public void readsBackHalfPrecisionScores() throws IOException {
+    final File directory = writeTrace(500, 1000, true, 10);
+
+    checkRecords(directory, 0, 500, 1e-3f);
+  }
+
+  @Test
+  public void dropsTheOldestSegmentsBeyondTheLimit() throws IOException {
+    final File directory = writeTrace(5500, 1000, false, 2);
+
+    final List<File> segments = ScoreTraceReader.listSegments(directory);
+    assertEquals(2, segments.size());
+    assertTrue(segments.get(1).getName().compareTo(segments.get(0).getName()) > 0);
+    checkRecords(directory, 4000, 1500, 0.0f);
+  }
+}
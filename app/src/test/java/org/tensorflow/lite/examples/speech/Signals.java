@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import java.util.Random;
+
+/** Test signals for the audio processing stages, and measurements of what comes out. */
+final class Signals {
+  private Signals() {}
+
+  static float[] tone(float frequency, float amplitude, int sampleRate, int length) {
+    final float[] samples = new float[length];
+    for (int i = 0; i < length; ++i) {
+      samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+    }
+    return samples;
+  }
+
+  static float[] noise(float rms, int length, long seed) {
+    final Random random = new Random(seed);
+    final float[] samples = new float[length];
+    for (int i = 0; i < length; ++i) {
+      samples[i] = (float) (random.nextGaussian() * rms);
+    }
+    return samples;
+  }
+
+  static float rms(float[] samples, int start, int end) {
+    double sum = 0.0;
+    for (int i = start; i < end; ++i) {
+      sum += samples[i] * samples[i];
+    }
+    return (float) Math.sqrt(sum / (end - start));
+  }
+
+  static float decibels(float ratio) {
+    return (float) (20 * Math.log10(ratio));
+  }
+
+  /** Runs a copy of the samples through the stage in blocks of the given length. */
+  static float[] process(AudioProcessor processor, float[] samples, int blockLength) {
+    final float[] output = samples.clone();
+    for (int offset = 0; offset < output.length; offset += blockLength) {
+      processor.process(output, offset, Math.min(blockLength, output.length - offset));
+    }
+    return output;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpectralNoiseSuppressorTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int TONE_START = 6 * SAMPLE_RATE;
+  private static final int TONE_END = 7 * SAMPLE_RATE;
+
+  /** Eight seconds of steady noise, with a second of tone 30 dB above it starting at six. */
+  private static float[] noiseWithTone() {
+    final float[] samples = Signals.noise(0.01f, 8 * SAMPLE_RATE, 1);
+    final float[] tone = Signals.tone(1000.0f, 0.3f, SAMPLE_RATE, SAMPLE_RATE);
+    for (int i = TONE_START; i < TONE_END; ++i) {
+      samples[i] += tone[i - TONE_START];
+    }
+    return samples;
+  }
+
+  @Test
+  public void reducesSteadyNoise() {
+    final float[] input = noiseWithTone();
+    final float[] output = Signals.process(new SpectralNoiseSuppressor(SAMPLE_RATE), input, 1333);
+
+    final float reduction =
+        Signals.rms(output, 4 * SAMPLE_RATE, 5 * SAMPLE_RATE)
+            / Signals.rms(input, 4 * SAMPLE_RATE, 5 * SAMPLE_RATE);
+    assertTrue("noise " + Signals.decibels(reduction) + " dB", Signals.decibels(reduction) < -3);
+  }
+
+  @Test
+  public void passesSoundWellAboveTheNoiseLateByTheReportedDelay() {
+    final SpectralNoiseSuppressor suppressor = new SpectralNoiseSuppressor(SAMPLE_RATE);
+    final float[] input = noiseWithTone();
+    final float[] output = Signals.process(suppressor, input, 1333);
+    final int delay = suppressor.getDelaySamples();
+
+    // The output lines up best with the input at the reported delay.
+    int bestLag = 0;
+    double bestCorrelation = Double.NEGATIVE_INFINITY;
+    for (int lag = 0; lag < 2 * delay; ++lag) {
+      double correlation = 0.0;
+      for (int i = TONE_START + 4000; i < TONE_START + 8000; ++i) {
+        correlation += input[i] * output[i + lag];
+      }
+      if (correlation > bestCorrelation) {
+        bestCorrelation = correlation;
+        bestLag = lag;
+      }
+    }
+    assertEquals(delay, bestLag);
+    final float inputRms = Signals.rms(input, TONE_START + 2000, TONE_END - 2000);
+    final float outputRms = Signals.rms(output, TONE_START + 2000 + delay, TONE_END - 2000 + delay);
+    assertEquals(0.0f, Signals.decibels(outputRms / inputRms), 0.5f);
+  }
+
+  @Test
+  public void blockLengthDoesNotChangeTheOutput() {
+    final float[] input = noiseWithTone();
+    final float[] whole =
+        Signals.process(new SpectralNoiseSuppressor(SAMPLE_RATE), input, input.length);
+    for (int blockLength : new int[] {1, 100, 1333, 4096}) {
+      assertArrayEquals(
+          "blocks of " + blockLength,
+          whole,
+          Signals.process(new SpectralNoiseSuppressor(SAMPLE_RATE), input, blockLength),
+          0.0f);
+    }
+  }
+
+  @Test
+  public void resetStartsAgainFromSilence() {
+    final SpectralNoiseSuppressor suppressor = new SpectralNoiseSuppressor(SAMPLE_RATE);
+    final float[] input = noiseWithTone();
+    final float[] first = Signals.process(suppressor, input, 1333);
+    suppressor.reset();
+    assertArrayEquals(first, Signals.process(suppressor, input, 1333), 0.0f);
+  }
+}
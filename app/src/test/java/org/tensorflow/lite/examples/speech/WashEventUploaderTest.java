@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Runs {@link WashEventUploader} against a {@link StandInEventServer}. */
+public class WashEventUploaderTest {
+  private static final long TIMEOUT_MS = 10000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private WashEventLog log;
+  private StandInEventServer server;
+  private WashEventUploader uploader;
+
+  @Before
+  public void setUp() throws IOException {
+    log = new WashEventLog(folder.newFolder("log"));
+    server = new StandInEventServer(0);
+    uploader = new WashEventUploader(log, server);
+    uploader.maxBatchDelayMs = 0;
+    uploader.initialBackoffMs = 1;
+    uploader.maxBackoffMs = 10;
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    uploader.close();
+    log.close();
+  }
+
+  @Test
+  public void deliversEveryEventOnceDespiteFailures() throws Exception {
+    server.failureRate = 0.5f;
+    uploader.maxBatchEvents = 10;
+    uploader.start();
+    for (int i = 0; i < 200; ++i) {
+      uploader.submit(1000L * i, 0.9f, false);
+    }
+    awaitIdle();
+
+    assertEquals(200, server.getEventCount());
+    assertEquals(0, server.getDuplicateEventCount());
+    // Some batches were taken but their reply was lost, and the retry was recognized by its key.
+    assertTrue(server.getDuplicateRequestCount() > 0);
+    final WashEventUploader.Stats stats = uploader.getStats();
+    assertEquals(200, stats.uploadedEvents);
+    assertTrue(stats.retries > 0);
+  }
+
+  @Test
+  public void retriesTheSameBatchWithTheSameKey() throws Exception {
+    server.failureRate = 1.0f;
+    for (int i = 0; i < 5; ++i) {
+      uploader.submit(1000L * i, 0.9f, false);
+    }
+    uploader.start();
+    awaitRequests(3);
+    // Events that arrive during the retries wait for the next batch.
+    uploader.submit(9000, 0.9f, true);
+    awaitRequests(5);
+    synchronized (server) {
+      server.failureRate = 0.0f;
+    }
+    awaitIdle();
+
+    final List<String> keys = server.getRequestKeys();
+    final String first = keys.get(0);
+    assertTrue(first, first.endsWith(":1-5"));
+    assertEquals(first, keys.get(keys.size() - 2));
+    assertTrue(keys.get(keys.size() - 1).endsWith(":6-6"));
+    assertEquals(6, server.getEventCount());
+  }
+
+  @Test
+  public void backsOffExponentially() throws Exception {
+    server.failureRate = 1.0f;
+    uploader.initialBackoffMs = 50;
+    uploader.maxBackoffMs = 200;
+    uploader.start();
+    uploader.submit(0, 0.9f, false);
+    Thread.sleep(1200);
+    // Counts a request the server has seen as a retry only once the reply is back, so stop first.
+    uploader.close();
+
+    // Waits of at least 50, 100 and then 200 ms leave time for no more than eight attempts.
+    final long requests = server.getRequestCount();
+    assertTrue("requests: " + requests, requests >= 2 && requests <= 8);
+    assertEquals(requests - 1, uploader.getStats().retries);
+  }
+
+  @Test
+  public void writesEventsToTheLogDuringABackoff() throws Exception {
+    server.failureRate = 1.0f;
+    uploader.initialBackoffMs = 60 * 1000;
+    uploader.start();
+    uploader.submit(0, 0.9f, false);
+    awaitRequests(1);
+    uploader.submit(1000, 0.9f, false);
+    uploader.submit(2000, 0.9f, true);
+
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (log.getPendingCount() < 3) {
+      assertTrue("Events weren't logged in the backoff", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+    // They didn't cut the backoff short.
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void dropsBatchesTheServerRejects() throws Exception {
+    server.rejectionRate = 1.0f;
+    server.rejectionStatus = 400;
+    // Queue the events before starting, so that they go out as one batch.
+    for (int i = 0; i < 5; ++i) {
+      uploader.submit(1000L * i, 0.9f, false);
+    }
+    uploader.start();
+    awaitIdle();
+
+    assertEquals(1, server.getRequestCount());
+    assertEquals(0, server.getEventCount());
+    assertEquals(5, uploader.getStats().droppedEvents);
+    assertEquals(0, log.getPendingCount());
+  }
+
+  @Test
+  public void retriesWhenTheServerIsThrottling() throws Exception {
+    server.rejectionRate = 1.0f;
+    server.rejectionStatus = 429;
+    uploader.start();
+    uploader.submit(0, 0.9f, false);
+    awaitRequests(3);
+    synchronized (server) {
+      server.rejectionRate = 0.0f;
+    }
+    awaitIdle();
+
+    assertEquals(1, server.getEventCount());
+    assertEquals(0, uploader.getStats().droppedEvents);
+  }
+
+  @Test
+  public void benchmarkClearsABacklog() throws Exception {
+    UploadBenchmark.Result result =
+        UploadBenchmark.run(folder.newFolder("backlog"), 2000, 100, 0.2f);
+    assertEquals(2000, result.delivered);
+    assertEquals(2000, result.stats.uploadedEvents);
+  }
+
+  private void awaitIdle() throws Exception {
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!uploader.isIdle()) {
+      assertTrue("Uploader didn't finish", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private void awaitRequests(int count) throws Exception {
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (server.getRequestCount() < count) {
+      assertTrue("Server didn't get " + count + " requests", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.speech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WavReaderTest {
+  private static final short[] SAMPLES = {0, 1000, -1000, 32767, -32768, 7};
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Writes a 16 kHz mono clip of {@link #SAMPLES}, claiming the given size for its data chunk. */
+  private File writeClip(long dataSize) throws IOException {
+    ByteBuffer bytes = ByteBuffer.allocate(44 + SAMPLES.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+    bytes.put("RIFF".getBytes("US-ASCII")).putInt((int) (36 + dataSize));
+    bytes.put("WAVE".getBytes("US-ASCII"));
+    bytes.put("fmt ".getBytes("US-ASCII")).putInt(16);
+    bytes.putShort((short) 1).putShort((short) 1).putInt(16000).putInt(32000);
+    bytes.putShort((short) 2).putShort((short) 16);
+    bytes.put("data".getBytes("US-ASCII")).putInt((int) dataSize);
+    for (short sample : SAMPLES) {
+      bytes.putShort(sample);
+    }
+    final File file = folder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(bytes.array());
+    }
+    return file;
+  }
+
+  private static short[] readStream(File file) throws IOException {
+    try (WavReader.Stream stream = WavReader.open(file, 4)) {
+      final short[] samples = new short[SAMPLES.length + 10];
+      final int count = stream.read(samples, 0, samples.length);
+      final short[] read = new short[count];
+      System.arraycopy(samples, 0, read, 0, count);
+      return read;
+    }
+  }
+
+  @Test
+  public void readsClip() throws IOException {
+    final File file = writeClip(SAMPLES.length * 2);
+    final WavReader.Clip clip = WavReader.read(file);
+
+    assertEquals(16000, clip.sampleRate);
+    assertArrayEquals(SAMPLES, clip.samples);
+    assertArrayEquals(SAMPLES, readStream(file));
+  }
+
+  @Test
+  public void dataChunkEndsWithTheFile() throws IOException {
+    for (long dataSize : new long[] {0xffffffffL, SAMPLES.length * 2 + 1000}) {
+      final File file = writeClip(dataSize);
+      assertArrayEquals(SAMPLES, WavReader.read(file).samples);
+      assertArrayEquals(SAMPLES, readStream(file));
+    }
+  }
+}